@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Routable with no bookkeeping: it lets the benchmarks measure the network and not the peer.
+ */
+final class BenchmarkPeer implements Routable {
+    private final RoutableId<?> id;
+    private final Blackhole blackhole;
+
+    BenchmarkPeer(RoutableId<?> id, Blackhole blackhole) {
+        this.id = id;
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public RoutableId<?> id() {
+        return id;
+    }
+
+    @Override
+    public void deliverMessage(NetworkId<?> networkId, Message<?> message) {
+        blackhole.consume(message);
+    }
+
+    @Override
+    public void forceDisconnection(NetworkId<?> networkId) {
+        // nothing to release
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.log.com.github.alessandrofrenna.broaddy=warn")
+public class BroadcastBenchmark {
+    @Param({"1", "10", "100", "1000", "10000", "100000"})
+    int fanOut;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    private BroadcastNetwork network;
+    private Message<String> message;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        var networkId = new NetworkId.Str("broadcast_benchmark");
+        network = new DefaultBroadcastNetwork(networkId, BroadcastExecutors.callerThread(), BroadcastMetrics.NOOP, parallel ? new ParallelFanOut() : null);
+        for (int i = 0; i < fanOut; i++) {
+            network.connectPeer(new BenchmarkPeer(new RoutableId.String("peer_" + i), blackhole));
+        }
+        message = new BenchmarkMessage("payload");
+    }
+
+    @Benchmark
+    public void broadcast() {
+        network.broadcast(message);
+    }
+}
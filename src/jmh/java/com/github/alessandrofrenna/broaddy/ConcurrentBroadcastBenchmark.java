@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Broadcast throughput of many producers sharing one network of 8 peers, alone and while another thread connects and
+ * disconnects a peer. {@link #broadcast()} runs on 8 threads, run it with {@code -t 1} and {@code -t 4} to compare the scaling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.log.com.github.alessandrofrenna.broaddy=warn")
+public class ConcurrentBroadcastBenchmark {
+    private BroadcastNetwork network;
+    private Message<String> message;
+    private Routable churnPeer;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        network = new DefaultBroadcastNetwork(new NetworkId.Str("concurrent_broadcast_benchmark"));
+        for (int i = 0; i < 8; i++) {
+            network.connectPeer(new BenchmarkPeer(new RoutableId.String("peer_" + i), blackhole));
+        }
+        message = new BenchmarkMessage("payload");
+        churnPeer = new BenchmarkPeer(new RoutableId.String("churn_peer"), blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void broadcast() {
+        network.broadcast(message);
+    }
+
+    @Benchmark
+    @Group("broadcastDuringChurn")
+    @GroupThreads(7)
+    public void producer() {
+        network.broadcast(message);
+    }
+
+    @Benchmark
+    @Group("broadcastDuringChurn")
+    @GroupThreads(1)
+    public void churn() {
+        network.connectPeer(churnPeer);
+        network.disconnectPeer(churnPeer.id());
+    }
+}
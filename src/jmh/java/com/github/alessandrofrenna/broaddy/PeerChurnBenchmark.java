@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Every thread connects and disconnects its own peer on a network that already holds {@code networkSize} peers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.log.com.github.alessandrofrenna.broaddy=warn")
+public class PeerChurnBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class NetworkState {
+        @Param({"1000", "100000"})
+        int networkSize;
+
+        @Param({"default", "sharded"})
+        String networkType;
+
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        BroadcastNetwork network;
+
+        @Setup(Level.Trial)
+        public void setUp(Blackhole blackhole) {
+            var networkId = new NetworkId.Str("churn_benchmark");
+            network = "sharded".equals(networkType) ? new ShardedBroadcastNetwork(networkId) : new DefaultBroadcastNetwork(networkId);
+            for (int i = 0; i < networkSize; i++) {
+                network.connectPeer(new BenchmarkPeer(new RoutableId.String("peer_" + i), blackhole));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PeerState {
+        Routable peer;
+
+        @Setup(Level.Trial)
+        public void setUp(NetworkState networkState, Blackhole blackhole) {
+            peer = new BenchmarkPeer(new RoutableId.String("churn_peer_" + networkState.threadCount.incrementAndGet()), blackhole);
+        }
+    }
+
+    @Benchmark
+    public BroadcastNetwork.Disconnect connectAndDisconnect(NetworkState networkState, PeerState peerState) {
+        networkState.network.connectPeer(peerState.peer);
+        return networkState.network.disconnectPeer(peerState.peer.id());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.log.com.github.alessandrofrenna.broaddy=warn")
+public class RegistryBenchmark {
+    @Param({"1000", "100000"})
+    int registrySize;
+
+    @Param({"string", "long"})
+    String idType;
+
+    private BroadcastNetworkRegistry registry;
+    private NetworkId<?> storedId;
+    private BroadcastNetwork transientNetwork;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new InMemoryBroadcastNetworkRegistry();
+        for (int i = 0; i < registrySize; i++) {
+            registry.store(new DefaultBroadcastNetwork(networkId(i)));
+        }
+        storedId = networkId(registrySize / 2);
+        transientNetwork = new DefaultBroadcastNetwork(networkId(-1));
+    }
+
+    private NetworkId<?> networkId(long index) {
+        return "long".equals(idType) ? new NetworkId.Num(index) : new NetworkId.Str("network_" + index);
+    }
+
+    @Benchmark
+    public Optional<BroadcastNetwork> find() {
+        return registry.find(storedId);
+    }
+
+    @Benchmark
+    public boolean storeAndRemove() {
+        boolean stored = registry.store(transientNetwork);
+        registry.remove(transientNetwork.id());
+        return stored;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Framing and backpressure of the connections of a {@link NetworkBridge}.
+ *
+ * @param maxFrameSize largest encoded message in bytes, a remote peer sending a larger frame is disconnected
+ * @param maxPendingBytes encoded bytes queued for a connection before the overflow policy applies
+ * @param overflowPolicy handling of a message sent to a connection whose queue is full
+ * @param overflowHandler receives the messages discarded by {@link OverflowPolicy#FAIL}
+ */
+public record BridgeConfig(int maxFrameSize, long maxPendingBytes, OverflowPolicy overflowPolicy, Consumer<Message<?>> overflowHandler) {
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+    public static final long DEFAULT_MAX_PENDING_BYTES = 16L * 1024 * 1024;
+
+    public BridgeConfig {
+        if (maxFrameSize <= 0 || maxFrameSize > Integer.MAX_VALUE - Integer.BYTES) {
+            throw new IllegalArgumentException("maxFrameSize must be between 1 and " + (Integer.MAX_VALUE - Integer.BYTES) + ", " + maxFrameSize + " provided");
+        }
+        if (maxPendingBytes <= 0) {
+            throw new IllegalArgumentException("maxPendingBytes must be greater than zero, " + maxPendingBytes + " provided");
+        }
+        if (Objects.isNull(overflowPolicy)) {
+            throw new IllegalArgumentException("overflowPolicy is required, null provided");
+        }
+        if (Objects.isNull(overflowHandler)) {
+            throw new IllegalArgumentException("overflowHandler is required, null provided");
+        }
+    }
+
+    public BridgeConfig(int maxFrameSize, long maxPendingBytes, OverflowPolicy overflowPolicy) {
+        this(maxFrameSize, maxPendingBytes, overflowPolicy, message -> { });
+    }
+
+    /**
+     * Frames of up to 1 MiB, 16 MiB queued per connection, publishers wait for a slow connection.
+     */
+    public BridgeConfig() {
+        this(DEFAULT_MAX_FRAME_SIZE, DEFAULT_MAX_PENDING_BYTES, OverflowPolicy.BLOCK);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class BroadcastExecutors {
+    private static final Logger LOG = LoggerFactory.getLogger(BroadcastExecutors.class);
+    private static final Executor CALLER_THREAD = Runnable::run;
+    private static final int BOUNDED_POOL_QUEUE_CAPACITY = 8192;
+
+    private BroadcastExecutors() { }
+
+    /**
+     * Executor that runs every task on the thread that submits it.
+     * A network built with it delivers messages synchronously.
+     */
+    public static Executor callerThread() {
+        return CALLER_THREAD;
+    }
+
+    /**
+     * Shared executor used for asynchronous dispatch.
+     * On Java 21+ it creates a virtual thread per task, on Java 17 it is a bounded pool of daemon threads that
+     * falls back to running the task on the caller thread when its queue is full.
+     */
+    public static Executor defaultExecutor() {
+        return DefaultExecutorHolder.INSTANCE;
+    }
+
+    private static ExecutorService createDefaultExecutor() {
+        try {
+            // Resolved reflectively: the library is compiled with --release 17
+            var factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            LOG.trace("Using a virtual thread per task executor for asynchronous dispatch");
+            return (ExecutorService) factoryMethod.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.trace("Virtual threads are not available, using a bounded pool for asynchronous dispatch");
+            return createBoundedPool();
+        }
+    }
+
+    private static ExecutorService createBoundedPool() {
+        final int poolSize = Runtime.getRuntime().availableProcessors();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(BOUNDED_POOL_QUEUE_CAPACITY),
+                new DaemonThreadFactory("broaddy-dispatch-"),
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static final class DefaultExecutorHolder {
+        private static final ExecutorService INSTANCE = createDefaultExecutor();
+    }
+
+    static final class DaemonThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+        DaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+/**
+ * Listener notified by networks, peers and services about their activity.
+ * Every method has an empty default implementation. When {@link #NOOP} is installed the instrumented
+ * classes skip the metric collection entirely, including the clock reads.
+ */
+public interface BroadcastMetrics {
+    BroadcastMetrics NOOP = new BroadcastMetrics() { };
+
+    default void messageBroadcast(NetworkId<?> networkId, int recipients) { }
+
+    /**
+     * @param latencyNanos time from the arrival of the messages at the peer, i.e. their enqueue in its mailbox, to the
+     *                     return of its consumer. The peers report the messages one at a time, batches included.
+     */
+    default void messagesDelivered(NetworkId<?> networkId, RoutableId<?> peerId, int messageCount, long latencyNanos) { }
+
+    default void consumerFailed(NetworkId<?> networkId, RoutableId<?> peerId, Throwable cause) { }
+    default void peerConnected(NetworkId<?> networkId, RoutableId<?> peerId) { }
+    default void peerDisconnected(NetworkId<?> networkId, RoutableId<?> peerId) { }
+    default void networkShutdown(NetworkId<?> networkId, long durationNanos) { }
+}
@@ -17,15 +17,93 @@
 
 package com.github.alessandrofrenna.broaddy;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
 public interface BroadcastNetwork {
     NetworkId<?> id();
     Connect connectPeer(Routable peer);
+
+    /**
+     * Connects a peer that only wants messages whose payload is an instance of {@code payloadType}.
+     * A peer has a single payload type, it connects with a common supertype to receive several ones.
+     * Implementations that do not route by payload type connect the peer to every message.
+     */
+    default Connect connectPeer(Routable peer, Class<?> payloadType) {
+        return connectPeer(peer);
+    }
+
+    /**
+     * Connects a peer and replays to it the retained messages that follow {@code replayAfterMessageId}, or every
+     * retained message when it is {@code null} or no longer retained.
+     * Implementations that do not retain messages connect the peer without replay.
+     */
+    default Connect connectPeer(Routable peer, Class<?> payloadType, UUID replayAfterMessageId) {
+        return connectPeer(peer, payloadType);
+    }
+
     Disconnect disconnectPeer(RoutableId<?> routableId);
+
+    /**
+     * Connects every peer and returns the result of each one, in iteration order.
+     * The default implementation connects the peers one at a time, so a concurrent {@link #shutdown()} can refuse only
+     * part of them. Implementations that apply the batch as a single change document it.
+     */
+    default List<Connect> connectPeers(Collection<? extends Routable> peers) {
+        if (Objects.isNull(peers)) {
+            throw new IllegalArgumentException("peers is required, null provided");
+        }
+        final List<Connect> results = new ArrayList<>(peers.size());
+        for (Routable peer : peers) {
+            results.add(connectPeer(peer));
+        }
+        return results;
+    }
+
+    /**
+     * Disconnects every peer and returns the result of each one, in iteration order.
+     * The default implementation disconnects the peers one at a time.
+     * Implementations that apply the batch as a single change document it.
+     */
+    default List<Disconnect> disconnectPeers(Collection<? extends RoutableId<?>> routableIds) {
+        if (Objects.isNull(routableIds)) {
+            throw new IllegalArgumentException("routableIds is required, null provided");
+        }
+        final List<Disconnect> results = new ArrayList<>(routableIds.size());
+        for (RoutableId<?> routableId : routableIds) {
+            results.add(disconnectPeer(routableId));
+        }
+        return results;
+    }
+
     long size();
     boolean isEmpty();
     void broadcast(Message<?> message);
+
+    /**
+     * Broadcasts the messages in order.
+     * The default implementation broadcasts them one at a time.
+     */
+    default void broadcastAll(List<? extends Message<?>> messages) {
+        if (Objects.isNull(messages)) {
+            throw new IllegalArgumentException("messages is required, null provided");
+        }
+        messages.forEach(this::broadcast);
+    }
+
+    /**
+     * Broadcasts a message and returns a future completed when every recipient consumed it or failed to.
+     * Producers can bound the broadcasts in flight by waiting on the returned futures.
+     * Implementations that cannot track the deliveries return a future failed with {@link UnsupportedOperationException}.
+     */
+    default CompletableFuture<DeliveryReport> broadcastAsync(Message<?> message) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException(getClass().getSimpleName() + " does not track deliveries"));
+    }
+
     CompletableFuture<Void> shutdown();
 
     enum Status {
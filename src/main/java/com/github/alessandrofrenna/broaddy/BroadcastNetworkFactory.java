@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * Creates the networks of a {@link BroadcastNetworkService}.
+ */
+@FunctionalInterface
+public interface BroadcastNetworkFactory {
+    /**
+     * Synchronous {@link DefaultBroadcastNetwork}, the networks created by the service when no factory is provided.
+     */
+    BroadcastNetworkFactory DEFAULT = (networkId, metrics) -> new DefaultBroadcastNetwork(networkId, BroadcastExecutors.callerThread(), metrics);
+
+    BroadcastNetwork create(NetworkId<?> networkId, BroadcastMetrics metrics);
+
+    /**
+     * Synchronous {@link DefaultBroadcastNetwork} that delivers to large peer sets in parallel chunks.
+     */
+    static BroadcastNetworkFactory parallelFanOut(ParallelFanOut parallelFanOut) {
+        if (parallelFanOut == null) {
+            throw new IllegalArgumentException("parallelFanOut is required, null provided");
+        }
+        return (networkId, metrics) -> new DefaultBroadcastNetwork(networkId, BroadcastExecutors.callerThread(), metrics, parallelFanOut);
+    }
+
+    /**
+     * Synchronous {@link ShardedBroadcastNetwork} with the given number of stripes.
+     */
+    static BroadcastNetworkFactory sharded(int stripeCount) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("stripeCount must be a power of two, " + stripeCount + " provided");
+        }
+        return (networkId, metrics) -> new ShardedBroadcastNetwork(networkId, stripeCount, BroadcastExecutors.callerThread(), metrics, null);
+    }
+
+    /**
+     * {@link RingBufferBroadcastNetwork} with the given number of slots, drained on {@link BroadcastExecutors#defaultExecutor()}.
+     */
+    static BroadcastNetworkFactory ringBuffer(int capacity) {
+        RingBufferBroadcastNetwork.requirePowerOfTwo(capacity);
+        return (networkId, metrics) -> new RingBufferBroadcastNetwork(networkId, capacity, BroadcastExecutors.defaultExecutor(), metrics);
+    }
+
+    /**
+     * Networks created by {@code factory} whose broadcasts are appended to a {@link Journal} stored in a subdirectory of
+     * {@code directory} named after the hex encoding of the network id, so that any id is a safe and distinct file name.
+     */
+    static BroadcastNetworkFactory journaled(BroadcastNetworkFactory factory, Path directory, MessageCodec codec, JournalConfig config) {
+        if (Objects.isNull(factory)) {
+            throw new IllegalArgumentException("factory is required, null provided");
+        }
+        if (Objects.isNull(directory)) {
+            throw new IllegalArgumentException("directory is required, null provided");
+        }
+        if (Objects.isNull(codec)) {
+            throw new IllegalArgumentException("codec is required, null provided");
+        }
+        if (Objects.isNull(config)) {
+            throw new IllegalArgumentException("config is required, null provided");
+        }
+        return (networkId, metrics) -> {
+            final Journal journal;
+            try {
+                journal = Journal.open(journalDirectory(directory, networkId), codec, config);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new JournaledBroadcastNetwork(factory.create(networkId, metrics), journal);
+        };
+    }
+
+    private static Path journalDirectory(Path directory, NetworkId<?> networkId) {
+        final Path root = directory.toAbsolutePath().normalize();
+        final Path journalDirectory = root.resolve(HexFormat.of().formatHex(FileBroadcastNetworkRegistry.encode(networkId))).normalize();
+        if (!journalDirectory.getParent().equals(root)) {
+            throw new IllegalArgumentException("Journal of network " + networkId + " resolves outside of " + directory);
+        }
+        return journalDirectory;
+    }
+}
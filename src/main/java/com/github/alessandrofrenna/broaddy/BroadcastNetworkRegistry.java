@@ -24,6 +24,19 @@ public interface BroadcastNetworkRegistry {
     boolean store(BroadcastNetwork network);
     boolean update(NetworkId<?> networkId, BroadcastNetwork network);
     void remove(NetworkId<?> networkId);
+
+    /**
+     * Removes the network stored with {@code networkId} only when it is {@code network}, and returns whether it did.
+     * The default implementation is not atomic: a network stored between its lookup and its removal is removed.
+     */
+    default boolean remove(NetworkId<?> networkId, BroadcastNetwork network) {
+        if (find(networkId).orElse(null) != network) {
+            return false;
+        }
+        remove(networkId);
+        return true;
+    }
+
     boolean isEmpty();
     long size();
 }
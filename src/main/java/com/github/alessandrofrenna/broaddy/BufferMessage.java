@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Message whose payload is a read-only view of pre-serialised bytes, usually off-heap.
+ * <p>
+ * Every {@link #payload()} call returns a new view of the same bytes: the peers read them without copies and without
+ * sharing a position. The deallocator runs when the last reference is released, e.g. to give the memory back to an
+ * {@link OffHeapBufferPool}; the views must not be read afterwards.
+ *
+ * @see ReferenceCounted
+ */
+public final class BufferMessage implements Message<ByteBuffer>, ReferenceCounted {
+    private final UUID id;
+    private final ByteBuffer bytes;
+    private final Runnable deallocator;
+    private final RefCount refCount = new RefCount();
+
+    private BufferMessage(UUID id, ByteBuffer bytes, Runnable deallocator) {
+        this.id = id;
+        this.bytes = bytes;
+        this.deallocator = deallocator;
+        refCount.reset();
+    }
+
+    /**
+     * Wraps the remaining bytes of {@code bytes} without copying them, the memory is left to its owner.
+     */
+    public static BufferMessage wrap(ByteBuffer bytes) {
+        return wrap(MessageIdGenerator.shared().get(), bytes, null);
+    }
+
+    /**
+     * Wraps the remaining bytes of {@code bytes} without copying them. The message holds one reference owned by the caller.
+     *
+     * @param deallocator invoked once, when the last reference is released, {@code null} when there is nothing to free
+     */
+    public static BufferMessage wrap(UUID id, ByteBuffer bytes, Runnable deallocator) {
+        if (Objects.isNull(id)) {
+            throw new IllegalArgumentException("id is required, null provided");
+        }
+        if (Objects.isNull(bytes)) {
+            throw new IllegalArgumentException("bytes is required, null provided");
+        }
+        return new BufferMessage(id, bytes.slice().asReadOnlyBuffer(), deallocator);
+    }
+
+    @Override
+    public UUID id() {
+        return id;
+    }
+
+    /**
+     * Read-only view of the bytes, positioned at the first one.
+     */
+    @Override
+    public ByteBuffer payload() {
+        return bytes.duplicate();
+    }
+
+    public int size() {
+        return bytes.capacity();
+    }
+
+    public boolean isDirect() {
+        return bytes.isDirect();
+    }
+
+    @Override
+    public void retain() {
+        refCount.retain(id);
+    }
+
+    @Override
+    public boolean release() {
+        if (!refCount.release(id)) {
+            return false;
+        }
+        if (deallocator != null) {
+            deallocator.run();
+        }
+        return true;
+    }
+
+    @Override
+    public int refCount() {
+        return refCount.get();
+    }
+
+    /**
+     * Copy of the message on the heap, with the same id, that does not depend on the deallocated memory.
+     */
+    public Message<ByteBuffer> detach() {
+        final ByteBuffer copy = ByteBuffer.allocate(bytes.capacity());
+        copy.put(bytes.duplicate()).flip();
+        return new Detached(id, copy.asReadOnlyBuffer());
+    }
+
+    @Override
+    public String toString() {
+        return "BufferMessage[id=" + id + ", size=" + bytes.capacity() + ", refCount=" + refCount.get() + "]";
+    }
+
+    private record Detached(UUID id, ByteBuffer bytes) implements Message<ByteBuffer> {
+        @Override
+        public ByteBuffer payload() {
+            return bytes.duplicate();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Codec of the messages with a {@link ByteBuffer} payload, e.g. {@link BufferMessage}: the id followed by the bytes.
+ * <p>
+ * Encoding reads the payload view directly, so the bytes are copied only into the target. A decoded message owns a
+ * heap copy of its bytes, because the source is reused or unmapped after decoding.
+ */
+public final class BufferMessageCodec implements MessageCodec {
+    @Override
+    public void encode(Message<?> message, ByteBuffer target) {
+        final Object payload = message.payload();
+        if (!(payload instanceof ByteBuffer bytes)) {
+            throw new IllegalArgumentException("BufferMessageCodec encodes ByteBuffer payloads, " + payload + " provided");
+        }
+        target.putLong(message.id().getMostSignificantBits());
+        target.putLong(message.id().getLeastSignificantBits());
+        target.put(bytes.duplicate());
+    }
+
+    @Override
+    public Message<?> decode(ByteBuffer source) {
+        final UUID id = new UUID(source.getLong(), source.getLong());
+        final ByteBuffer bytes = ByteBuffer.allocate(source.remaining());
+        bytes.put(source).flip();
+        return BufferMessage.wrap(id, bytes, null);
+    }
+}
@@ -17,12 +17,20 @@
 
 package com.github.alessandrofrenna.broaddy;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,19 +38,64 @@ import org.slf4j.LoggerFactory;
 public class DefaultBroadcastNetwork implements BroadcastNetwork {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultBroadcastNetwork.class);
     private final NetworkId<?> networkId;
-    private final Set<Routable> routablePeer = new CopyOnWriteArraySet<>();
+    private final PeerRouter peerRouter = new PeerRouter();
     private final Lock networkLock = new ReentrantLock(true);
+    private final Executor dispatchExecutor;
+    private final boolean asyncDispatch;
+    private final BroadcastMetrics metrics;
+    private final boolean metricsEnabled;
+    private final ParallelFanOut parallelFanOut;
+    private final ReplayBuffer replayBuffer;
 
     private volatile Status networkStatus;
     private CompletableFuture<Void> shutdownCompletionFuture;
 
     public DefaultBroadcastNetwork(NetworkId<?> networkId) {
+        this(networkId, BroadcastExecutors.callerThread());
+    }
+
+    public DefaultBroadcastNetwork(NetworkId<?> networkId, Executor dispatchExecutor) {
+        this(networkId, dispatchExecutor, BroadcastMetrics.NOOP);
+    }
+
+    public DefaultBroadcastNetwork(NetworkId<?> networkId, Executor dispatchExecutor, BroadcastMetrics metrics) {
+        this(networkId, dispatchExecutor, metrics, null);
+    }
+
+    /**
+     * @param parallelFanOut parallel delivery to large peer sets, {@code null} to always deliver sequentially
+     */
+    public DefaultBroadcastNetwork(NetworkId<?> networkId, Executor dispatchExecutor, BroadcastMetrics metrics, ParallelFanOut parallelFanOut) {
+        this(networkId, dispatchExecutor, metrics, parallelFanOut, null);
+    }
+
+    /**
+     * @param parallelFanOut parallel delivery to large peer sets, {@code null} to always deliver sequentially
+     * @param replayConfig retention of the messages replayed to connecting peers, {@code null} to retain nothing
+     */
+    public DefaultBroadcastNetwork(NetworkId<?> networkId,
+                                   Executor dispatchExecutor,
+                                   BroadcastMetrics metrics,
+                                   ParallelFanOut parallelFanOut,
+                                   ReplayConfig replayConfig) {
         if (Objects.isNull(networkId)) {
             throw new IllegalArgumentException("networkId is required, null provided");
         }
+        if (Objects.isNull(dispatchExecutor)) {
+            throw new IllegalArgumentException("dispatchExecutor is required, null provided");
+        }
+        if (Objects.isNull(metrics)) {
+            throw new IllegalArgumentException("metrics is required, null provided");
+        }
         this.networkId = networkId;
+        this.dispatchExecutor = dispatchExecutor;
+        this.asyncDispatch = dispatchExecutor != BroadcastExecutors.callerThread();
+        this.metrics = metrics;
+        this.metricsEnabled = metrics != BroadcastMetrics.NOOP;
+        this.parallelFanOut = parallelFanOut;
+        this.replayBuffer = replayConfig == null ? null : new ReplayBuffer(replayConfig);
         this.networkStatus = Status.ONLINE;
-        LOG.info("Created a BroadcastNetwork with id {}", networkId);
+        LOG.info("Created a {} BroadcastNetwork with id {}", asyncDispatch ? "asynchronous" : "synchronous", networkId);
         LOG.trace("BroadcastNetwork {} - Online - Ready to accept peers", networkId);
     }
 
@@ -53,22 +106,63 @@ public class DefaultBroadcastNetwork implements BroadcastNetwork {
 
     @Override
     public Connect connectPeer(Routable peer) {
+        return connectPeer(peer, Object.class);
+    }
+
+    @Override
+    public Connect connectPeer(Routable peer, Class<?> payloadType) {
+        return connectPeer(peer, payloadType, null);
+    }
+
+    @Override
+    public Connect connectPeer(Routable peer, Class<?> payloadType, UUID replayAfterMessageId) {
         if (Objects.isNull(peer)) {
             throw new IllegalArgumentException("peer is required, null provided");
         }
+        if (Objects.isNull(payloadType)) {
+            throw new IllegalArgumentException("payloadType is required, null provided");
+        }
 
+        final FlightRecorderEvents.ConnectEvent event = new FlightRecorderEvents.ConnectEvent();
+        event.begin();
+        final Connect connect = lockedConnect(peer, payloadType);
+        if (connect == Connect.OK) {
+            replayTo(peer, payloadType, replayAfterMessageId);
+        }
+        return FlightRecorderEvents.commitConnect(event, networkId, peer.id(), connect);
+    }
+
+    // Invoked after the peer is connected: a message broadcast meanwhile can be received both live and replayed
+    private void replayTo(Routable peer, Class<?> payloadType, UUID replayAfterMessageId) {
+        if (replayBuffer == null) {
+            return;
+        }
+        final List<Message<?>> retained = replayBuffer.retained(payloadType, replayAfterMessageId);
+        if (retained.isEmpty()) {
+            return;
+        }
+        LOG.trace("BroadcastNetwork {} - Replaying {} messages to peer {}", networkId, retained.size(), peer.id());
+        if (asyncDispatch) {
+            dispatch(peer, retained);
+        } else {
+            peer.deliverMessages(networkId, retained);
+        }
+    }
+
+    private Connect lockedConnect(Routable peer, Class<?> payloadType) {
         networkLock.lock();
         try {
             if (networkStatus != Status.ONLINE) { // Combined check
                 return networkStatus == Status.SHUTTING_DOWN ? Connect.NETWORK_SHUTTING_DOWN : Connect.NETWORK_OFFLINE;
             }
-            if (routablePeer.contains(peer)) {
+            if (peerRouter.contains(peer.id())) {
                 return Connect.EXISTING_ID;
             }
-            if (routablePeer.add(peer)) {
+            if (peerRouter.add(peer, payloadType)) {
+                metrics.peerConnected(networkId, peer.id());
                 return Connect.OK;
             }
-            return Connect.FAILED; // Should ideally not be reached with COWSet if contains was false
+            return Connect.FAILED; // Should not be reached, peerRouter.add fails only for existing ids
         } finally {
             networkLock.unlock();
         }
@@ -80,44 +174,306 @@ public class DefaultBroadcastNetwork implements BroadcastNetwork {
             throw new IllegalArgumentException("routableId is required, null provided");
         }
 
-        if (routablePeer.removeIf(networkPeer -> networkPeer.id().equals(routableId))) {
-            networkLock.lock();
-            try {
-                if (networkStatus == Status.SHUTTING_DOWN && routablePeer.isEmpty() && shutdownCompletionFuture != null && !shutdownCompletionFuture.isDone()) {
-                    networkStatus = Status.OFFLINE;
-                    shutdownCompletionFuture.complete(null);
-                }
-            } finally {
-                networkLock.unlock();
+        final FlightRecorderEvents.DisconnectEvent event = new FlightRecorderEvents.DisconnectEvent();
+        event.begin();
+        return FlightRecorderEvents.commitDisconnect(event, networkId, routableId, lockedDisconnect(routableId));
+    }
+
+    private Disconnect lockedDisconnect(RoutableId<?> routableId) {
+        networkLock.lock();
+        try {
+            if (!peerRouter.remove(routableId)) {
+                return Disconnect.NOT_FOUND;
             }
+            metrics.peerDisconnected(networkId, routableId);
+            completeShutdownIfEmpty();
             return Disconnect.OK;
+        } finally {
+            networkLock.unlock();
         }
-        return Disconnect.NOT_FOUND;
     }
 
+    /**
+     * Connects the peers as a single change, under the network lock.
+     */
     @Override
-    public long size() {
-        return routablePeer.size();
+    public List<Connect> connectPeers(Collection<? extends Routable> peers) {
+        if (Objects.isNull(peers)) {
+            throw new IllegalArgumentException("peers is required, null provided");
+        }
+        if (peers.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("peers must not contain null elements");
+        }
+
+        final List<Routable> orderedPeers = List.copyOf(peers);
+        final FlightRecorderEvents.ConnectEvent[] events = FlightRecorderEvents.beginConnects(orderedPeers.size());
+        final List<Connect> results = lockedConnectAll(orderedPeers);
+        if (replayBuffer != null) {
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == Connect.OK) {
+                    replayTo(orderedPeers.get(i), Object.class, null);
+                }
+            }
+        }
+        FlightRecorderEvents.commitConnects(events, networkId, orderedPeers.stream().map(Routable::id).toList(), results);
+        return results;
     }
 
-    @Override
-    public boolean isEmpty() {
-        return routablePeer.isEmpty();
+    private List<Connect> lockedConnectAll(List<Routable> peers) {
+        networkLock.lock();
+        try {
+            if (networkStatus != Status.ONLINE) {
+                var connect = networkStatus == Status.SHUTTING_DOWN ? Connect.NETWORK_SHUTTING_DOWN : Connect.NETWORK_OFFLINE;
+                return Collections.nCopies(peers.size(), connect);
+            }
+            final boolean[] added = peerRouter.addAll(peers, Object.class);
+            final List<Connect> results = new ArrayList<>(added.length);
+            for (int i = 0; i < added.length; i++) {
+                if (added[i]) {
+                    metrics.peerConnected(networkId, peers.get(i).id());
+                }
+                results.add(added[i] ? Connect.OK : Connect.EXISTING_ID);
+            }
+            return results;
+        } finally {
+            networkLock.unlock();
+        }
     }
 
+    /**
+     * Disconnects the peers as a single change, under the network lock.
+     */
     @Override
-    public void broadcast(Message<?> message) {
+    public List<Disconnect> disconnectPeers(Collection<? extends RoutableId<?>> routableIds) {
+        if (Objects.isNull(routableIds)) {
+            throw new IllegalArgumentException("routableIds is required, null provided");
+        }
+        if (routableIds.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("routableIds must not contain null elements");
+        }
+
+        final List<RoutableId<?>> orderedIds = List.copyOf(routableIds);
+        final FlightRecorderEvents.DisconnectEvent[] events = FlightRecorderEvents.beginDisconnects(orderedIds.size());
+        final List<Disconnect> results = lockedDisconnectAll(orderedIds);
+        FlightRecorderEvents.commitDisconnects(events, networkId, orderedIds, results);
+        return results;
+    }
+
+    private List<Disconnect> lockedDisconnectAll(List<RoutableId<?>> routableIds) {
         networkLock.lock();
         try {
-            if (networkStatus == Status.OFFLINE || routablePeer.isEmpty()) {
-                return;
+            final boolean[] removed = peerRouter.removeAll(routableIds);
+            completeShutdownIfEmpty();
+            final List<Disconnect> results = new ArrayList<>(removed.length);
+            for (int i = 0; i < removed.length; i++) {
+                if (removed[i]) {
+                    metrics.peerDisconnected(networkId, routableIds.get(i));
+                }
+                results.add(removed[i] ? Disconnect.OK : Disconnect.NOT_FOUND);
             }
+            return results;
         } finally {
             networkLock.unlock();
         }
+    }
+
+    @Override
+    public long size() {
+        return peerRouter.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peerRouter.isEmpty();
+    }
+
+    @Override
+    public void broadcast(Message<?> message) {
+        // Lock free: networkStatus is volatile and the peers are iterated on immutable snapshots.
+        // A broadcast racing with connectPeer/disconnectPeer/shutdown sees either the old or the new peer set.
+        if (networkStatus == Status.OFFLINE) {
+            return;
+        }
+        retain(message);
+        if (peerRouter.isEmpty()) {
+            return;
+        }
         // If we reach here, status is either Online or ShuttingDown, and peers exist.
-        // The next forEach should operate on a snapshot of the networkPeers COW array set
-        routablePeer.forEach(networkPeer -> networkPeer.deliverMessage(id(), message));
+        // Only the peers subscribed to a supertype of the payload class are visited.
+        final FlightRecorderEvents.BroadcastEvent event = new FlightRecorderEvents.BroadcastEvent();
+        event.begin();
+        int recipients = 0;
+        for (PeerStore subscribers : peerRouter.route(message)) {
+            final PeerStore.Snapshot peers = subscribers.snapshot();
+            recipients += peers.size();
+            if (!asyncDispatch) {
+                fanOut(peers, networkPeer -> networkPeer.deliverMessage(networkId, message));
+                continue;
+            }
+            // Each delivery is a separate task: a slow peer does not delay the others nor the caller.
+            // Ordering between two broadcasts is not guaranteed for the same peer.
+            fanOut(peers, networkPeer -> dispatch(networkPeer, message));
+        }
+        if (metricsEnabled) {
+            metrics.messageBroadcast(networkId, recipients);
+        }
+        FlightRecorderEvents.commitBroadcast(event, networkId, message, recipients);
+    }
+
+    @Override
+    public CompletableFuture<DeliveryReport> broadcastAsync(Message<?> message) {
+        if (Objects.isNull(message)) {
+            throw new IllegalArgumentException("message is required, null provided");
+        }
+        final long start = System.nanoTime();
+        if (networkStatus == Status.OFFLINE) {
+            return DeliveryTracker.noRecipients(message);
+        }
+        retain(message);
+        if (peerRouter.isEmpty()) {
+            return DeliveryTracker.noRecipients(message);
+        }
+        final FlightRecorderEvents.BroadcastEvent event = new FlightRecorderEvents.BroadcastEvent();
+        event.begin();
+        // The recipients are known before the first delivery, so the report cannot complete early
+        final PeerStore[] routes = peerRouter.route(message);
+        final PeerStore.Snapshot[] snapshots = new PeerStore.Snapshot[routes.length];
+        int recipients = 0;
+        for (int i = 0; i < routes.length; i++) {
+            snapshots[i] = routes[i].snapshot();
+            recipients += snapshots[i].size();
+        }
+        final DeliveryTracker tracker = new DeliveryTracker(message, recipients, start);
+        for (PeerStore.Snapshot peers : snapshots) {
+            if (!asyncDispatch) {
+                fanOut(peers, networkPeer -> networkPeer.deliverMessage(networkId, message, tracker.completionFor(networkPeer.id())));
+                continue;
+            }
+            fanOut(peers, networkPeer -> dispatch(networkPeer, message, tracker.completionFor(networkPeer.id())));
+        }
+        if (metricsEnabled) {
+            metrics.messageBroadcast(networkId, recipients);
+        }
+        FlightRecorderEvents.commitBroadcast(event, networkId, message, recipients);
+        return tracker.report();
+    }
+
+    @Override
+    public void broadcastAll(List<? extends Message<?>> messages) {
+        if (Objects.isNull(messages)) {
+            throw new IllegalArgumentException("messages is required, null provided");
+        }
+        if (messages.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("messages must not contain null elements");
+        }
+        if (networkStatus == Status.OFFLINE || messages.isEmpty()) {
+            return;
+        }
+        if (replayBuffer != null) {
+            messages.forEach(this::retain);
+        }
+        if (peerRouter.isEmpty()) {
+            return;
+        }
+        final int[] recipients = metricsEnabled || FlightRecorderEvents.BROADCAST_EVENT_TYPE.isEnabled()
+                ? new int[messages.size()]
+                : null;
+        // Every peer receives the messages of its payload type with a single invocation (and a single task when asynchronous)
+        for (Map.Entry<PeerStore, List<Message<?>>> route : peerRouter.routeAll(messages).entrySet()) {
+            final PeerStore.Snapshot peers = route.getKey().snapshot();
+            final List<Message<?>> batch = route.getValue();
+            if (recipients != null) {
+                PeerRouter.countRecipients(messages, batch, peers.size(), recipients);
+            }
+            if (!asyncDispatch) {
+                fanOut(peers, networkPeer -> networkPeer.deliverMessages(networkId, batch));
+                continue;
+            }
+            fanOut(peers, networkPeer -> dispatch(networkPeer, batch));
+        }
+        if (recipients != null) {
+            for (int i = 0; i < recipients.length; i++) {
+                if (metricsEnabled) {
+                    metrics.messageBroadcast(networkId, recipients[i]);
+                }
+                FlightRecorderEvents.commitBroadcast(new FlightRecorderEvents.BroadcastEvent(), networkId, messages.get(i), recipients[i]);
+            }
+        }
+    }
+
+    // Messages are retained also when no peer is connected, a late joiner receives them on connect.
+    // Reference counted messages are retained as copies, the buffer holds them without references
+    private void retain(Message<?> message) {
+        if (replayBuffer != null) {
+            replayBuffer.append(References.detached(message));
+        }
+    }
+
+    private void fanOut(PeerStore.Snapshot peers, Consumer<Routable> delivery) {
+        if (parallelFanOut == null || !parallelFanOut.appliesTo(peers.size())) {
+            peers.forEach(delivery);
+            return;
+        }
+        // Returns when every chunk is delivered, the caller thread works on the chunks too when it belongs to the pool
+        parallelFanOut.pool().invoke(new FanOutTask(peers, 0, peers.size(), parallelFanOut.chunkSize(peers.size()), delivery));
+    }
+
+    // The dispatched task holds a reference to pooled messages: the publisher may release them before it runs
+    private void dispatch(Routable networkPeer, List<? extends Message<?>> batch) {
+        References.retainAll(batch);
+        try {
+            dispatchExecutor.execute(() -> {
+                try {
+                    networkPeer.deliverMessages(networkId, batch);
+                } finally {
+                    References.releaseAll(batch);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            References.releaseAll(batch);
+            LOG.error("BroadcastNetwork {} - Delivery to peer {} rejected: {}", networkId, networkPeer.id(), e.getMessage(), e);
+        }
+    }
+
+    private void dispatch(Routable networkPeer, Message<?> message, Consumer<Throwable> completion) {
+        References.retain(message);
+        try {
+            dispatchExecutor.execute(() -> {
+                try {
+                    networkPeer.deliverMessage(networkId, message, completion);
+                } finally {
+                    References.release(message);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            References.release(message);
+            LOG.error("BroadcastNetwork {} - Delivery to peer {} rejected: {}", networkId, networkPeer.id(), e.getMessage(), e);
+            completion.accept(e);
+        }
+    }
+
+    private void dispatch(Routable networkPeer, Message<?> message) {
+        References.retain(message);
+        try {
+            dispatchExecutor.execute(() -> {
+                try {
+                    networkPeer.deliverMessage(networkId, message);
+                } finally {
+                    References.release(message);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            References.release(message);
+            LOG.error("BroadcastNetwork {} - Delivery to peer {} rejected: {}", networkId, networkPeer.id(), e.getMessage(), e);
+        }
+    }
+
+    // Must be invoked while holding networkLock
+    private void completeShutdownIfEmpty() {
+        if (networkStatus == Status.SHUTTING_DOWN && peerRouter.isEmpty() && shutdownCompletionFuture != null && !shutdownCompletionFuture.isDone()) {
+            networkStatus = Status.OFFLINE;
+            shutdownCompletionFuture.complete(null);
+        }
     }
 
     @Override
@@ -134,7 +490,12 @@ public class DefaultBroadcastNetwork implements BroadcastNetwork {
             }
 
             shutdownCompletionFuture = new CompletableFuture<>();
-            if (routablePeer.isEmpty()) {
+            FlightRecorderEvents.trackShutdown(shutdownCompletionFuture, networkId, peerRouter.size());
+            if (metricsEnabled) {
+                final long shutdownStart = System.nanoTime();
+                shutdownCompletionFuture.thenRun(() -> metrics.networkShutdown(networkId, System.nanoTime() - shutdownStart));
+            }
+            if (peerRouter.isEmpty()) {
                 networkStatus = Status.OFFLINE;
                 shutdownCompletionFuture.complete(null);
                 LOG.trace("BroadcastNetwork {} - Offline - Ready to be removed", networkId);
@@ -146,7 +507,37 @@ public class DefaultBroadcastNetwork implements BroadcastNetwork {
             networkLock.unlock();
         }
 
-        routablePeer.forEach(networkPeer -> networkPeer.forceDisconnection(id()));
+        peerRouter.forEach(networkPeer -> networkPeer.forceDisconnection(networkId));
         return shutdownCompletionFuture;
     }
+
+    // Serializable only because ForkJoinTask is: the task never leaves the pool that runs it
+    @SuppressWarnings("serial")
+    private static final class FanOutTask extends RecursiveAction {
+        private final PeerStore.Snapshot peers;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private final Consumer<Routable> delivery;
+
+        private FanOutTask(PeerStore.Snapshot peers, int from, int to, int chunkSize, Consumer<Routable> delivery) {
+            this.peers = peers;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.delivery = delivery;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                peers.forEach(from, to, delivery);
+                return;
+            }
+            // Split on a chunk boundary, so that every leaf walks whole segments
+            final int chunks = (to - from + chunkSize - 1) / chunkSize;
+            final int middle = from + (chunks / 2) * chunkSize;
+            invokeAll(new FanOutTask(peers, from, middle, chunkSize, delivery), new FanOutTask(peers, middle, to, chunkSize, delivery));
+        }
+    }
 }
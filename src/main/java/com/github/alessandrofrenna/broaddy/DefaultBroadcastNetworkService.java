@@ -29,9 +29,31 @@ public class DefaultBroadcastNetworkService implements BroadcastNetworkService {
     private final Logger LOG = LoggerFactory.getLogger(DefaultBroadcastNetworkService.class);
 
     private final BroadcastNetworkRegistry networkRegistry;
+    private final BroadcastMetrics metrics;
+    private final BroadcastNetworkFactory networkFactory;
 
     public DefaultBroadcastNetworkService(BroadcastNetworkRegistry networkRegistry) {
+        this(networkRegistry, BroadcastMetrics.NOOP);
+    }
+
+    public DefaultBroadcastNetworkService(BroadcastNetworkRegistry networkRegistry, BroadcastMetrics metrics) {
+        this(networkRegistry, metrics, BroadcastNetworkFactory.DEFAULT);
+    }
+
+    public DefaultBroadcastNetworkService(BroadcastNetworkRegistry networkRegistry, BroadcastNetworkFactory networkFactory) {
+        this(networkRegistry, BroadcastMetrics.NOOP, networkFactory);
+    }
+
+    public DefaultBroadcastNetworkService(BroadcastNetworkRegistry networkRegistry, BroadcastMetrics metrics, BroadcastNetworkFactory networkFactory) {
+        if (Objects.isNull(metrics)) {
+            throw new IllegalArgumentException("metrics is required, null provided");
+        }
+        if (Objects.isNull(networkFactory)) {
+            throw new IllegalArgumentException("networkFactory is required, null provided");
+        }
         this.networkRegistry = networkRegistry;
+        this.metrics = metrics;
+        this.networkFactory = networkFactory;
     }
 
     @Override
@@ -47,13 +69,14 @@ public class DefaultBroadcastNetworkService implements BroadcastNetworkService {
         }
 
         LOG.trace("Creating BroadcastNetwork with id {}", networkId);
-        BroadcastNetwork network = new DefaultBroadcastNetwork(networkId);
+        BroadcastNetwork network = networkFactory.create(networkId, metrics);
         boolean result  = networkRegistry.store(network);
         if (!result) {
             throw new BroadcastNetworkStoreException(networkId);
         }
         LOG.info("BroadcastNetwork with id {} created and stored inside {}", networkId, networkRegistry);
-        return network;
+        // The registry may store the network decorated, e.g. to track its activity
+        return networkRegistry.find(networkId).orElse(network);
     }
 
     @Override
@@ -17,9 +17,11 @@
 
 package com.github.alessandrofrenna.broaddy;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.UUID;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -29,14 +31,48 @@ public class DefaultNetworkPeer implements NetworkPeer {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultNetworkPeer.class);
 
     private final RoutableId<?> peerId;
-    private final Map<NetworkId<?>, JoinedNetwork> joinedNetworks = new ConcurrentHashMap<>();
+    private final MailboxConfig defaultMailboxConfig;
+    private final BroadcastMetrics metrics;
+    private final boolean metricsEnabled;
+    private final NetworkIdMap<Membership> joinedNetworks = new NetworkIdMap<>();
 
     public DefaultNetworkPeer(RoutableId<?> peerId) {
+        this(peerId, BroadcastMetrics.NOOP);
+    }
+
+    public DefaultNetworkPeer(RoutableId<?> peerId, BroadcastMetrics metrics) {
         if (Objects.isNull(peerId)) {
             throw new IllegalArgumentException("peerId is required, null provided");
         }
+        if (Objects.isNull(metrics)) {
+            throw new IllegalArgumentException("metrics is required, null provided");
+        }
         this.peerId = peerId;
-        LOG.info("Created NetworkPeer with id {}", peerId);
+        this.defaultMailboxConfig = null;
+        this.metrics = metrics;
+        this.metricsEnabled = metrics != BroadcastMetrics.NOOP;
+        LOG.debug("Created NetworkPeer with id {}", peerId);
+    }
+
+    public DefaultNetworkPeer(RoutableId<?> peerId, MailboxConfig defaultMailboxConfig) {
+        this(peerId, defaultMailboxConfig, BroadcastMetrics.NOOP);
+    }
+
+    public DefaultNetworkPeer(RoutableId<?> peerId, MailboxConfig defaultMailboxConfig, BroadcastMetrics metrics) {
+        if (Objects.isNull(peerId)) {
+            throw new IllegalArgumentException("peerId is required, null provided");
+        }
+        if (Objects.isNull(defaultMailboxConfig)) {
+            throw new IllegalArgumentException("defaultMailboxConfig is required, null provided");
+        }
+        if (Objects.isNull(metrics)) {
+            throw new IllegalArgumentException("metrics is required, null provided");
+        }
+        this.peerId = peerId;
+        this.defaultMailboxConfig = defaultMailboxConfig;
+        this.metrics = metrics;
+        this.metricsEnabled = metrics != BroadcastMetrics.NOOP;
+        LOG.debug("Created NetworkPeer with id {} and a mailbox of {} messages for each joined network", peerId, defaultMailboxConfig.capacity());
     }
 
     @Override
@@ -46,6 +82,47 @@ public class DefaultNetworkPeer implements NetworkPeer {
 
     @Override
     public boolean join(BroadcastNetwork network, Consumer<Message<?>> messageConsumer) {
+        return joinNetwork(network, Object.class, messageConsumer, null, defaultMailboxConfig, null);
+    }
+
+    @Override
+    public <T> boolean join(BroadcastNetwork network, Consumer<? super Message<T>> messageConsumer, JoinOptions<T> options) {
+        if (Objects.isNull(messageConsumer)) {
+            throw new IllegalArgumentException("messageConsumer is required, null provided");
+        }
+        if (Objects.isNull(options)) {
+            throw new IllegalArgumentException("options is required, null provided");
+        }
+        final Class<T> payloadType = options.payloadType();
+        final MailboxConfig mailboxConfig = options.mailboxConfig() == null ? defaultMailboxConfig : options.mailboxConfig();
+        if (payloadType == Object.class) {
+            @SuppressWarnings("unchecked")
+            Consumer<Message<?>> genericMessageConsumer = (Consumer<Message<?>>) messageConsumer;
+            return joinNetwork(network, payloadType, genericMessageConsumer, options.batchConsumer(), mailboxConfig, options.replayAfterMessageId());
+        }
+        // The network routes by payload type, the checks protect from networks that deliver every message
+        @SuppressWarnings("unchecked")
+        Consumer<Message<?>> typedMessageConsumer = message -> {
+            if (payloadType.isInstance(message.payload())) {
+                messageConsumer.accept((Message<T>) message);
+            }
+        };
+        final Consumer<List<Message<?>>> batchConsumer = options.batchConsumer();
+        final Consumer<List<Message<?>>> typedBatchConsumer = batchConsumer == null ? null : messages -> {
+            final List<Message<?>> typedMessages = messages.stream().filter(message -> payloadType.isInstance(message.payload())).toList();
+            if (!typedMessages.isEmpty()) {
+                batchConsumer.accept(typedMessages);
+            }
+        };
+        return joinNetwork(network, payloadType, typedMessageConsumer, typedBatchConsumer, mailboxConfig, options.replayAfterMessageId());
+    }
+
+    private boolean joinNetwork(BroadcastNetwork network,
+                                Class<?> payloadType,
+                                Consumer<Message<?>> messageConsumer,
+                                Consumer<List<Message<?>>> batchConsumer,
+                                MailboxConfig mailboxConfig,
+                                UUID replayAfterMessageId) {
         if (Objects.isNull(network)) {
             throw new IllegalArgumentException("network is required, null provided");
         }
@@ -55,12 +132,40 @@ public class DefaultNetworkPeer implements NetworkPeer {
 
         final NetworkId<?> networkId = network.id();
         LOG.trace("Joining NetworkPeer {} to BroadcastNetwork with id {}", peerId, networkId);
-        var connect = network.connectPeer(this);
+        Mailbox mailbox = mailboxConfig == null
+                ? null
+                : new Mailbox(networkId, mailboxConfig, metricsEnabled, envelopes -> consumeEnvelopes(networkId, messageConsumer, batchConsumer, envelopes));
+        final Membership membership = new Membership(networkId, network, messageConsumer, batchConsumer, mailbox);
+        // Registered before connecting: the network may deliver (e.g. replay) while connectPeer is running.
+        // An existing membership is not trusted, the network may have disconnected the peer on its own:
+        // the network answers EXISTING_ID only while it still holds the peer
+        final Membership existing = joinedNetworks.putIfAbsent(networkId, membership);
+        // The network holds the membership, not the peer: it delivers without looking up the joined network
+        BroadcastNetwork.Connect connect;
+        try {
+            connect = replayAfterMessageId != null
+                    ? network.connectPeer(membership, payloadType, replayAfterMessageId)
+                    : payloadType == Object.class ? network.connectPeer(membership) : network.connectPeer(membership, payloadType);
+        } catch (RuntimeException e) {
+            if (existing == null) {
+                joinedNetworks.remove(networkId, membership);
+            }
+            membership.end();
+            throw e;
+        }
         if (connect == BroadcastNetwork.Connect.OK) {
-            joinedNetworks.put(network.id(), new JoinedNetwork(network, messageConsumer));
-            LOG.info("NetworkPeer {} joined to BroadcastNetwork with id {}: {}", peerId, networkId, connect.description());
+            if (existing != null) {
+                LOG.debug("NetworkPeer {} replaced a stale membership of BroadcastNetwork with id {}", peerId, networkId);
+                joinedNetworks.put(networkId, membership);
+                existing.end();
+            }
+            LOG.debug("NetworkPeer {} joined to BroadcastNetwork with id {}: {}", peerId, networkId, connect.description());
             return true;
         }
+        if (existing == null) {
+            joinedNetworks.remove(networkId, membership);
+        }
+        membership.end();
         LOG.error("NetworkPeer {} join to BroadcastNetwork with id {} failed: {}", peerId, networkId, connect.description());
         return false;
     }
@@ -71,18 +176,26 @@ public class DefaultNetworkPeer implements NetworkPeer {
             throw new IllegalArgumentException("networkId is required, null provided");
         }
 
-        if (!joinedNetworks.containsKey(networkId)) {
-            LOG.info("NetworkPeer {} has not joined a BroadcastNetwork with id {}", peerId, networkId);
+        final Membership membership = joinedNetworks.get(networkId);
+        if (membership == null) {
+            LOG.debug("NetworkPeer {} has not joined a BroadcastNetwork with id {}", peerId, networkId);
             return false;
         }
 
         LOG.trace("NetworkPeer {} is leaving BroadcastNetwork with id {}", peerId, networkId);
-        var disconnect = joinedNetworks.get(networkId).network().disconnectPeer(id());
+        var disconnect = membership.network.disconnectPeer(id());
         if (disconnect == BroadcastNetwork.Disconnect.OK) {
-            joinedNetworks.remove(networkId);
-            LOG.info("NetworkPeer {} left BroadcastNetwork with id {}: {}", peerId, networkId, disconnect.description());
+            // A broadcast that still holds the membership delivers nothing from now on
+            if (joinedNetworks.remove(networkId, membership)) {
+                membership.end();
+            }
+            LOG.debug("NetworkPeer {} left BroadcastNetwork with id {}: {}", peerId, networkId, disconnect.description());
             return true;
         }
+        // The network no longer holds the peer: the membership is stale and must not block a new join
+        if (joinedNetworks.remove(networkId, membership)) {
+            membership.end();
+        }
         LOG.error("NetworkPeer {} failed to leave BroadcastNetwork with id {}: {}", peerId, networkId, disconnect.description());
         return false;
     }
@@ -98,15 +211,143 @@ public class DefaultNetworkPeer implements NetworkPeer {
             throw new IllegalArgumentException("networkId is required, null provided");
         }
 
-        if (!joinedNetworks.containsKey(networkId)) {
+        final Membership membership = joinedNetworks.get(networkId);
+        if (membership != null) {
+            membership.deliverMessage(networkId, message);
+        }
+    }
+
+    @Override
+    public void deliverMessage(NetworkId<?> networkId, Message<?> message, Consumer<Throwable> completion) {
+        if (Objects.isNull(networkId)) {
+            throw new IllegalArgumentException("networkId is required, null provided");
+        }
+        if (Objects.isNull(completion)) {
+            throw new IllegalArgumentException("completion is required, null provided");
+        }
+
+        final Membership membership = joinedNetworks.get(networkId);
+        if (membership == null) {
+            completion.accept(notJoined(networkId));
             return;
         }
-        Consumer<Message<?>> genericMessageConsumer = joinedNetworks.get(networkId).consumer();
+        membership.deliverMessage(networkId, message, completion);
+    }
+
+    @Override
+    public void deliverMessages(NetworkId<?> networkId, List<? extends Message<?>> messages) {
+        if (Objects.isNull(networkId)) {
+            throw new IllegalArgumentException("networkId is required, null provided");
+        }
+        if (Objects.isNull(messages)) {
+            throw new IllegalArgumentException("messages is required, null provided");
+        }
+
+        final Membership membership = joinedNetworks.get(networkId);
+        if (membership != null) {
+            membership.deliverMessages(networkId, messages);
+        }
+    }
+
+    private IllegalStateException notJoined(NetworkId<?> networkId) {
+        return new IllegalStateException("NetworkPeer " + peerId + " has not joined BroadcastNetwork " + networkId);
+    }
+
+    private void consumeEnvelopes(NetworkId<?> networkId,
+                                  Consumer<Message<?>> genericMessageConsumer,
+                                  Consumer<List<Message<?>>> batchConsumer,
+                                  List<Mailbox.Envelope> envelopes) {
+        if (batchConsumer == null) {
+            for (Mailbox.Envelope envelope : envelopes) {
+                notifyCompletion(envelope, consume(networkId, genericMessageConsumer, envelope.message(), envelope.enqueuedNanos()));
+            }
+            return;
+        }
+        final List<Message<?>> messages = new ArrayList<>(envelopes.size());
+        final long[] enqueuedNanos = metricsEnabled ? new long[envelopes.size()] : null;
+        for (int i = 0; i < envelopes.size(); i++) {
+            messages.add(envelopes.get(i).message());
+            if (enqueuedNanos != null) {
+                enqueuedNanos[i] = envelopes.get(i).enqueuedNanos();
+            }
+        }
+        final Throwable failure = consumeAll(networkId, genericMessageConsumer, batchConsumer, messages, enqueuedNanos);
+        envelopes.forEach(envelope -> notifyCompletion(envelope, failure));
+    }
+
+    private static void notifyCompletion(Mailbox.Envelope envelope, Throwable failure) {
+        if (envelope.completion() != null) {
+            envelope.completion().accept(failure);
+        }
+    }
+
+    // Returns the failure of the batch consumer, null when the batch was consumed or consumed message by message.
+    // enqueuedNanos holds the arrival time of each message, null when they all arrive now
+    private Throwable consumeAll(NetworkId<?> networkId,
+                                 Consumer<Message<?>> genericMessageConsumer,
+                                 Consumer<List<Message<?>>> batchConsumer,
+                                 List<? extends Message<?>> messages,
+                                 long[] enqueuedNanos) {
+        if (batchConsumer == null) {
+            messages.forEach(message -> consume(networkId, genericMessageConsumer, message, metricsEnabled ? System.nanoTime() : 0L));
+            return null;
+        }
+        Throwable failure = null;
+        final FlightRecorderEvents.DeliveryEvent event = new FlightRecorderEvents.DeliveryEvent();
+        event.begin();
+        final long start = metricsEnabled ? System.nanoTime() : 0L;
+        try {
+            if (DeliveryTraceSampler.sample()) {
+                LOG.info("NetworkPeer {} received {} messages from BroadcastNetwork with id {}", peerId, messages.size(), networkId);
+            }
+            batchConsumer.accept(Collections.unmodifiableList(messages));
+            if (metricsEnabled) {
+                // One sample per message: each one waited in the mailbox for its own time
+                final long end = System.nanoTime();
+                for (int i = 0; i < messages.size(); i++) {
+                    metrics.messagesDelivered(networkId, peerId, 1, end - (enqueuedNanos == null ? start : enqueuedNanos[i]));
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("Error processing the message payloads: {}", e.getMessage(), e);
+            metrics.consumerFailed(networkId, peerId, e);
+            event.failed = true;
+            failure = e;
+        }
+        commit(event, networkId, messages.get(0), messages.size());
+        return failure;
+    }
+
+    // Returns the failure of the consumer, null when the message was consumed
+    private Throwable consume(NetworkId<?> networkId, Consumer<Message<?>> genericMessageConsumer, Message<?> message, long arrivalNanos) {
+        Throwable failure = null;
+        final FlightRecorderEvents.DeliveryEvent event = new FlightRecorderEvents.DeliveryEvent();
+        event.begin();
         try {
-            LOG.info("NetworkPeer {} received a message from BroadcastNetwork with id {}", peerId, networkId);
+            if (DeliveryTraceSampler.sample()) {
+                LOG.info("NetworkPeer {} received a message from BroadcastNetwork with id {}", peerId, networkId);
+            }
             genericMessageConsumer.accept(message);
+            if (metricsEnabled) {
+                metrics.messagesDelivered(networkId, peerId, 1, System.nanoTime() - arrivalNanos);
+            }
         } catch (Exception e) {
             LOG.error("Error processing the message payload: {}", e.getMessage(), e);
+            metrics.consumerFailed(networkId, peerId, e);
+            event.failed = true;
+            failure = e;
+        }
+        commit(event, networkId, message, 1);
+        return failure;
+    }
+
+    private void commit(FlightRecorderEvents.DeliveryEvent event, NetworkId<?> networkId, Message<?> firstMessage, int messageCount) {
+        if (event.shouldCommit()) {
+            event.networkId = FlightRecorderEvents.describe(networkId);
+            event.peerId = FlightRecorderEvents.describe(peerId);
+            event.payloadType = FlightRecorderEvents.payloadTypeOf(firstMessage);
+            event.messageCount = messageCount;
+            event.commit();
         }
     }
 
@@ -116,7 +357,7 @@ public class DefaultNetworkPeer implements NetworkPeer {
             throw new IllegalArgumentException("networkId is required, null provided");
         }
 
-        LOG.info("NetworkPeer {} was forced to leave BroadcastNetwork with id {}", id(), networkId);
+        LOG.debug("NetworkPeer {} was forced to leave BroadcastNetwork with id {}", id(), networkId);
         leave(networkId);
     }
 
@@ -132,5 +373,82 @@ public class DefaultNetworkPeer implements NetworkPeer {
         return Objects.hashCode(peerId);
     }
 
-    private record JoinedNetwork(BroadcastNetwork network, Consumer<Message<?>> consumer) { }
+    /**
+     * The peer as connected to one network. The network delivers to it directly, so a broadcast does not look up the
+     * joined network; once the peer has left, the deliveries of the broadcasts still in flight are dropped.
+     */
+    private final class Membership implements Routable {
+        private final NetworkId<?> networkId;
+        private final BroadcastNetwork network;
+        private final Consumer<Message<?>> consumer;
+        private final Consumer<List<Message<?>>> batchConsumer;
+        private final Mailbox mailbox;
+        private volatile boolean ended;
+
+        Membership(NetworkId<?> networkId,
+                   BroadcastNetwork network,
+                   Consumer<Message<?>> consumer,
+                   Consumer<List<Message<?>>> batchConsumer,
+                   Mailbox mailbox) {
+            this.networkId = networkId;
+            this.network = network;
+            this.consumer = consumer;
+            this.batchConsumer = batchConsumer;
+            this.mailbox = mailbox;
+        }
+
+        @Override
+        public RoutableId<?> id() {
+            return peerId;
+        }
+
+        @Override
+        public void deliverMessage(NetworkId<?> ignored, Message<?> message) {
+            if (ended) {
+                return;
+            }
+            if (mailbox != null) {
+                mailbox.offer(message);
+                return;
+            }
+            consume(networkId, consumer, message, metricsEnabled ? System.nanoTime() : 0L);
+        }
+
+        @Override
+        public void deliverMessage(NetworkId<?> ignored, Message<?> message, Consumer<Throwable> completion) {
+            if (ended) {
+                completion.accept(notJoined(networkId));
+                return;
+            }
+            if (mailbox != null) {
+                mailbox.offer(message, completion);
+                return;
+            }
+            completion.accept(consume(networkId, consumer, message, metricsEnabled ? System.nanoTime() : 0L));
+        }
+
+        @Override
+        public void deliverMessages(NetworkId<?> ignored, List<? extends Message<?>> messages) {
+            if (ended || messages.isEmpty()) {
+                return;
+            }
+            if (mailbox != null) {
+                mailbox.offerAll(messages);
+                return;
+            }
+            consumeAll(networkId, consumer, batchConsumer, messages, null);
+        }
+
+        @Override
+        public void forceDisconnection(NetworkId<?> ignored) {
+            DefaultNetworkPeer.this.forceDisconnection(networkId);
+        }
+
+        void end() {
+            ended = true;
+            if (mailbox != null) {
+                mailbox.close();
+            }
+        }
+    }
 }
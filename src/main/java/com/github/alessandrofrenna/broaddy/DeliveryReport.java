@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Outcome of a {@link BroadcastNetwork#broadcastAsync(Message)}.
+ *
+ * @param messageId id of the broadcast message
+ * @param recipients peers the message was routed to
+ * @param delivered peers that consumed the message without errors
+ * @param failures peers that did not consume the message, with the cause
+ * @param elapsed time from the broadcast to the last outcome
+ */
+public record DeliveryReport(UUID messageId, int recipients, int delivered, Map<RoutableId<?>, Throwable> failures, Duration elapsed) {
+    public DeliveryReport {
+        failures = Map.copyOf(failures);
+    }
+
+    public int failed() {
+        return failures.size();
+    }
+
+    public boolean isComplete() {
+        return delivered == recipients;
+    }
+}
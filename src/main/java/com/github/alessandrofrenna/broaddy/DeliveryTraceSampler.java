@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which deliveries are logged.
+ * The rate is read once from the {@value #SAMPLE_RATE_PROPERTY} system property: with {@code N > 0} about one
+ * delivery in N is logged, with 0 (the default) no delivery is logged.
+ */
+final class DeliveryTraceSampler {
+    static final String SAMPLE_RATE_PROPERTY = "broaddy.delivery.traceSampleRate";
+    private static final int SAMPLE_RATE = Math.max(0, Integer.getInteger(SAMPLE_RATE_PROPERTY, 0));
+
+    private DeliveryTraceSampler() { }
+
+    static boolean sample() {
+        return SAMPLE_RATE != 0 && (SAMPLE_RATE == 1 || ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0);
+    }
+}
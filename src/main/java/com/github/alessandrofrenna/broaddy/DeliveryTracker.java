@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Collects the outcomes of one broadcast and completes its {@link DeliveryReport} when every recipient reported.
+ */
+final class DeliveryTracker {
+    // The id is kept instead of the message, a pooled message may be recycled before the report completes
+    private final UUID messageId;
+    private final int recipients;
+    private final long startNanos;
+    private final AtomicInteger pending;
+    private final AtomicInteger delivered = new AtomicInteger(0);
+    private final Map<RoutableId<?>, Throwable> failures = new ConcurrentHashMap<>();
+    private final CompletableFuture<DeliveryReport> report = new CompletableFuture<>();
+
+    DeliveryTracker(Message<?> message, int recipients, long startNanos) {
+        this.messageId = message.id();
+        this.recipients = recipients;
+        this.startNanos = startNanos;
+        this.pending = new AtomicInteger(recipients);
+        if (recipients == 0) {
+            complete();
+        }
+    }
+
+    static CompletableFuture<DeliveryReport> noRecipients(Message<?> message) {
+        return new DeliveryTracker(message, 0, System.nanoTime()).report();
+    }
+
+    CompletableFuture<DeliveryReport> report() {
+        return report;
+    }
+
+    /**
+     * Completion callback for the delivery to {@code routableId}: it accepts {@code null} on success, the cause otherwise.
+     */
+    Consumer<Throwable> completionFor(RoutableId<?> routableId) {
+        return failure -> completed(routableId, failure);
+    }
+
+    void completed(RoutableId<?> routableId, Throwable failure) {
+        if (failure == null) {
+            delivered.incrementAndGet();
+        } else {
+            failures.put(routableId, failure);
+        }
+        if (pending.decrementAndGet() == 0) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        report.complete(new DeliveryReport(messageId, recipients, delivered.get(), failures, Duration.ofNanos(System.nanoTime() - startNanos)));
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry that evicts the networks of another registry when they are idle for too long, or when there are too many.
+ * <p>
+ * The activity of a network is its broadcasts and peer connections. The registry records it itself: {@link #find(NetworkId)}
+ * returns the stored network wrapped in a view that records every broadcast and connection before forwarding it, so
+ * the networks are tracked however they were created. The networks returned by {@link DefaultBroadcastNetworkService#create(NetworkId)}
+ * are those views too, only a reference to the network kept from before it was stored bypasses the tracking.
+ * A broadcast to a network without peers is not activity.
+ * <p>
+ * An evicted network is removed from the registry at once, only if the id is still bound to it, and shut down
+ * asynchronously, then the {@link EvictionListener} is notified. Its peers, if any, are disconnected by the shutdown.
+ */
+public class EvictingBroadcastNetworkRegistry implements BroadcastNetworkRegistry, AutoCloseable {
+    private final static Logger LOG = LoggerFactory.getLogger(EvictingBroadcastNetworkRegistry.class);
+    // Activity closer than this to the last recorded one is not recorded, so that busy networks do not write on every broadcast
+    private static final long ACTIVITY_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final BroadcastNetworkRegistry networkRegistry;
+    private final EvictionPolicy policy;
+    private final EvictionListener listener;
+    private final Map<NetworkId<?>, TrackedNetwork> trackedNetworks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService idleSweeper;
+
+    public EvictingBroadcastNetworkRegistry(BroadcastNetworkRegistry networkRegistry, EvictionPolicy policy) {
+        this(networkRegistry, policy, EvictionListener.NOOP);
+    }
+
+    public EvictingBroadcastNetworkRegistry(BroadcastNetworkRegistry networkRegistry, EvictionPolicy policy, EvictionListener listener) {
+        if (Objects.isNull(networkRegistry)) {
+            throw new IllegalArgumentException("networkRegistry is required, null provided");
+        }
+        if (Objects.isNull(policy)) {
+            throw new IllegalArgumentException("policy is required, null provided");
+        }
+        if (Objects.isNull(listener)) {
+            throw new IllegalArgumentException("listener is required, null provided");
+        }
+        this.networkRegistry = networkRegistry;
+        this.policy = policy;
+        this.listener = listener;
+        if (policy.idleTimeout() == null) {
+            this.idleSweeper = null;
+            return;
+        }
+        // A network is evicted at most half a timeout after it became idle
+        final long sweepIntervalNanos = Math.max(policy.idleTimeout().toNanos() / 2, ACTIVITY_RESOLUTION_NANOS);
+        this.idleSweeper = Executors.newSingleThreadScheduledExecutor(new BroadcastExecutors.DaemonThreadFactory("broaddy-eviction-"));
+        this.idleSweeper.scheduleWithFixedDelay(this::evictIdleNetworks, sweepIntervalNanos, sweepIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Optional<BroadcastNetwork> find(NetworkId<?> networkId) {
+        // Networks already in the registry, e.g. restored from a file, are tracked from their first lookup
+        return networkRegistry.find(networkId).map(this::track);
+    }
+
+    @Override
+    public boolean store(BroadcastNetwork network) {
+        final BroadcastNetwork stored = unwrap(network);
+        final boolean result = networkRegistry.store(stored);
+        if (result) {
+            track(stored);
+            evictLeastRecentlyActive(stored.id());
+        }
+        return result;
+    }
+
+    @Override
+    public boolean update(NetworkId<?> networkId, BroadcastNetwork network) {
+        final BroadcastNetwork stored = unwrap(network);
+        final boolean updated = networkRegistry.update(networkId, stored);
+        if (updated) {
+            track(stored).record(System.nanoTime());
+            evictLeastRecentlyActive(networkId);
+        }
+        return updated;
+    }
+
+    @Override
+    public void remove(NetworkId<?> networkId) {
+        networkRegistry.remove(networkId);
+        trackedNetworks.remove(networkId);
+    }
+
+    @Override
+    public boolean remove(NetworkId<?> networkId, BroadcastNetwork network) {
+        final BroadcastNetwork stored = unwrap(network);
+        if (!networkRegistry.remove(networkId, stored)) {
+            return false;
+        }
+        trackedNetworks.computeIfPresent(networkId, (ignored, tracked) -> tracked.network == stored ? null : tracked);
+        return true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return networkRegistry.isEmpty();
+    }
+
+    @Override
+    public long size() {
+        return networkRegistry.size();
+    }
+
+    /**
+     * Stops the eviction of idle networks. The networks are not shut down.
+     */
+    @Override
+    public void close() {
+        if (idleSweeper != null) {
+            idleSweeper.shutdownNow();
+        }
+    }
+
+    private static BroadcastNetwork unwrap(BroadcastNetwork network) {
+        return network instanceof TrackedNetwork tracked ? tracked.network : network;
+    }
+
+    // The view of the stored network, replaced when the id is bound to another network
+    private TrackedNetwork track(BroadcastNetwork network) {
+        final TrackedNetwork current = trackedNetworks.get(network.id());
+        if (current != null && current.network == network) {
+            return current;
+        }
+        return trackedNetworks.compute(network.id(),
+                (ignored, tracked) -> tracked != null && tracked.network == network ? tracked : new TrackedNetwork(network, System.nanoTime()));
+    }
+
+    private void evictIdleNetworks() {
+        try {
+            final long now = System.nanoTime();
+            final long idleTimeoutNanos = policy.idleTimeout().toNanos();
+            trackedNetworks.forEach((networkId, tracked) -> {
+                if (now - tracked.lastActivityNanos > idleTimeoutNanos) {
+                    evict(networkId, tracked, EvictionListener.Cause.IDLE);
+                }
+            });
+        } catch (RuntimeException e) {
+            LOG.error("Eviction of the idle BroadcastNetworks failed", e);
+        }
+    }
+
+    // Scans every tracked network: runs only when a network is added beyond the maximum size
+    private void evictLeastRecentlyActive(NetworkId<?> addedNetworkId) {
+        while (networkRegistry.size() > policy.maximumSize()) {
+            Map.Entry<NetworkId<?>, TrackedNetwork> leastRecentlyActive = null;
+            for (Map.Entry<NetworkId<?>, TrackedNetwork> entry : trackedNetworks.entrySet()) {
+                if (entry.getKey().equals(addedNetworkId)) {
+                    continue;
+                }
+                if (leastRecentlyActive == null || entry.getValue().lastActivityNanos - leastRecentlyActive.getValue().lastActivityNanos < 0) {
+                    leastRecentlyActive = entry;
+                }
+            }
+            if (leastRecentlyActive == null || !evict(leastRecentlyActive.getKey(), leastRecentlyActive.getValue(), EvictionListener.Cause.SIZE)) {
+                return;
+            }
+        }
+    }
+
+    private boolean evict(NetworkId<?> networkId, TrackedNetwork tracked, EvictionListener.Cause cause) {
+        // Only the caller that removes the tracked network evicts it, and only while the id is still bound to it
+        if (!trackedNetworks.remove(networkId, tracked) || !networkRegistry.remove(networkId, tracked.network)) {
+            return false;
+        }
+        LOG.info("Evicting BroadcastNetwork with id {}: {}", networkId, cause);
+        tracked.network.shutdown().whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                LOG.error("Shutdown of the evicted BroadcastNetwork with id {} failed", networkId, failure);
+            }
+            try {
+                listener.networkEvicted(networkId, cause);
+            } catch (RuntimeException e) {
+                LOG.error("EvictionListener failed for BroadcastNetwork with id {}", networkId, e);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stored network that records its broadcasts and connections as activity.
+     * A connection is recorded once complete, a broadcast when it starts.
+     */
+    private static final class TrackedNetwork implements BroadcastNetwork {
+        private final BroadcastNetwork network;
+        private volatile long lastActivityNanos;
+
+        TrackedNetwork(BroadcastNetwork network, long nanos) {
+            this.network = network;
+            this.lastActivityNanos = nanos;
+        }
+
+        void record(long nanos) {
+            if (nanos - lastActivityNanos > ACTIVITY_RESOLUTION_NANOS) {
+                lastActivityNanos = nanos;
+            }
+        }
+
+        private void recordBroadcast() {
+            if (!network.isEmpty()) {
+                record(System.nanoTime());
+            }
+        }
+
+        @Override
+        public NetworkId<?> id() {
+            return network.id();
+        }
+
+        @Override
+        public Connect connectPeer(Routable peer) {
+            final Connect connect = network.connectPeer(peer);
+            record(System.nanoTime());
+            return connect;
+        }
+
+        @Override
+        public Connect connectPeer(Routable peer, Class<?> payloadType) {
+            final Connect connect = network.connectPeer(peer, payloadType);
+            record(System.nanoTime());
+            return connect;
+        }
+
+        @Override
+        public Connect connectPeer(Routable peer, Class<?> payloadType, UUID replayAfterMessageId) {
+            final Connect connect = network.connectPeer(peer, payloadType, replayAfterMessageId);
+            record(System.nanoTime());
+            return connect;
+        }
+
+        @Override
+        public Disconnect disconnectPeer(RoutableId<?> routableId) {
+            return network.disconnectPeer(routableId);
+        }
+
+        @Override
+        public List<Connect> connectPeers(Collection<? extends Routable> peers) {
+            final List<Connect> connects = network.connectPeers(peers);
+            record(System.nanoTime());
+            return connects;
+        }
+
+        @Override
+        public List<Disconnect> disconnectPeers(Collection<? extends RoutableId<?>> routableIds) {
+            return network.disconnectPeers(routableIds);
+        }
+
+        @Override
+        public long size() {
+            return network.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return network.isEmpty();
+        }
+
+        @Override
+        public void broadcast(Message<?> message) {
+            recordBroadcast();
+            network.broadcast(message);
+        }
+
+        @Override
+        public void broadcastAll(List<? extends Message<?>> messages) {
+            recordBroadcast();
+            network.broadcastAll(messages);
+        }
+
+        @Override
+        public CompletableFuture<DeliveryReport> broadcastAsync(Message<?> message) {
+            recordBroadcast();
+            return network.broadcastAsync(message);
+        }
+
+        @Override
+        public CompletableFuture<Void> shutdown() {
+            return network.shutdown();
+        }
+
+        @Override
+        public String toString() {
+            return network.toString();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.time.Duration;
+
+/**
+ * When an {@link EvictingBroadcastNetworkRegistry} evicts its networks.
+ *
+ * @param idleTimeout networks without broadcasts or connections for this long are evicted, {@code null} to keep idle networks
+ * @param maximumSize beyond this number of networks the least recently active one is evicted
+ */
+public record EvictionPolicy(Duration idleTimeout, int maximumSize) {
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    public EvictionPolicy {
+        if (idleTimeout != null && (idleTimeout.isZero() || idleTimeout.isNegative())) {
+            throw new IllegalArgumentException("idleTimeout must be positive, " + idleTimeout + " provided");
+        }
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be greater than zero, " + maximumSize + " provided");
+        }
+        if (idleTimeout == null && maximumSize == UNBOUNDED) {
+            throw new IllegalArgumentException("either idleTimeout or maximumSize is required");
+        }
+    }
+
+    public static EvictionPolicy idleTimeout(Duration idleTimeout) {
+        if (idleTimeout == null) {
+            throw new IllegalArgumentException("idleTimeout is required, null provided");
+        }
+        return new EvictionPolicy(idleTimeout, UNBOUNDED);
+    }
+
+    public static EvictionPolicy maximumSize(int maximumSize) {
+        return new EvictionPolicy(null, maximumSize);
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry that persists the ids of its networks in a directory, as a binary snapshot followed by a log of the changes.
+ * <p>
+ * The registry is opened with named {@link BroadcastNetworkFactory factories}, one for every network configuration, and
+ * every id is persisted with the name of the factory that creates its network. A network is created by a named factory
+ * when it comes from {@link #factory(String)}, otherwise it is restored by the {@value #DEFAULT_FACTORY} factory: a
+ * registry opened without it rejects the networks it could not restore.
+ * <p>
+ * On open, the snapshot and the log are each read with a single sequential read and compacted into a new snapshot.
+ * The restored networks are not created upfront: each one is created by its factory the first time it is found, so the
+ * registry is usable, and reports its full size, as soon as it is open.
+ * <p>
+ * The changes are written to the log without forcing it to the storage device: they survive a crash of the process, but
+ * a crash of the operating system can lose the last ones. Only the snapshots written by {@link #compact()} and
+ * {@link #close()} are forced.
+ */
+public class FileBroadcastNetworkRegistry implements BroadcastNetworkRegistry, AutoCloseable {
+    private final static Logger LOG = LoggerFactory.getLogger(FileBroadcastNetworkRegistry.class);
+
+    /**
+     * Name of the factory that restores the networks not created by {@link #factory(String)}.
+     */
+    public static final String DEFAULT_FACTORY = "default";
+
+    private static final int SNAPSHOT_MAGIC = 0x42524e53;
+    private static final String SNAPSHOT_FILE = "registry.snapshot";
+    private static final String LOG_FILE = "registry.log";
+    private static final byte STORED = 1;
+    private static final byte REMOVED = 2;
+    private static final byte STRING_ID = 1;
+    private static final byte UUID_ID = 2;
+    private static final byte LONG_ID = 3;
+
+    private final Path directory;
+    private final Map<String, BroadcastNetworkFactory> networkFactories;
+    private final BroadcastMetrics metrics;
+    private final Map<NetworkId<?>, Entry> networkMap = new ConcurrentHashMap<>();
+    // Factory names of the networks created by factory(String) and not stored yet, by identity
+    private final Map<BroadcastNetwork, String> createdBy = Collections.synchronizedMap(new WeakHashMap<>());
+    // Guards the changes of networkMap together with their log records, so that the log has the same order
+    private final ReentrantLock changeLock = new ReentrantLock();
+    private FileChannel changeLog;
+
+    private FileBroadcastNetworkRegistry(Path directory, Map<String, BroadcastNetworkFactory> networkFactories, BroadcastMetrics metrics) throws IOException {
+        this.directory = directory;
+        this.networkFactories = networkFactories;
+        this.metrics = metrics;
+        Files.createDirectories(directory);
+        final Map<NetworkId<?>, String> factoryNames = restore();
+        for (Map.Entry<NetworkId<?>, String> restored : factoryNames.entrySet()) {
+            if (!networkFactories.containsKey(restored.getValue())) {
+                throw new IOException("BroadcastNetwork with id " + restored.getKey() + " is created by the factory " + restored.getValue() + ", not provided");
+            }
+            networkMap.put(restored.getKey(), new Entry(restored.getKey(), restored.getValue(), null));
+        }
+        compact(factoryNames);
+        LOG.info("Restored {} BroadcastNetwork ids from {}", factoryNames.size(), directory);
+    }
+
+    /**
+     * Opens the registry stored in {@code directory}, creating it when it does not exist.
+     * The restored networks are created by {@code networkFactory}, the {@value #DEFAULT_FACTORY} factory.
+     */
+    public static FileBroadcastNetworkRegistry open(Path directory, BroadcastNetworkFactory networkFactory, BroadcastMetrics metrics) throws IOException {
+        if (Objects.isNull(networkFactory)) {
+            throw new IllegalArgumentException("networkFactory is required, null provided");
+        }
+        return open(directory, Map.of(DEFAULT_FACTORY, networkFactory), metrics);
+    }
+
+    /**
+     * Opens the registry stored in {@code directory}, creating it when it does not exist.
+     * Every restored network is created by the factory it was stored with, which must be one of {@code networkFactories}.
+     */
+    public static FileBroadcastNetworkRegistry open(Path directory, Map<String, BroadcastNetworkFactory> networkFactories, BroadcastMetrics metrics) throws IOException {
+        if (Objects.isNull(directory)) {
+            throw new IllegalArgumentException("directory is required, null provided");
+        }
+        if (Objects.isNull(networkFactories) || networkFactories.isEmpty()) {
+            throw new IllegalArgumentException("networkFactories is required, null or empty provided");
+        }
+        if (Objects.isNull(metrics)) {
+            throw new IllegalArgumentException("metrics is required, null provided");
+        }
+        return new FileBroadcastNetworkRegistry(directory, Map.copyOf(networkFactories), metrics);
+    }
+
+    /**
+     * Factory named {@code name}, whose networks are restored by the same factory once stored in this registry.
+     * It is the factory to give to the {@link BroadcastNetworkService} of the registry.
+     */
+    public BroadcastNetworkFactory factory(String name) {
+        if (Objects.isNull(name)) {
+            throw new IllegalArgumentException("name is required, null provided");
+        }
+        final BroadcastNetworkFactory networkFactory = networkFactories.get(name);
+        if (networkFactory == null) {
+            throw new IllegalArgumentException("No factory named " + name + " in " + networkFactories.keySet());
+        }
+        return (networkId, networkMetrics) -> {
+            final BroadcastNetwork network = networkFactory.create(networkId, networkMetrics);
+            createdBy.put(network, name);
+            return network;
+        };
+    }
+
+    @Override
+    public boolean store(BroadcastNetwork network) {
+        if (Objects.isNull(network)) {
+            throw new IllegalArgumentException("network is required, null provided");
+        }
+        final byte[] encodedId = encode(network.id());
+        final String factoryName = factoryNameOf(network);
+
+        LOG.trace("Storing BroadcastNetwork with id {}", network.id());
+        changeLock.lock();
+        try {
+            if (networkMap.containsKey(network.id())) {
+                LOG.trace("A BroadcastNetwork with id of {} was found, error will be thrown", network.id());
+                throw new DuplicateNetworkIdException(network.id());
+            }
+            appendChange(STORED, encodedId, factoryName);
+            networkMap.put(network.id(), new Entry(network.id(), factoryName, network));
+            createdBy.remove(network);
+        } finally {
+            changeLock.unlock();
+        }
+        LOG.info("BroadcastNetwork with id {} was stored successfully", network.id());
+        return true;
+    }
+
+    @Override
+    public boolean update(NetworkId<?> networkId, BroadcastNetwork network) {
+        if (Objects.isNull(networkId)) {
+            throw new IllegalArgumentException("networkId is required, null provided");
+        }
+        if (Objects.isNull(network)) {
+            throw new IllegalArgumentException("network is required, null provided");
+        }
+        if (!Objects.equals(networkId, network.id())) {
+            throw new IllegalArgumentException("network.id() returns a value different from the provided networkId");
+        }
+
+        LOG.trace("Updating BroadcastNetwork with id {}", network.id());
+        changeLock.lock();
+        try {
+            final Entry current = networkMap.get(networkId);
+            if (current == null) {
+                LOG.trace("BroadcastNetwork with id {} not found, it will be created", network.id());
+                return store(network);
+            }
+            final String factoryName = factoryNameOf(network);
+            // Only a change of factory is logged, the set of ids does not change
+            if (!factoryName.equals(current.factoryName)) {
+                appendChange(STORED, encode(networkId), factoryName);
+            }
+            networkMap.put(networkId, new Entry(networkId, factoryName, network));
+            createdBy.remove(network);
+        } finally {
+            changeLock.unlock();
+        }
+        LOG.info("BroadcastNetwork with id {} was updated successfully", network.id());
+        return true;
+    }
+
+    @Override
+    public Optional<BroadcastNetwork> find(NetworkId<?> networkId) {
+        if (Objects.isNull(networkId)) {
+            throw new IllegalArgumentException("networkId is required, null provided");
+        }
+        final Entry entry = networkMap.get(networkId);
+        return entry == null ? Optional.empty() : Optional.of(entry.network());
+    }
+
+    @Override
+    public void remove(NetworkId<?> networkId) {
+        if (Objects.isNull(networkId)) {
+            throw new IllegalArgumentException("networkId is required, null provided");
+        }
+        LOG.info("Removing BroadcastNetwork with id {}", networkId);
+        changeLock.lock();
+        try {
+            if (networkMap.containsKey(networkId)) {
+                appendChange(REMOVED, encode(networkId), null);
+                networkMap.remove(networkId);
+            }
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(NetworkId<?> networkId, BroadcastNetwork network) {
+        if (Objects.isNull(networkId)) {
+            throw new IllegalArgumentException("networkId is required, null provided");
+        }
+        if (Objects.isNull(network)) {
+            throw new IllegalArgumentException("network is required, null provided");
+        }
+        changeLock.lock();
+        try {
+            // A restored network not created yet is never the provided one, and it is not created to be compared
+            final Entry entry = networkMap.get(networkId);
+            if (entry == null || entry.network != network) {
+                return false;
+            }
+            appendChange(REMOVED, encode(networkId), null);
+            networkMap.remove(networkId);
+        } finally {
+            changeLock.unlock();
+        }
+        LOG.info("Removed BroadcastNetwork with id {}", networkId);
+        return true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return networkMap.isEmpty();
+    }
+
+    @Override
+    public long size() {
+        return networkMap.size();
+    }
+
+    /**
+     * Writes the current ids and their factory names to a new snapshot and empties the change log.
+     */
+    public void compact() {
+        changeLock.lock();
+        try {
+            compact(factoryNames());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts the registry and closes its files. The networks are not shut down.
+     */
+    @Override
+    public void close() {
+        changeLock.lock();
+        try {
+            compact(factoryNames());
+            changeLog.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    private String factoryNameOf(BroadcastNetwork network) {
+        final String factoryName = createdBy.get(network);
+        if (factoryName != null) {
+            return factoryName;
+        }
+        if (!networkFactories.containsKey(DEFAULT_FACTORY)) {
+            throw new IllegalArgumentException("BroadcastNetwork with id " + network.id() + " cannot be restored, it was not created by a factory of the registry");
+        }
+        return DEFAULT_FACTORY;
+    }
+
+    private Map<NetworkId<?>, String> factoryNames() {
+        final Map<NetworkId<?>, String> factoryNames = new LinkedHashMap<>();
+        networkMap.forEach((networkId, entry) -> factoryNames.put(networkId, entry.factoryName));
+        return factoryNames;
+    }
+
+    private Map<NetworkId<?>, String> restore() throws IOException {
+        final Map<NetworkId<?>, String> factoryNames = new LinkedHashMap<>();
+        final Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotPath)) {
+            final ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+            if (snapshot.remaining() < Integer.BYTES || snapshot.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(snapshotPath + " is not a registry snapshot");
+            }
+            try {
+                final int count = snapshot.getInt();
+                for (int i = 0; i < count; i++) {
+                    factoryNames.put(decode(snapshot), decodeString(snapshot));
+                }
+            } catch (BufferUnderflowException | IllegalStateException e) {
+                // Snapshots are replaced atomically, a damaged one is not an interrupted write
+                throw new IOException(snapshotPath + " is corrupted", e);
+            }
+        }
+        final Path logPath = directory.resolve(LOG_FILE);
+        if (Files.exists(logPath)) {
+            final ByteBuffer changes = ByteBuffer.wrap(Files.readAllBytes(logPath));
+            while (changes.hasRemaining()) {
+                final int position = changes.position();
+                final byte change = changes.get();
+                final NetworkId<?> networkId;
+                final String factoryName;
+                try {
+                    if (change != STORED && change != REMOVED) {
+                        throw new IllegalStateException("Unknown change " + change);
+                    }
+                    networkId = decode(changes);
+                    factoryName = change == STORED ? decodeString(changes) : null;
+                } catch (BufferUnderflowException | IllegalStateException e) {
+                    // A change interrupted by a crash, it never completed: the log is compacted without it
+                    LOG.warn("Ignoring the incomplete changes of {} from byte {}: {}", logPath, position, e.getMessage());
+                    break;
+                }
+                if (change == STORED) {
+                    factoryNames.put(networkId, factoryName);
+                } else {
+                    factoryNames.remove(networkId);
+                }
+            }
+        }
+        return factoryNames;
+    }
+
+    private void compact(Map<NetworkId<?>, String> factoryNames) throws IOException {
+        final byte[][] encodedEntries = new byte[factoryNames.size()][];
+        int size = Integer.BYTES * 2;
+        int i = 0;
+        for (Map.Entry<NetworkId<?>, String> entry : factoryNames.entrySet()) {
+            encodedEntries[i] = encodeEntry(encode(entry.getKey()), entry.getValue());
+            size += encodedEntries[i++].length;
+        }
+        final ByteBuffer snapshot = ByteBuffer.allocate(size).putInt(SNAPSHOT_MAGIC).putInt(encodedEntries.length);
+        for (byte[] encodedEntry : encodedEntries) {
+            snapshot.put(encodedEntry);
+        }
+        final Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        final Path temporaryPath = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(snapshot.flip());
+            channel.force(true);
+        }
+        // The new snapshot replaces the old one only when complete
+        Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (changeLog != null) {
+            changeLog.close();
+        }
+        changeLog = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    // Not forced: the change is as durable as the page cache of the operating system until the next compaction
+    private void appendChange(byte change, byte[] encodedId, String factoryName) {
+        final byte[] encodedEntry = factoryName == null ? encodedId : encodeEntry(encodedId, factoryName);
+        final ByteBuffer record = ByteBuffer.allocate(1 + encodedEntry.length).put(change).put(encodedEntry).flip();
+        try {
+            while (record.hasRemaining()) {
+                changeLog.write(record);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encodeEntry(byte[] encodedId, String factoryName) {
+        final byte[] name = factoryName.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(encodedId.length + Integer.BYTES + name.length).put(encodedId).putInt(name.length).put(name).array();
+    }
+
+    static byte[] encode(NetworkId<?> networkId) {
+        if (networkId instanceof NetworkId.Str stringId) {
+            final byte[] value = stringId.id().getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(1 + Integer.BYTES + value.length).put(STRING_ID).putInt(value.length).put(value).array();
+        }
+        if (networkId instanceof NetworkId.UUID uuidId) {
+            return ByteBuffer.allocate(1 + Long.BYTES * 2)
+                    .put(UUID_ID)
+                    .putLong(uuidId.id().getMostSignificantBits())
+                    .putLong(uuidId.id().getLeastSignificantBits())
+                    .array();
+        }
+        if (networkId instanceof NetworkId.Num longId) {
+            return ByteBuffer.allocate(1 + Long.BYTES).put(LONG_ID).putLong(longId.id()).array();
+        }
+        throw new IllegalArgumentException(networkId.getClass().getName() + " network ids cannot be persisted");
+    }
+
+    static NetworkId<?> decode(ByteBuffer source) {
+        final byte type = source.get();
+        if (type == STRING_ID) {
+            return new NetworkId.Str(decodeString(source));
+        }
+        if (type == UUID_ID) {
+            return new NetworkId.UUID(new java.util.UUID(source.getLong(), source.getLong()));
+        }
+        if (type == LONG_ID) {
+            return new NetworkId.Num(source.getLong());
+        }
+        throw new IllegalStateException("Unknown network id type " + type);
+    }
+
+    private static String decodeString(ByteBuffer source) {
+        final int length = source.getInt();
+        if (length < 0 || length > source.remaining()) {
+            throw new IllegalStateException("Invalid string length " + length + ", " + source.remaining() + " bytes remaining");
+        }
+        final byte[] value = new byte[length];
+        source.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    // A restored network is created by its factory the first time it is found
+    private final class Entry {
+        private final NetworkId<?> networkId;
+        private final String factoryName;
+        private volatile BroadcastNetwork network;
+
+        Entry(NetworkId<?> networkId, String factoryName, BroadcastNetwork network) {
+            this.networkId = networkId;
+            this.factoryName = factoryName;
+            this.network = network;
+        }
+
+        BroadcastNetwork network() {
+            BroadcastNetwork current = network;
+            if (current == null) {
+                synchronized (this) {
+                    current = network;
+                    if (current == null) {
+                        current = networkFactories.get(factoryName).create(networkId, metrics);
+                        network = current;
+                        LOG.debug("Restored BroadcastNetwork with id {}", networkId);
+                    }
+                }
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events emitted by networks and peers.
+ * Like any event without settings they are recorded by every running recording, except the per message
+ * {@link DeliveryEvent}, which a recording must enable, e.g. with a .jfc created by
+ * {@code jfr configure +com.github.alessandrofrenna.broaddy.Delivery#enabled=true}.
+ */
+final class FlightRecorderEvents {
+    private static final String CATEGORY = "Broaddy";
+    static final EventType BROADCAST_EVENT_TYPE = EventType.getEventType(BroadcastEvent.class);
+    private static final EventType CONNECT_EVENT_TYPE = EventType.getEventType(ConnectEvent.class);
+    private static final EventType DISCONNECT_EVENT_TYPE = EventType.getEventType(DisconnectEvent.class);
+
+    private FlightRecorderEvents() { }
+
+    static String describe(Object id) {
+        return id == null ? null : id.toString();
+    }
+
+    static Class<?> payloadTypeOf(Message<?> message) {
+        return message.payload() == null ? null : message.payload().getClass();
+    }
+
+    static void commitBroadcast(BroadcastEvent event, NetworkId<?> networkId, Message<?> message, int recipients) {
+        if (event.shouldCommit()) {
+            event.networkId = describe(networkId);
+            event.messageId = describe(message.id());
+            event.payloadType = payloadTypeOf(message);
+            event.recipients = recipients;
+            event.commit();
+        }
+    }
+
+    static BroadcastNetwork.Connect commitConnect(ConnectEvent event, NetworkId<?> networkId, RoutableId<?> peerId, BroadcastNetwork.Connect result) {
+        if (event.shouldCommit()) {
+            event.networkId = describe(networkId);
+            event.peerId = describe(peerId);
+            event.result = result.name();
+            event.commit();
+        }
+        return result;
+    }
+
+    static BroadcastNetwork.Disconnect commitDisconnect(DisconnectEvent event, NetworkId<?> networkId, RoutableId<?> peerId, BroadcastNetwork.Disconnect result) {
+        if (event.shouldCommit()) {
+            event.networkId = describe(networkId);
+            event.peerId = describe(peerId);
+            event.result = result.name();
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Begins one event per peer of a bulk connection, before the network is locked. {@code null} when the event is disabled.
+     */
+    static ConnectEvent[] beginConnects(int peers) {
+        if (!CONNECT_EVENT_TYPE.isEnabled()) {
+            return null;
+        }
+        final ConnectEvent[] events = new ConnectEvent[peers];
+        for (int i = 0; i < peers; i++) {
+            events[i] = new ConnectEvent();
+            events[i].begin();
+        }
+        return events;
+    }
+
+    /**
+     * Commits the events of {@link #beginConnects(int)} with the result of every peer, after the network is unlocked.
+     */
+    static void commitConnects(ConnectEvent[] events, NetworkId<?> networkId, List<? extends RoutableId<?>> peerIds, List<BroadcastNetwork.Connect> results) {
+        if (events == null) {
+            return;
+        }
+        for (int i = 0; i < events.length; i++) {
+            commitConnect(events[i], networkId, peerIds.get(i), results.get(i));
+        }
+    }
+
+    /**
+     * Begins one event per peer of a bulk disconnection, before the network is locked. {@code null} when the event is disabled.
+     */
+    static DisconnectEvent[] beginDisconnects(int peers) {
+        if (!DISCONNECT_EVENT_TYPE.isEnabled()) {
+            return null;
+        }
+        final DisconnectEvent[] events = new DisconnectEvent[peers];
+        for (int i = 0; i < peers; i++) {
+            events[i] = new DisconnectEvent();
+            events[i].begin();
+        }
+        return events;
+    }
+
+    /**
+     * Commits the events of {@link #beginDisconnects(int)} with the result of every peer, after the network is unlocked.
+     */
+    static void commitDisconnects(DisconnectEvent[] events, NetworkId<?> networkId, List<? extends RoutableId<?>> peerIds, List<BroadcastNetwork.Disconnect> results) {
+        if (events == null) {
+            return;
+        }
+        for (int i = 0; i < events.length; i++) {
+            commitDisconnect(events[i], networkId, peerIds.get(i), results.get(i));
+        }
+    }
+
+    /**
+     * Begins a shutdown event that is committed when the shutdown completes.
+     */
+    static void trackShutdown(CompletableFuture<Void> shutdownFuture, NetworkId<?> networkId, int peers) {
+        final ShutdownEvent event = new ShutdownEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.begin();
+        event.networkId = describe(networkId);
+        event.peers = peers;
+        shutdownFuture.thenRun(() -> {
+            if (event.shouldCommit()) {
+                event.commit();
+            }
+        });
+    }
+
+    @Name("com.github.alessandrofrenna.broaddy.Broadcast")
+    @Label("Broadcast")
+    @Description("A message broadcast to the peers of a network")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class BroadcastEvent extends Event {
+        @Label("Network Id")
+        String networkId;
+
+        @Label("Message Id")
+        String messageId;
+
+        @Label("Payload Type")
+        Class<?> payloadType;
+
+        @Label("Recipients")
+        int recipients;
+    }
+
+    @Name("com.github.alessandrofrenna.broaddy.Delivery")
+    @Label("Delivery")
+    @Description("Messages consumed by a peer")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    // One event for every message and peer: a recording that does not ask for them must not pay for them
+    @Enabled(false)
+    static final class DeliveryEvent extends Event {
+        @Label("Network Id")
+        String networkId;
+
+        @Label("Peer Id")
+        String peerId;
+
+        @Label("Payload Type")
+        @Description("Payload type of the first message of the delivery")
+        Class<?> payloadType;
+
+        @Label("Message Count")
+        int messageCount;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("com.github.alessandrofrenna.broaddy.Connect")
+    @Label("Peer Connect")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ConnectEvent extends Event {
+        @Label("Network Id")
+        String networkId;
+
+        @Label("Peer Id")
+        String peerId;
+
+        @Label("Result")
+        String result;
+    }
+
+    @Name("com.github.alessandrofrenna.broaddy.Disconnect")
+    @Label("Peer Disconnect")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class DisconnectEvent extends Event {
+        @Label("Network Id")
+        String networkId;
+
+        @Label("Peer Id")
+        String peerId;
+
+        @Label("Result")
+        String result;
+    }
+
+    @Name("com.github.alessandrofrenna.broaddy.Shutdown")
+    @Label("Network Shutdown")
+    @Description("From the shutdown request to the disconnection of the last peer")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ShutdownEvent extends Event {
+        @Label("Network Id")
+        String networkId;
+
+        @Label("Peers")
+        int peers;
+    }
+}
@@ -17,10 +17,8 @@
 
 package com.github.alessandrofrenna.broaddy;
 
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +26,8 @@ import org.slf4j.LoggerFactory;
 public class InMemoryBroadcastNetworkRegistry implements BroadcastNetworkRegistry {
     private final static Logger LOG = LoggerFactory.getLogger(InMemoryBroadcastNetworkRegistry.class);
 
-    private final Map<NetworkId<?>, BroadcastNetwork> networkMap = new ConcurrentHashMap<>();
+    // NetworkId.Num ids are stored unboxed
+    private final NetworkIdMap<BroadcastNetwork> networkMap = new NetworkIdMap<>();
 
     @Override
     public boolean store(BroadcastNetwork network) {
@@ -88,7 +87,7 @@ public class InMemoryBroadcastNetworkRegistry implements BroadcastNetworkRegistr
         if (Objects.isNull(networkId)) {
             throw new IllegalArgumentException("networkId is required, null provided");
         }
-        return Optional.ofNullable(networkMap.getOrDefault(networkId, null));
+        return Optional.ofNullable(networkMap.get(networkId));
     }
 
     @Override
@@ -100,6 +99,21 @@ public class InMemoryBroadcastNetworkRegistry implements BroadcastNetworkRegistr
         networkMap.remove(networkId);
     }
 
+    @Override
+    public boolean remove(NetworkId<?> networkId, BroadcastNetwork network) {
+        if (Objects.isNull(networkId)) {
+            throw new IllegalArgumentException("networkId is required, null provided");
+        }
+        if (Objects.isNull(network)) {
+            throw new IllegalArgumentException("network is required, null provided");
+        }
+        final boolean removed = networkMap.remove(networkId, network);
+        if (removed) {
+            LOG.info("Removed BroadcastNetwork with id {}", networkId);
+        }
+        return removed;
+    }
+
     @Override
     public boolean isEmpty() {
         return networkMap.isEmpty();
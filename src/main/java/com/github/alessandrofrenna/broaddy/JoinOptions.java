@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * How a {@link NetworkPeer} joins a network, every option can be combined with the others.
+ *
+ * @param payloadType the peer only receives the messages whose payload is an instance of this type, a membership has a single one
+ * @param mailboxConfig mailbox of the membership, {@code null} for the default mailbox of the peer
+ * @param batchConsumer consumes the messages drained from the mailbox with a single invocation, {@code null} to consume them one at a time
+ * @param replayAfterMessageId the peer only receives the retained messages that follow this one, {@code null} for every retained message
+ */
+public record JoinOptions<T>(Class<T> payloadType, MailboxConfig mailboxConfig, Consumer<List<Message<?>>> batchConsumer, UUID replayAfterMessageId) {
+    public JoinOptions {
+        if (Objects.isNull(payloadType)) {
+            throw new IllegalArgumentException("payloadType is required, null provided");
+        }
+    }
+
+    /**
+     * Receives every message through the default mailbox of the peer.
+     */
+    public static JoinOptions<Object> defaults() {
+        return new JoinOptions<>(Object.class, null, null, null);
+    }
+
+    /**
+     * Receives only the messages whose payload is an instance of {@code payloadType}.
+     */
+    public static <T> JoinOptions<T> of(Class<T> payloadType) {
+        return new JoinOptions<>(payloadType, null, null, null);
+    }
+
+    public JoinOptions<T> withMailbox(MailboxConfig mailboxConfig) {
+        if (Objects.isNull(mailboxConfig)) {
+            throw new IllegalArgumentException("mailboxConfig is required, null provided");
+        }
+        return new JoinOptions<>(payloadType, mailboxConfig, batchConsumer, replayAfterMessageId);
+    }
+
+    public JoinOptions<T> withBatchConsumer(Consumer<List<Message<?>>> batchConsumer) {
+        if (Objects.isNull(batchConsumer)) {
+            throw new IllegalArgumentException("batchConsumer is required, null provided");
+        }
+        return new JoinOptions<>(payloadType, mailboxConfig, batchConsumer, replayAfterMessageId);
+    }
+
+    public JoinOptions<T> withReplayAfter(UUID replayAfterMessageId) {
+        if (Objects.isNull(replayAfterMessageId)) {
+            throw new IllegalArgumentException("replayAfterMessageId is required, null provided");
+        }
+        return new JoinOptions<>(payloadType, mailboxConfig, batchConsumer, replayAfterMessageId);
+    }
+}
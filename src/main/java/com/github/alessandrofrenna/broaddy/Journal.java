@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of broadcast messages stored in memory-mapped segment files.
+ * <p>
+ * Every message gets the next sequence number and is written as a record {@code [length][crc32c][sequence][payload]}.
+ * An append only copies the record into the mapped segment: the records are forced to the storage device by a background
+ * thread every {@link JournalConfig#flushInterval()}, so many appends share a single flush and a broadcast never waits
+ * for it. Records appended after the last flush can be lost if the machine crashes, not if the process does.
+ * <p>
+ * A segment is named after the sequence of its first record. When a record does not fit, a new segment is started and the
+ * oldest segments beyond {@link JournalConfig#retainedSegments()} are deleted. On open, the last segment is scanned up to
+ * the first missing or corrupted record and the journal continues from there.
+ */
+public final class Journal implements AutoCloseable {
+    static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final Path directory;
+    private final MessageCodec codec;
+    private final JournalConfig config;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final CRC32C checksum = new CRC32C();
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService flusher;
+    private volatile Segment activeSegment;
+    private long nextSequence;
+    private boolean closed;
+
+    private Journal(Path directory, MessageCodec codec, JournalConfig config) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.config = config;
+        Files.createDirectories(directory);
+        try (var files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .forEach(path -> segments.put(firstSequenceOf(path), path));
+        }
+        if (segments.isEmpty()) {
+            activeSegment = Segment.create(segmentPath(0), 0, config.segmentSize());
+            segments.put(0L, activeSegment.path);
+            nextSequence = 0;
+        } else {
+            final Map.Entry<Long, Path> last = segments.lastEntry();
+            activeSegment = Segment.open(last.getValue(), last.getKey());
+            nextSequence = activeSegment.recover();
+            LOG.debug("Journal {} recovered, next sequence is {}", directory, nextSequence);
+        }
+        deleteExpiredSegments();
+        flusher = Executors.newSingleThreadScheduledExecutor(new BroadcastExecutors.DaemonThreadFactory("broaddy-journal-"));
+        final long flushIntervalNanos = config.flushInterval().toNanos();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalNanos, flushIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Opens the journal stored in {@code directory}, creating it when it does not exist.
+     */
+    public static Journal open(Path directory, MessageCodec codec, JournalConfig config) throws IOException {
+        if (Objects.isNull(directory)) {
+            throw new IllegalArgumentException("directory is required, null provided");
+        }
+        if (Objects.isNull(codec)) {
+            throw new IllegalArgumentException("codec is required, null provided");
+        }
+        if (Objects.isNull(config)) {
+            throw new IllegalArgumentException("config is required, null provided");
+        }
+        return new Journal(directory, codec, config);
+    }
+
+    /**
+     * Appends a message and returns its sequence number.
+     */
+    public long append(Message<?> message) {
+        appendLock.lock();
+        try {
+            ensureOpen();
+            return write(message);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends the messages with consecutive sequence numbers.
+     */
+    public void appendAll(List<? extends Message<?>> messages) {
+        appendLock.lock();
+        try {
+            ensureOpen();
+            for (Message<?> message : messages) {
+                write(message);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Decodes the retained messages starting from {@code fromSequence}, in sequence order, and returns the sequence that
+     * follows the last one replayed. When {@code fromSequence} is no longer retained, the replay starts from the oldest record.
+     */
+    public long replay(long fromSequence, Consumer<Message<?>> consumer) {
+        if (Objects.isNull(consumer)) {
+            throw new IllegalArgumentException("consumer is required, null provided");
+        }
+        // Records appended after this point are not replayed
+        final Segment segment = activeSegment;
+        final int activeLimit = segment.writePosition;
+        final Long firstSegment = Objects.requireNonNullElse(segments.floorKey(fromSequence), segments.firstKey());
+        long next = fromSequence;
+        for (Map.Entry<Long, Path> entry : segments.tailMap(firstSegment, true).entrySet()) {
+            if (entry.getKey() > segment.firstSequence) {
+                break;
+            }
+            final RecordReader reader;
+            if (entry.getKey() == segment.firstSequence) {
+                reader = new RecordReader(segment.buffer, activeLimit, segment.firstSequence);
+            } else {
+                final ByteBuffer buffer = mapReadOnly(entry.getValue());
+                if (buffer == null) {
+                    continue;
+                }
+                reader = new RecordReader(buffer, buffer.capacity(), entry.getKey());
+            }
+            while (reader.next()) {
+                if (reader.sequence >= fromSequence) {
+                    consumer.accept(codec.decode(reader.payload));
+                    next = reader.sequence + 1;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Sequence number of the next appended message.
+     */
+    public long nextSequence() {
+        appendLock.lock();
+        try {
+            return nextSequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Forces the records appended so far to the storage device, without waiting for the background flush.
+     */
+    public void flush() {
+        activeSegment.force();
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            appendLock.unlock();
+        }
+        // Runs the pending closes of the rolled segments, the periodic flush is cancelled
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warn("Journal {} - the flusher did not terminate in time", directory);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            activeSegment.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LOG.debug("Journal {} closed", directory);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Journal " + directory + " is closed");
+        }
+    }
+
+    private long write(Message<?> message) {
+        Segment segment = activeSegment;
+        if (!segment.tryWrite(message, nextSequence, codec, checksum)) {
+            if (segment.writePosition == 0) {
+                throw new IllegalArgumentException("message " + message.id() + " does not fit in a journal segment of " + config.segmentSize() + " bytes");
+            }
+            segment = roll();
+            if (!segment.tryWrite(message, nextSequence, codec, checksum)) {
+                throw new IllegalArgumentException("message " + message.id() + " does not fit in a journal segment of " + config.segmentSize() + " bytes");
+            }
+        }
+        return nextSequence++;
+    }
+
+    private Segment roll() {
+        final Segment previous = activeSegment;
+        final Segment next;
+        try {
+            next = Segment.create(segmentPath(nextSequence), nextSequence, config.segmentSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.put(nextSequence, next.path);
+        activeSegment = next;
+        LOG.debug("Journal {} - started segment {}", directory, next.path.getFileName());
+        // The previous segment is forced on the flusher thread, so that rolling does not wait for the storage device
+        flusher.execute(() -> {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                LOG.error("Journal {} - failed to close segment {}", directory, previous.path.getFileName(), e);
+            }
+            deleteExpiredSegments();
+        });
+        return next;
+    }
+
+    private void deleteExpiredSegments() {
+        while (segments.size() > config.retainedSegments()) {
+            final Map.Entry<Long, Path> expired = segments.pollFirstEntry();
+            try {
+                Files.deleteIfExists(expired.getValue());
+                LOG.debug("Journal {} - deleted segment {}", directory, expired.getValue().getFileName());
+            } catch (IOException e) {
+                LOG.error("Journal {} - failed to delete segment {}", directory, expired.getValue().getFileName(), e);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            activeSegment.force();
+        } catch (RuntimeException e) {
+            LOG.error("Journal {} - flush failed", directory, e);
+        }
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private static long firstSequenceOf(Path segmentPath) {
+        final String fileName = segmentPath.getFileName().toString();
+        return Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // Null when the segment has been deleted by the retention meanwhile
+    private static ByteBuffer mapReadOnly(Path segmentPath) {
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final long firstSequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // Written under the append lock, read by the flusher and by the replays
+        private volatile int writePosition;
+        private int flushedPosition;
+
+        private Segment(Path path, long firstSequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path path, long firstSequence, int size) throws IOException {
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(path, firstSequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        static Segment open(Path path, long firstSequence) throws IOException {
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(path, firstSequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+
+        // Positions the segment after its last valid record and returns the sequence that follows it
+        long recover() {
+            final RecordReader reader = new RecordReader(buffer, buffer.capacity(), firstSequence);
+            long next = firstSequence;
+            while (reader.next()) {
+                next = reader.sequence + 1;
+            }
+            writePosition = reader.position;
+            flushedPosition = reader.position;
+            return next;
+        }
+
+        boolean tryWrite(Message<?> message, long sequence, MessageCodec codec, CRC32C checksum) {
+            final int position = writePosition;
+            final int available = buffer.capacity() - position - RECORD_HEADER_SIZE;
+            if (available <= 0) {
+                return false;
+            }
+            final ByteBuffer payload = buffer.slice(position + RECORD_HEADER_SIZE, available);
+            try {
+                codec.encode(message, payload);
+            } catch (BufferOverflowException e) {
+                return false;
+            }
+            payload.flip();
+            checksum.reset();
+            checksum.update(payload);
+            final int length = RECORD_HEADER_SIZE + payload.limit();
+            buffer.putLong(position + Integer.BYTES * 2, sequence);
+            buffer.putInt(position + Integer.BYTES, (int) checksum.getValue());
+            // The length is written last: a record without it ends the segment
+            buffer.putInt(position, length);
+            writePosition = position + length;
+            return true;
+        }
+
+        synchronized void force() {
+            final int written = writePosition;
+            if (written > flushedPosition) {
+                buffer.force(flushedPosition, written - flushedPosition);
+                flushedPosition = written;
+            }
+        }
+
+        void close() throws IOException {
+            force();
+            channel.close();
+        }
+    }
+
+    private static final class RecordReader {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private final CRC32C checksum = new CRC32C();
+        private int position;
+        private long sequence;
+        private ByteBuffer payload;
+
+        RecordReader(ByteBuffer buffer, int limit, long firstSequence) {
+            this.buffer = buffer;
+            this.limit = limit;
+            this.sequence = firstSequence - 1;
+        }
+
+        // False at the end of the written records, or at the first torn one. A record that passes the checksum but does
+        // not follow the previous one is a leftover of an older file and ends the segment too
+        boolean next() {
+            if (limit - position < RECORD_HEADER_SIZE) {
+                return false;
+            }
+            final int length = buffer.getInt(position);
+            if (length < RECORD_HEADER_SIZE || length > limit - position) {
+                return false;
+            }
+            final ByteBuffer candidate = buffer.slice(position + RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE);
+            checksum.reset();
+            checksum.update(candidate);
+            if ((int) checksum.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                return false;
+            }
+            final long recordSequence = buffer.getLong(position + Integer.BYTES * 2);
+            if (recordSequence != sequence + 1) {
+                return false;
+            }
+            sequence = recordSequence;
+            payload = candidate.rewind();
+            position += length;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Layout and durability of a {@link Journal}.
+ *
+ * @param segmentSize size in bytes of each memory-mapped segment file
+ * @param retainedSegments number of segment files kept on disk, the oldest are deleted when a new segment is started
+ * @param flushInterval period of the background flush of the written records to the storage device
+ */
+public record JournalConfig(int segmentSize, int retainedSegments, Duration flushInterval) {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_RETAINED_SEGMENTS = 16;
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(10);
+
+    public JournalConfig {
+        if (segmentSize <= Journal.RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be greater than " + Journal.RECORD_HEADER_SIZE + ", " + segmentSize + " provided");
+        }
+        if (retainedSegments <= 0) {
+            throw new IllegalArgumentException("retainedSegments must be greater than zero, " + retainedSegments + " provided");
+        }
+        if (Objects.isNull(flushInterval)) {
+            throw new IllegalArgumentException("flushInterval is required, null provided");
+        }
+        if (flushInterval.isZero() || flushInterval.isNegative()) {
+            throw new IllegalArgumentException("flushInterval must be positive, " + flushInterval + " provided");
+        }
+    }
+
+    public JournalConfig() {
+        this(DEFAULT_SEGMENT_SIZE, DEFAULT_RETAINED_SEGMENTS, DEFAULT_FLUSH_INTERVAL);
+    }
+}
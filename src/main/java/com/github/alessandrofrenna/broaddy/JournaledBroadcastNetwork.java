@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Network that appends every broadcast message to a {@link Journal} before delivering it through another network.
+ * The journal is closed when the network is shut down.
+ */
+public final class JournaledBroadcastNetwork implements BroadcastNetwork {
+    private static final Logger LOG = LoggerFactory.getLogger(JournaledBroadcastNetwork.class);
+
+    private final BroadcastNetwork network;
+    private final Journal journal;
+    private volatile boolean shutdown;
+
+    public JournaledBroadcastNetwork(BroadcastNetwork network, Journal journal) {
+        if (Objects.isNull(network)) {
+            throw new IllegalArgumentException("network is required, null provided");
+        }
+        if (Objects.isNull(journal)) {
+            throw new IllegalArgumentException("journal is required, null provided");
+        }
+        this.network = network;
+        this.journal = journal;
+    }
+
+    public Journal journal() {
+        return journal;
+    }
+
+    @Override
+    public NetworkId<?> id() {
+        return network.id();
+    }
+
+    @Override
+    public Connect connectPeer(Routable peer) {
+        return network.connectPeer(peer);
+    }
+
+    @Override
+    public Connect connectPeer(Routable peer, Class<?> payloadType) {
+        return network.connectPeer(peer, payloadType);
+    }
+
+    @Override
+    public Connect connectPeer(Routable peer, Class<?> payloadType, UUID replayAfterMessageId) {
+        return network.connectPeer(peer, payloadType, replayAfterMessageId);
+    }
+
+    @Override
+    public Disconnect disconnectPeer(RoutableId<?> routableId) {
+        return network.disconnectPeer(routableId);
+    }
+
+    @Override
+    public List<Connect> connectPeers(Collection<? extends Routable> peers) {
+        return network.connectPeers(peers);
+    }
+
+    @Override
+    public List<Disconnect> disconnectPeers(Collection<? extends RoutableId<?>> routableIds) {
+        return network.disconnectPeers(routableIds);
+    }
+
+    @Override
+    public long size() {
+        return network.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return network.isEmpty();
+    }
+
+    @Override
+    public void broadcast(Message<?> message) {
+        if (journaled(() -> journal.append(message))) {
+            network.broadcast(message);
+        }
+    }
+
+    @Override
+    public void broadcastAll(List<? extends Message<?>> messages) {
+        if (journaled(() -> journal.appendAll(messages))) {
+            network.broadcastAll(messages);
+        }
+    }
+
+    @Override
+    public CompletableFuture<DeliveryReport> broadcastAsync(Message<?> message) {
+        if (journaled(() -> journal.append(message))) {
+            return network.broadcastAsync(message);
+        }
+        return DeliveryTracker.noRecipients(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> shutdown() {
+        shutdown = true;
+        return network.shutdown().whenComplete((ignored, failure) -> journal.close());
+    }
+
+    // False when the network has been shut down: the message is neither journaled nor delivered
+    private boolean journaled(Runnable append) {
+        if (shutdown) {
+            return false;
+        }
+        try {
+            append.run();
+            return true;
+        } catch (IllegalStateException e) {
+            if (!shutdown) {
+                throw e;
+            }
+            LOG.trace("BroadcastNetwork {} - message not journaled, the network has been shut down", network.id());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default {@link BroadcastMetrics}: contention friendly counters and lock free latency histograms,
+ * aggregated across every network and peer it is installed on.
+ */
+public class LongAdderBroadcastMetrics implements BroadcastMetrics {
+    private final LongAdder messagesBroadcast = new LongAdder();
+    private final LongAdder dispatchedDeliveries = new LongAdder();
+    private final LongAdder deliveredMessages = new LongAdder();
+    private final LongAdder consumerFailures = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram shutdownDuration = new LatencyHistogram();
+
+    @Override
+    public void messageBroadcast(NetworkId<?> networkId, int recipients) {
+        messagesBroadcast.increment();
+        dispatchedDeliveries.add(recipients);
+    }
+
+    @Override
+    public void messagesDelivered(NetworkId<?> networkId, RoutableId<?> peerId, int messageCount, long latencyNanos) {
+        deliveredMessages.add(messageCount);
+        deliveryLatency.record(latencyNanos);
+    }
+
+    @Override
+    public void consumerFailed(NetworkId<?> networkId, RoutableId<?> peerId, Throwable cause) {
+        consumerFailures.increment();
+    }
+
+    @Override
+    public void peerConnected(NetworkId<?> networkId, RoutableId<?> peerId) {
+        connects.increment();
+    }
+
+    @Override
+    public void peerDisconnected(NetworkId<?> networkId, RoutableId<?> peerId) {
+        disconnects.increment();
+    }
+
+    @Override
+    public void networkShutdown(NetworkId<?> networkId, long durationNanos) {
+        shutdownDuration.record(durationNanos);
+    }
+
+    public long messagesBroadcast() {
+        return messagesBroadcast.sum();
+    }
+
+    public long dispatchedDeliveries() {
+        return dispatchedDeliveries.sum();
+    }
+
+    public long deliveredMessages() {
+        return deliveredMessages.sum();
+    }
+
+    public long consumerFailures() {
+        return consumerFailures.sum();
+    }
+
+    public long connects() {
+        return connects.sum();
+    }
+
+    public long disconnects() {
+        return disconnects.sum();
+    }
+
+    public LatencyHistogram deliveryLatency() {
+        return deliveryLatency;
+    }
+
+    public LatencyHistogram shutdownDuration() {
+        return shutdownDuration;
+    }
+}
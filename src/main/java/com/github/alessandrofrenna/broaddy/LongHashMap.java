@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent map with primitive {@code long} keys, stored in open-addressing tables without boxing.
+ * <p>
+ * The keys are spread over segments, each a linear-probing table guarded by a {@link StampedLock}. Lookups are optimistic
+ * reads that take the read lock only when they overlap a write of the same segment. Removals shift the following entries
+ * back, so the tables have no tombstones. A {@code null} value marks an empty slot, so values cannot be {@code null}.
+ */
+final class LongHashMap<V> {
+    private static final int SEGMENT_COUNT = 16;
+    private static final int SEGMENT_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(SEGMENT_COUNT);
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    LongHashMap() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    V get(long key) {
+        final long hash = hash(key);
+        return cast(segmentFor(hash).get(key, hash));
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    V put(long key, V value) {
+        final long hash = hash(key);
+        return cast(segmentFor(hash).put(key, hash, requireValue(value), true));
+    }
+
+    V putIfAbsent(long key, V value) {
+        final long hash = hash(key);
+        return cast(segmentFor(hash).put(key, hash, requireValue(value), false));
+    }
+
+    V replace(long key, V value) {
+        final long hash = hash(key);
+        return cast(segmentFor(hash).replace(key, hash, requireValue(value)));
+    }
+
+    V remove(long key) {
+        final long hash = hash(key);
+        return cast(segmentFor(hash).remove(key, hash, null));
+    }
+
+    boolean remove(long key, V value) {
+        final long hash = hash(key);
+        return segmentFor(hash).remove(key, hash, requireValue(value)) != null;
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> SEGMENT_SHIFT)];
+    }
+
+    // Finalizer of MurmurHash3: sequential ids are spread over every segment and slot
+    private static long hash(long key) {
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static Object requireValue(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value is required, null provided");
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+
+    // Keys and values are replaced together when the table grows, so that a reader never pairs arrays of different sizes
+    private static final class Table {
+        private final long[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+        // Written under the write lock
+        private volatile int size;
+
+        Object get(long key, long hash) {
+            long stamp = lock.tryOptimisticRead();
+            Object value = find(table, key, hash);
+            if (lock.validate(stamp)) {
+                return value;
+            }
+            stamp = lock.readLock();
+            try {
+                return find(table, key, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        Object put(long key, long hash, Object value, boolean overwrite) {
+            final long stamp = lock.writeLock();
+            try {
+                final Table current = table;
+                int index = (int) hash & current.mask;
+                while (current.values[index] != null) {
+                    if (current.keys[index] == key) {
+                        final Object previous = current.values[index];
+                        if (overwrite) {
+                            current.values[index] = value;
+                        }
+                        return previous;
+                    }
+                    index = (index + 1) & current.mask;
+                }
+                current.keys[index] = key;
+                current.values[index] = value;
+                size++;
+                // Load factor of one half keeps the probe sequences short
+                if (size > (current.mask + 1) >> 1) {
+                    table = resize(current);
+                }
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        Object replace(long key, long hash, Object value) {
+            final long stamp = lock.writeLock();
+            try {
+                final Table current = table;
+                final int index = indexOf(current, key, hash);
+                if (index < 0) {
+                    return null;
+                }
+                final Object previous = current.values[index];
+                current.values[index] = value;
+                return previous;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // With a non-null expectedValue the entry is removed only when it maps to that value
+        Object remove(long key, long hash, Object expectedValue) {
+            final long stamp = lock.writeLock();
+            try {
+                final Table current = table;
+                int index = indexOf(current, key, hash);
+                if (index < 0) {
+                    return null;
+                }
+                final Object previous = current.values[index];
+                if (expectedValue != null && !expectedValue.equals(previous)) {
+                    return null;
+                }
+                // Shifts back the entries whose probe sequence crosses the freed slot
+                int next = (index + 1) & current.mask;
+                while (current.values[next] != null) {
+                    final int home = (int) hash(current.keys[next]) & current.mask;
+                    if (((next - home) & current.mask) >= ((next - index) & current.mask)) {
+                        current.keys[index] = current.keys[next];
+                        current.values[index] = current.values[next];
+                        index = next;
+                    }
+                    next = (next + 1) & current.mask;
+                }
+                current.values[index] = null;
+                size--;
+                return previous;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Bounded by the capacity: an optimistic read can see a table that is being modified
+        private static Object find(Table table, long key, long hash) {
+            final long[] keys = table.keys;
+            final Object[] values = table.values;
+            int index = (int) hash & table.mask;
+            for (int probes = 0; probes <= table.mask; probes++) {
+                final Object value = values[index];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[index] == key) {
+                    return value;
+                }
+                index = (index + 1) & table.mask;
+            }
+            return null;
+        }
+
+        private static int indexOf(Table table, long key, long hash) {
+            int index = (int) hash & table.mask;
+            while (table.values[index] != null) {
+                if (table.keys[index] == key) {
+                    return index;
+                }
+                index = (index + 1) & table.mask;
+            }
+            return -1;
+        }
+
+        private static Table resize(Table current) {
+            final Table resized = new Table((current.mask + 1) << 1);
+            for (int i = 0; i <= current.mask; i++) {
+                final Object value = current.values[i];
+                if (value == null) {
+                    continue;
+                }
+                final long key = current.keys[i];
+                int index = (int) hash(key) & resized.mask;
+                while (resized.values[index] != null) {
+                    index = (index + 1) & resized.mask;
+                }
+                resized.keys[index] = key;
+                resized.values[index] = value;
+            }
+            return resized;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of messages drained by a single task at a time on the configured executor.
+ * Messages are consumed in the order they were accepted, in runs of up to {@value #DRAIN_BATCH_SIZE} messages.
+ * <p>
+ * Every {@link Message.Priority} has its own lane of {@code capacity} messages, so a mailbox holds up to three times
+ * its capacity when every priority is in use. A drain takes the high priority messages first, keeping a share of the
+ * batch for the lower lanes {@value #HIGH_WEIGHT} to 1 while they have messages, then shares the rest between normal
+ * and bulk messages {@value #NORMAL_WEIGHT} to 1, so control traffic overtakes data without starving it.
+ * <p>
+ * A conflating mailbox keeps at most one pending message per {@link Message#conflationKey()}: a newer message
+ * replaces the pending one in place, keeping its position in the queue.
+ * <p>
+ * A pooled message is retained while it is pending and released once consumed, conflated or dropped.
+ */
+class Mailbox {
+    private static final Logger LOG = LoggerFactory.getLogger(Mailbox.class);
+    // Upper bound of messages consumed by one drain task before it yields the executor thread
+    private static final int DRAIN_BATCH_SIZE = 256;
+    private static final int HIGH_WEIGHT = 4;
+    private static final int NORMAL_WEIGHT = 4;
+    private static final Message.Priority[] PRIORITIES = Message.Priority.values();
+
+    private final NetworkId<?> networkId;
+    private final MailboxConfig config;
+    private final boolean timed;
+    private final Consumer<List<Envelope>> batchConsumer;
+    // Indexed by priority ordinal, the high and bulk lanes are created by the first message that needs them
+    private final AtomicReferenceArray<BlockingQueue<Envelope>> lanes = new AtomicReferenceArray<>(PRIORITIES.length);
+    // Pending envelope of every conflation key, guarded by its own monitor
+    private final Map<Object, Envelope> pendingByKey;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Runnable drainTask = this::drain;
+
+    private volatile boolean closed;
+
+    /**
+     * @param timed whether the envelopes are stamped with the time they were enqueued
+     */
+    Mailbox(NetworkId<?> networkId, MailboxConfig config, boolean timed, Consumer<List<Envelope>> batchConsumer) {
+        this.networkId = networkId;
+        this.config = config;
+        this.timed = timed;
+        this.batchConsumer = batchConsumer;
+        lanes.set(Message.Priority.NORMAL.ordinal(), new ArrayBlockingQueue<>(config.capacity()));
+        this.pendingByKey = config.conflating() ? new HashMap<>() : null;
+    }
+
+    void offer(Message<?> message) {
+        offer(message, null);
+    }
+
+    /**
+     * @param completion notified when the message is consumed or dropped, may be {@code null}
+     */
+    void offer(Message<?> message, Consumer<Throwable> completion) {
+        if (closed) {
+            notifyDropped(completion, "closed");
+            return;
+        }
+        if (!enqueue(message, completion)) {
+            return;
+        }
+        if (closed) {
+            // Closed while the message was enqueued, nobody is left to drain it
+            discardPending();
+            return;
+        }
+        scheduleDrain();
+    }
+
+    void offerAll(List<? extends Message<?>> messages) {
+        if (closed) {
+            return;
+        }
+        boolean accepted = false;
+        for (Message<?> message : messages) {
+            accepted |= enqueue(message, null);
+        }
+        if (!accepted) {
+            return;
+        }
+        if (closed) {
+            // Closed while the batch was enqueued, nobody is left to drain it
+            discardPending();
+            return;
+        }
+        scheduleDrain();
+    }
+
+    int size() {
+        int size = 0;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            final BlockingQueue<Envelope> lane = lanes.get(i);
+            size += lane == null ? 0 : lane.size();
+        }
+        return size;
+    }
+
+    private BlockingQueue<Envelope> laneFor(Message.Priority priority) {
+        final int index = priority == null ? Message.Priority.NORMAL.ordinal() : priority.ordinal();
+        final BlockingQueue<Envelope> lane = lanes.get(index);
+        if (lane != null) {
+            return lane;
+        }
+        lanes.compareAndSet(index, null, new ArrayBlockingQueue<>(config.capacity()));
+        return lanes.get(index);
+    }
+
+    void close() {
+        closed = true;
+        discardPending();
+    }
+
+    // Returns true when a drain is needed
+    private boolean enqueue(Message<?> message, Consumer<Throwable> completion) {
+        final Object conflationKey = pendingByKey == null ? null : message.conflationKey();
+        final long enqueuedNanos = timed ? System.nanoTime() : 0L;
+        final Envelope envelope = new Envelope(message, completion, conflationKey, enqueuedNanos);
+        References.retain(message);
+        if (conflationKey != null) {
+            final Envelope pending;
+            final Message<?> supersededMessage;
+            final Consumer<Throwable> superseded;
+            synchronized (pendingByKey) {
+                pending = pendingByKey.putIfAbsent(conflationKey, envelope);
+                supersededMessage = pending == null ? null : pending.message;
+                superseded = pending == null ? null : pending.completion;
+                if (pending != null) {
+                    pending.message = message;
+                    pending.completion = completion;
+                    pending.enqueuedNanos = enqueuedNanos;
+                }
+            }
+            if (pending != null) {
+                LOG.trace("Mailbox for BroadcastNetwork {} - Pending message for key {} replaced by {}", networkId, conflationKey, message.id());
+                References.release(supersededMessage);
+                notifyDropped(superseded, "conflated by a newer message");
+                return false;
+            }
+        }
+        final BlockingQueue<Envelope> lane = laneFor(message.priority());
+        if (lane.offer(envelope) || handleOverflow(lane, envelope)) {
+            return true;
+        }
+        discard(envelope, "full");
+        return false;
+    }
+
+    private boolean handleOverflow(BlockingQueue<Envelope> lane, Envelope envelope) {
+        final Message<?> message = envelope.message;
+        switch (config.overflowPolicy()) {
+            case BLOCK -> {
+                try {
+                    lane.put(envelope);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.error("Mailbox for BroadcastNetwork {} - Interrupted while waiting for room, message {} dropped", networkId, message.id());
+                    return false;
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!lane.offer(envelope)) {
+                    final Envelope oldest = lane.poll();
+                    if (oldest != null) {
+                        discard(oldest, "full");
+                    }
+                }
+                return true;
+            }
+            case DROP_NEWEST -> {
+                LOG.trace("Mailbox for BroadcastNetwork {} - Full, message {} dropped", networkId, message.id());
+                return false;
+            }
+            case FAIL -> {
+                try {
+                    config.overflowHandler().accept(message);
+                } catch (Exception e) {
+                    LOG.error("Error in the overflow handler: {}", e.getMessage(), e);
+                }
+                return false;
+            }
+            default -> throw new IllegalStateException("Unexpected overflow policy: " + config.overflowPolicy());
+        }
+    }
+
+    private void scheduleDrain() {
+        if (!drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            config.drainExecutor().execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            drainScheduled.set(false);
+            LOG.error("Mailbox for BroadcastNetwork {} - Drain task rejected: {}", networkId, e.getMessage(), e);
+        }
+    }
+
+    private void drain() {
+        try {
+            if (!closed) {
+                final List<Envelope> batch = new ArrayList<>(Math.min(DRAIN_BATCH_SIZE, size()));
+                drainLanes(batch);
+                batch.forEach(this::release);
+                if (!batch.isEmpty()) {
+                    try {
+                        batchConsumer.accept(batch);
+                    } finally {
+                        batch.forEach(envelope -> References.release(envelope.message));
+                    }
+                }
+            }
+        } finally {
+            // Cleared even when the consumer throws, a flag left set would never schedule a drain again
+            drainScheduled.set(false);
+            // A producer may have enqueued after the last poll but before the flag was cleared
+            if (!closed && size() > 0) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private void drainLanes(List<Envelope> batch) {
+        final BlockingQueue<Envelope> high = lanes.get(Message.Priority.HIGH.ordinal());
+        final BlockingQueue<Envelope> normal = lanes.get(Message.Priority.NORMAL.ordinal());
+        final BlockingQueue<Envelope> bulk = lanes.get(Message.Priority.BULK.ordinal());
+        if (high != null) {
+            // The lower lanes keep a share of the batch, the share is given back to high messages when they are empty
+            final boolean lowerPending = !normal.isEmpty() || (bulk != null && !bulk.isEmpty());
+            final int lowerShare = lowerPending ? DRAIN_BATCH_SIZE / (HIGH_WEIGHT + 1) : 0;
+            high.drainTo(batch, DRAIN_BATCH_SIZE - lowerShare);
+        }
+        final int remaining = DRAIN_BATCH_SIZE - batch.size();
+        if (remaining == 0) {
+            return;
+        }
+        // Bulk keeps a share of the batch, the share is given back to normal messages when there is no bulk
+        final int bulkShare = bulk == null || bulk.isEmpty() ? 0 : Math.max(1, remaining / (NORMAL_WEIGHT + 1));
+        normal.drainTo(batch, remaining - bulkShare);
+        if (bulk != null) {
+            bulk.drainTo(batch, DRAIN_BATCH_SIZE - batch.size());
+        }
+    }
+
+    private void discardPending() {
+        final List<Envelope> discarded = new ArrayList<>();
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            final BlockingQueue<Envelope> lane = lanes.get(i);
+            if (lane != null) {
+                lane.drainTo(discarded);
+            }
+        }
+        discarded.forEach(envelope -> discard(envelope, "closed"));
+    }
+
+    private void discard(Envelope envelope, String reason) {
+        release(envelope);
+        // Read once out of the key index, a newer message cannot replace it anymore
+        References.release(envelope.message);
+        notifyDropped(envelope.completion, reason);
+    }
+
+    // Once out of the key index the envelope cannot be replaced anymore
+    private void release(Envelope envelope) {
+        if (envelope.conflationKey != null) {
+            synchronized (pendingByKey) {
+                pendingByKey.remove(envelope.conflationKey, envelope);
+            }
+        }
+    }
+
+    private static void notifyDropped(Consumer<Throwable> completion, String reason) {
+        if (completion != null) {
+            completion.accept(new IllegalStateException("Message dropped, mailbox " + reason));
+        }
+    }
+
+    /**
+     * Accepted message with the callback notified of its outcome, {@code null} when nobody waits for it.
+     * The message, the callback and the enqueue time of a conflated envelope are replaced while it is pending.
+     */
+    static final class Envelope {
+        private final Object conflationKey;
+        private Message<?> message;
+        private Consumer<Throwable> completion;
+        private long enqueuedNanos;
+
+        private Envelope(Message<?> message, Consumer<Throwable> completion, Object conflationKey, long enqueuedNanos) {
+            this.message = message;
+            this.completion = completion;
+            this.conflationKey = conflationKey;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        Message<?> message() {
+            return message;
+        }
+
+        Consumer<Throwable> completion() {
+            return completion;
+        }
+
+        // System.nanoTime() when the message was enqueued, 0 when the mailbox is not timed
+        long enqueuedNanos() {
+            return enqueuedNanos;
+        }
+    }
+}
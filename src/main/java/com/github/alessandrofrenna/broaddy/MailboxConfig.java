@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * @param capacity   maximum number of pending messages of each {@link Message.Priority}: a mailbox receiving every
+ *                   priority holds up to three times this number
+ * @param conflating whether a pending message is replaced by a newer message with the same {@link Message#conflationKey()}
+ */
+public record MailboxConfig(int capacity, OverflowPolicy overflowPolicy, Consumer<Message<?>> overflowHandler, Executor drainExecutor, boolean conflating) {
+    public MailboxConfig {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero, " + capacity + " provided");
+        }
+        if (Objects.isNull(overflowPolicy)) {
+            throw new IllegalArgumentException("overflowPolicy is required, null provided");
+        }
+        if (Objects.isNull(overflowHandler)) {
+            throw new IllegalArgumentException("overflowHandler is required, null provided");
+        }
+        if (Objects.isNull(drainExecutor)) {
+            throw new IllegalArgumentException("drainExecutor is required, null provided");
+        }
+    }
+
+    public MailboxConfig(int capacity, OverflowPolicy overflowPolicy, Consumer<Message<?>> overflowHandler, Executor drainExecutor) {
+        this(capacity, overflowPolicy, overflowHandler, drainExecutor, false);
+    }
+
+    public MailboxConfig(int capacity, OverflowPolicy overflowPolicy) {
+        this(capacity, overflowPolicy, message -> { }, BroadcastExecutors.defaultExecutor());
+    }
+
+    public MailboxConfig(int capacity, OverflowPolicy overflowPolicy, Consumer<Message<?>> overflowHandler) {
+        this(capacity, overflowPolicy, overflowHandler, BroadcastExecutors.defaultExecutor());
+    }
+
+    /**
+     * Same configuration with conflation enabled: the capacity then bounds the number of pending keys.
+     */
+    public MailboxConfig withConflation() {
+        return new MailboxConfig(capacity, overflowPolicy, overflowHandler, drainExecutor, true);
+    }
+}
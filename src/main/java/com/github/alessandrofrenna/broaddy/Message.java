@@ -22,4 +22,23 @@ import java.util.UUID;
 public interface Message<T> {
     UUID id();
     T payload();
+
+    /**
+     * Key of the state this message carries, e.g. the instrument of a price.
+     * A conflating mailbox keeps only the latest pending message of each key, {@code null} disables conflation.
+     */
+    default Object conflationKey() {
+        return null;
+    }
+
+    /**
+     * Lane of the message in the peer mailboxes. Messages consumed inline are not reordered.
+     */
+    default Priority priority() {
+        return Priority.NORMAL;
+    }
+
+    enum Priority {
+        HIGH, NORMAL, BULK
+    }
 }
@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary form of the messages written to a {@link Journal}.
+ */
+public interface MessageCodec {
+    /**
+     * Writes the message from the current position of {@code target}.
+     * A {@link java.nio.BufferOverflowException} tells the journal that the message does not fit in the current segment.
+     */
+    void encode(Message<?> message, ByteBuffer target);
+
+    /**
+     * Reads a message from {@code source}, whose remaining bytes are exactly the ones written by {@link #encode}.
+     */
+    Message<?> decode(ByteBuffer source);
+}
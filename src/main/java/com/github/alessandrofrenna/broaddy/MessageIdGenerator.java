@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Message ids made of the creation time of the generator and a sequence, far cheaper than {@link UUID#randomUUID()}.
+ * <p>
+ * The ids are version 8 (custom) UUIDs of the IETF variant. The most significant bits hold the milliseconds at
+ * creation and 12 random bits, the least significant ones a 62 bit counter that starts from a random value below
+ * 2<sup>61</sup>. Only the seeds come from {@link SecureRandom}, so the ids of a generator are unique, and two
+ * generators collide only when they share the millisecond, the 12 bits and an overlapping counter range.
+ * <p>
+ * Within one generator {@link UUID#compareTo(UUID)} orders the ids by creation until the counter wraps, which takes
+ * at least 2<sup>61</sup> ids. Ids of different generators are ordered by the creation of the generators, not of the
+ * ids.
+ */
+public final class MessageIdGenerator implements Supplier<UUID> {
+    private static final MessageIdGenerator SHARED = new MessageIdGenerator();
+    private static final long VERSION_MASK = 0xF000L;
+    private static final long VERSION_8 = 0x8000L;
+    private static final long COUNTER_MASK = 0x3FFF_FFFF_FFFF_FFFFL;
+    private static final long IETF_VARIANT = 0x8000_0000_0000_0000L;
+
+    private final long mostSignificantBits;
+    private final AtomicLong sequence;
+
+    public MessageIdGenerator() {
+        final SecureRandom random = new SecureRandom();
+        final long timeAndRandom = (System.currentTimeMillis() << 16) | (random.nextInt() & 0xFFFF);
+        this.mostSignificantBits = (timeAndRandom & ~VERSION_MASK) | VERSION_8;
+        this.sequence = new AtomicLong(random.nextLong() >>> 3);
+    }
+
+    /**
+     * Generator shared by the whole JVM.
+     */
+    public static MessageIdGenerator shared() {
+        return SHARED;
+    }
+
+    @Override
+    public UUID get() {
+        return new UUID(mostSignificantBits, IETF_VARIANT | (sequence.getAndIncrement() & COUNTER_MASK));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Pool of {@link PooledMessage} instances, so that publishing does not allocate a message per broadcast.
+ * <p>
+ * A released message goes back to the pool, up to {@code capacity} free instances; the pool allocates a new one when
+ * empty. A message that is never released is collected as garbage: it costs an allocation, it does not leak.
+ * The pool should hold more instances than the messages in flight, e.g. more than the slots of a
+ * {@link RingBufferBroadcastNetwork}, which keeps a reference to every message still in the ring.
+ */
+public final class MessagePool<T> {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final BlockingQueue<PooledMessage<T>> free;
+    private final Supplier<UUID> idGenerator;
+
+    public MessagePool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MessagePool(int capacity) {
+        this(capacity, MessageIdGenerator.shared());
+    }
+
+    /**
+     * @param idGenerator ids of the acquired messages, {@link MessageIdGenerator#shared()} by default
+     */
+    public MessagePool(int capacity, Supplier<UUID> idGenerator) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero, " + capacity + " provided");
+        }
+        if (Objects.isNull(idGenerator)) {
+            throw new IllegalArgumentException("idGenerator is required, null provided");
+        }
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.idGenerator = idGenerator;
+    }
+
+    public PooledMessage<T> acquire(T payload) {
+        return acquire(payload, null, Message.Priority.NORMAL);
+    }
+
+    /**
+     * Returns a message with a new id, holding one reference owned by the caller.
+     */
+    public PooledMessage<T> acquire(T payload, Object conflationKey, Message.Priority priority) {
+        if (Objects.isNull(payload)) {
+            throw new IllegalArgumentException("payload is required, null provided");
+        }
+        if (Objects.isNull(priority)) {
+            throw new IllegalArgumentException("priority is required, null provided");
+        }
+        PooledMessage<T> message = free.poll();
+        if (message == null) {
+            message = new PooledMessage<>(this);
+        }
+        message.reset(idGenerator.get(), payload, conflationKey, priority);
+        return message;
+    }
+
+    /**
+     * Number of free instances.
+     */
+    public int available() {
+        return free.size();
+    }
+
+    void recycle(PooledMessage<T> message) {
+        // A full pool drops the instance
+        free.offer(message);
+    }
+}
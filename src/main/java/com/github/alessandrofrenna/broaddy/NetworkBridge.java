@@ -0,0 +1,643 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mirrors a {@link BroadcastNetwork} to other processes over non-blocking sockets, TCP or Unix domain.
+ * <p>
+ * The bridge joins the network as a peer: every message broadcast locally is encoded once by the {@link MessageCodec}
+ * and sent to every connection as a frame prefixed by its length. Every frame received is decoded and broadcast on
+ * the local network, and forwarded to the other connections but never back to the one it came from, so the bridged
+ * processes must form a tree, e.g. a star around one process that binds while the others connect.
+ * <p>
+ * A single selector thread performs all the I/O. Each connection queues its frames and writes the queued ones with a
+ * single gathering write. When a connection has {@link BridgeConfig#maxPendingBytes()} queued, the
+ * {@link BridgeConfig#overflowPolicy()} applies; with {@link OverflowPolicy#BLOCK} the publisher waits, except for
+ * the messages received from a remote peer, which are dropped rather than stalling the selector thread.
+ */
+public final class NetworkBridge implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(NetworkBridge.class);
+    private static final int FRAME_HEADER_SIZE = Integer.BYTES;
+    // Upper bound of the frames handed to one gathering write
+    private static final int MAX_GATHERED_FRAMES = 64;
+    private static final int MIN_FRAME_CAPACITY = 256;
+
+    private final BroadcastNetwork network;
+    private final MessageCodec codec;
+    private final BridgeConfig config;
+    private final RoutableId<?> bridgeId = new RoutableId.UUID();
+    private final Selector selector;
+    private final Thread selectorThread;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final List<ServerSocketChannel> servers = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    // Connection of each message received and not sent to the other connections yet: the local peers receive the
+    // decoded message itself, so its origin is kept aside until the bridge receives it back from the network, or the
+    // network reports it delivered without the bridge
+    private final Map<UUID, Connection> origins = new ConcurrentHashMap<>();
+    // Selector thread only: false once the network failed a broadcastAsync as unsupported
+    private boolean tracksDeliveries = true;
+    // Largest frame encoded so far: a new frame is allocated large enough for it at the first attempt
+    private volatile int frameCapacityHint = MIN_FRAME_CAPACITY;
+
+    private NetworkBridge(BroadcastNetwork network, MessageCodec codec, BridgeConfig config) throws IOException {
+        this.network = network;
+        this.codec = codec;
+        this.config = config;
+        this.selector = Selector.open();
+        this.selectorThread = new BroadcastExecutors.DaemonThreadFactory("broaddy-bridge-").newThread(this::run);
+    }
+
+    /**
+     * Creates a bridge of {@code network}, which receives the local broadcasts from now on. The bridge has no
+     * connection until it {@link #bind binds} or {@link #connect connects}.
+     */
+    public static NetworkBridge open(BroadcastNetwork network, MessageCodec codec, BridgeConfig config) throws IOException {
+        if (Objects.isNull(network)) {
+            throw new IllegalArgumentException("network is required, null provided");
+        }
+        if (Objects.isNull(codec)) {
+            throw new IllegalArgumentException("codec is required, null provided");
+        }
+        if (Objects.isNull(config)) {
+            throw new IllegalArgumentException("config is required, null provided");
+        }
+        final NetworkBridge bridge = new NetworkBridge(network, codec, config);
+        bridge.selectorThread.start();
+        final BroadcastNetwork.Connect connect = network.connectPeer(bridge.new LocalEndpoint());
+        if (connect != BroadcastNetwork.Connect.OK) {
+            bridge.close();
+            throw new IllegalStateException("NetworkBridge cannot join BroadcastNetwork " + network.id() + ": " + connect.description());
+        }
+        LOG.debug("NetworkBridge {} opened on BroadcastNetwork {}", bridge.bridgeId, network.id());
+        return bridge;
+    }
+
+    public NetworkId<?> networkId() {
+        return network.id();
+    }
+
+    /**
+     * Accepts connections on {@code address}, an {@link java.net.InetSocketAddress} or a {@link UnixDomainSocketAddress}.
+     *
+     * @return the bound address, e.g. with the port chosen by the system
+     */
+    public SocketAddress bind(SocketAddress address) throws IOException {
+        if (Objects.isNull(address)) {
+            throw new IllegalArgumentException("address is required, null provided");
+        }
+        ensureOpen();
+        final ServerSocketChannel server = address instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        servers.add(server);
+        runOnSelector(() -> register(server, SelectionKey.OP_ACCEPT, null));
+        final SocketAddress bound = server.getLocalAddress();
+        LOG.debug("NetworkBridge {} listening on {}", bridgeId, bound);
+        return bound;
+    }
+
+    /**
+     * Connects to a bridge bound to {@code address}, an {@link java.net.InetSocketAddress} or a {@link UnixDomainSocketAddress}.
+     * Returns once connected.
+     */
+    public void connect(SocketAddress address) throws IOException {
+        if (Objects.isNull(address)) {
+            throw new IllegalArgumentException("address is required, null provided");
+        }
+        ensureOpen();
+        final SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        final Connection connection = addConnection(channel);
+        runOnSelector(connection::register);
+        LOG.debug("NetworkBridge {} connected to {}", bridgeId, address);
+    }
+
+    public int connectionCount() {
+        return connections.size();
+    }
+
+    // Messages received whose origin is still kept aside
+    int pendingOrigins() {
+        return origins.size();
+    }
+
+    /**
+     * Leaves the network and closes every connection. Frames still queued are discarded.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        network.disconnectPeer(bridgeId);
+        selector.wakeup();
+        if (Thread.currentThread() == selectorThread || !selectorThread.isAlive()) {
+            return;
+        }
+        try {
+            selectorThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.debug("NetworkBridge {} closed", bridgeId);
+    }
+
+    private void ensureOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("NetworkBridge " + bridgeId + " is closed");
+        }
+    }
+
+    private Connection addConnection(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        if (!(channel.getRemoteAddress() instanceof UnixDomainSocketAddress)) {
+            // Frames are already batched by the gathering writes
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        final Connection connection = new Connection(channel);
+        connections.add(connection);
+        return connection;
+    }
+
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private void register(SelectableChannel channel, int operations, Connection connection) {
+        try {
+            final SelectionKey key = channel.register(selector, operations, connection);
+            if (connection != null) {
+                connection.key = key;
+            }
+        } catch (ClosedChannelException e) {
+            LOG.debug("NetworkBridge {} - channel closed before its registration", bridgeId);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed.get()) {
+                selector.select();
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    runQuietly(task);
+                }
+                final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    final SelectionKey key = selected.next();
+                    selected.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("NetworkBridge {} - selector failed: {}", bridgeId, e.getMessage(), e);
+        } finally {
+            shutdownSelector();
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel());
+            return;
+        }
+        final Connection connection = (Connection) key.attachment();
+        if (key.isReadable()) {
+            connection.read();
+        }
+        if (key.isValid() && key.isWritable()) {
+            connection.flush();
+        }
+    }
+
+    private void accept(ServerSocketChannel server) {
+        try {
+            final SocketChannel channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            final Connection connection = addConnection(channel);
+            connection.register();
+            LOG.debug("NetworkBridge {} accepted a connection from {}", bridgeId, channel.getRemoteAddress());
+        } catch (IOException e) {
+            LOG.error("NetworkBridge {} - accept failed: {}", bridgeId, e.getMessage(), e);
+        }
+    }
+
+    private void runQuietly(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.error("NetworkBridge {} - selector task failed: {}", bridgeId, e.getMessage(), e);
+        }
+    }
+
+    private void shutdownSelector() {
+        closed.set(true);
+        for (Connection connection : connections) {
+            connection.close(null);
+        }
+        for (ServerSocketChannel server : servers) {
+            try {
+                final SocketAddress bound = server.getLocalAddress();
+                server.close();
+                // A Unix domain socket file outlives its channel
+                if (bound instanceof UnixDomainSocketAddress unixAddress) {
+                    Files.deleteIfExists(unixAddress.getPath());
+                }
+            } catch (IOException e) {
+                LOG.warn("NetworkBridge {} - failed to close a server channel: {}", bridgeId, e.getMessage());
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.warn("NetworkBridge {} - failed to close the selector: {}", bridgeId, e.getMessage());
+        }
+    }
+
+    private void send(Message<?> message) {
+        final Connection origin = origins.isEmpty() ? null : origins.remove(message.id());
+        ByteBuffer frame = null;
+        for (Connection connection : connections) {
+            if (connection == origin) {
+                continue;
+            }
+            if (frame == null) {
+                frame = encode(message);
+                if (frame == null) {
+                    return;
+                }
+            }
+            // Every connection writes its own view of the same frame
+            connection.enqueue(frame.duplicate(), message);
+        }
+    }
+
+    // Returns the length-prefixed frame of the message, null when it does not fit in maxFrameSize
+    private ByteBuffer encode(Message<?> message) {
+        int capacity = frameCapacityHint;
+        while (true) {
+            final ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + capacity);
+            frame.position(FRAME_HEADER_SIZE);
+            try {
+                codec.encode(message, frame);
+            } catch (BufferOverflowException e) {
+                if (capacity == config.maxFrameSize()) {
+                    LOG.error("NetworkBridge {} - message {} exceeds the maximum frame size of {} bytes, not sent", bridgeId, message.id(), config.maxFrameSize());
+                    return null;
+                }
+                capacity = (int) Math.min(config.maxFrameSize(), 2L * capacity);
+                continue;
+            }
+            final int length = frame.position() - FRAME_HEADER_SIZE;
+            if (length > frameCapacityHint) {
+                frameCapacityHint = Math.min(config.maxFrameSize(), length);
+            }
+            return frame.putInt(0, length).flip();
+        }
+    }
+
+    /**
+     * The bridge as a peer of the local network.
+     */
+    private final class LocalEndpoint implements Routable {
+        @Override
+        public RoutableId<?> id() {
+            return bridgeId;
+        }
+
+        @Override
+        public void deliverMessage(NetworkId<?> networkId, Message<?> message) {
+            if (!closed.get()) {
+                send(message);
+            }
+        }
+
+        @Override
+        public void forceDisconnection(NetworkId<?> networkId) {
+            LOG.debug("NetworkBridge {} closed by the shutdown of BroadcastNetwork {}", bridgeId, networkId);
+            close();
+        }
+    }
+
+    /**
+     * One socket. The queue of frames is shared with the publishers, the rest is confined to the selector thread.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer readBuffer;
+        private final ReentrantLock queueLock = new ReentrantLock();
+        private final Condition drained = queueLock.newCondition();
+        // Guarded by queueLock: frames not written yet, bytes queued or being written, whether a flush will run
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        private long pendingBytes;
+        private boolean flushScheduled;
+        private boolean queueClosed;
+        // Frames taken from the queue by the selector thread, the first one may be partially written
+        private final ByteBuffer[] inFlight = new ByteBuffer[MAX_GATHERED_FRAMES];
+        private int inFlightStart;
+        private int inFlightEnd;
+        private SelectionKey key;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.readBuffer = ByteBuffer.allocate(FRAME_HEADER_SIZE + config.maxFrameSize());
+        }
+
+        void register() {
+            NetworkBridge.this.register(channel, SelectionKey.OP_READ, this);
+            // Frames queued before the registration
+            flush();
+        }
+
+        void enqueue(ByteBuffer frame, Message<?> message) {
+            final boolean accepted;
+            boolean scheduleFlush = false;
+            queueLock.lock();
+            try {
+                accepted = !queueClosed && makeRoom(frame.remaining(), message);
+                if (accepted) {
+                    pending.addLast(frame);
+                    pendingBytes += frame.remaining();
+                    scheduleFlush = !flushScheduled;
+                    flushScheduled = true;
+                }
+            } finally {
+                queueLock.unlock();
+            }
+            if (scheduleFlush) {
+                runOnSelector(this::flush);
+            } else if (!accepted) {
+                overflowed(message);
+            }
+        }
+
+        // Must be invoked while holding queueLock, returns false when the new frame must be discarded
+        private boolean makeRoom(int frameSize, Message<?> message) {
+            // An empty queue always accepts a frame, whatever its size
+            if (pendingBytes == 0 || pendingBytes + frameSize <= config.maxPendingBytes()) {
+                return true;
+            }
+            switch (config.overflowPolicy()) {
+                case BLOCK -> {
+                    if (Thread.currentThread() == selectorThread) {
+                        return false;
+                    }
+                    try {
+                        while (!queueClosed && pendingBytes > 0 && pendingBytes + frameSize > config.maxPendingBytes()) {
+                            drained.await();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        LOG.error("NetworkBridge {} - interrupted while waiting for room, message {} dropped", bridgeId, message.id());
+                        return false;
+                    }
+                    return !queueClosed;
+                }
+                case DROP_OLDEST -> {
+                    // Only the frames not taken by a write can be discarded
+                    ByteBuffer oldest;
+                    while (pendingBytes + frameSize > config.maxPendingBytes() && (oldest = pending.pollFirst()) != null) {
+                        pendingBytes -= oldest.remaining();
+                    }
+                    return true;
+                }
+                case DROP_NEWEST, FAIL -> {
+                    return false;
+                }
+                default -> throw new IllegalStateException("Unexpected overflow policy: " + config.overflowPolicy());
+            }
+        }
+
+        private void overflowed(Message<?> message) {
+            LOG.trace("NetworkBridge {} - connection full, message {} dropped", bridgeId, message.id());
+            if (config.overflowPolicy() != OverflowPolicy.FAIL) {
+                return;
+            }
+            try {
+                config.overflowHandler().accept(message);
+            } catch (Exception e) {
+                LOG.error("Error in the overflow handler: {}", e.getMessage(), e);
+            }
+        }
+
+        // Selector thread only
+        void flush() {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            try {
+                while (true) {
+                    if (inFlightStart == inFlightEnd && !takePending()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                    final long written = channel.write(inFlight, inFlightStart, inFlightEnd - inFlightStart);
+                    while (inFlightStart < inFlightEnd && !inFlight[inFlightStart].hasRemaining()) {
+                        inFlight[inFlightStart++] = null;
+                    }
+                    written(written);
+                    if (inFlightStart < inFlightEnd) {
+                        // The socket buffer is full, the selector resumes the flush once it has room
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        // Moves the queued frames to the in-flight ones, false when there are none and no flush is scheduled anymore
+        private boolean takePending() {
+            queueLock.lock();
+            try {
+                inFlightStart = 0;
+                inFlightEnd = 0;
+                ByteBuffer frame;
+                while (inFlightEnd < inFlight.length && (frame = pending.pollFirst()) != null) {
+                    inFlight[inFlightEnd++] = frame;
+                }
+                if (inFlightEnd == 0) {
+                    flushScheduled = false;
+                    return false;
+                }
+                return true;
+            } finally {
+                queueLock.unlock();
+            }
+        }
+
+        private void written(long bytes) {
+            queueLock.lock();
+            try {
+                pendingBytes -= bytes;
+                drained.signalAll();
+            } finally {
+                queueLock.unlock();
+            }
+        }
+
+        // Selector thread only
+        void read() {
+            final int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                close(e);
+                return;
+            }
+            if (read < 0) {
+                close(null);
+                return;
+            }
+            readBuffer.flip();
+            // Every complete frame received is delivered, a partial one waits for the next read
+            while (readBuffer.remaining() >= FRAME_HEADER_SIZE) {
+                final int length = readBuffer.getInt(readBuffer.position());
+                if (length < 0 || length > config.maxFrameSize()) {
+                    LOG.error("NetworkBridge {} - frame of {} bytes received, the maximum is {}: closing the connection", bridgeId, length, config.maxFrameSize());
+                    close(null);
+                    return;
+                }
+                if (readBuffer.remaining() < FRAME_HEADER_SIZE + length) {
+                    break;
+                }
+                final ByteBuffer frame = readBuffer.slice(readBuffer.position() + FRAME_HEADER_SIZE, length);
+                readBuffer.position(readBuffer.position() + FRAME_HEADER_SIZE + length);
+                receive(frame);
+            }
+            readBuffer.compact();
+        }
+
+        private void receive(ByteBuffer frame) {
+            final Message<?> message;
+            try {
+                message = codec.decode(frame);
+            } catch (RuntimeException e) {
+                LOG.error("NetworkBridge {} - undecodable frame discarded: {}", bridgeId, e.getMessage(), e);
+                return;
+            }
+            origins.put(message.id(), this);
+            try {
+                broadcast(message);
+            } catch (RuntimeException e) {
+                origins.remove(message.id(), this);
+                LOG.error("NetworkBridge {} - broadcast of message {} failed: {}", bridgeId, message.id(), e.getMessage(), e);
+            }
+        }
+
+        // The report completes once every recipient, the bridge included, handled the message, or at once when the
+        // network dropped it: the origin of a message that never reached the bridge is removed there.
+        // Networks that do not track the deliveries keep it until the bridge receives the message or the connection closes
+        private void broadcast(Message<?> message) {
+            if (tracksDeliveries) {
+                final CompletableFuture<DeliveryReport> report = network.broadcastAsync(message);
+                if (!report.handle((ignored, failure) -> failure instanceof UnsupportedOperationException).getNow(false)) {
+                    report.whenComplete((ignored, failure) -> origins.remove(message.id(), this));
+                    return;
+                }
+                tracksDeliveries = false;
+            }
+            network.broadcast(message);
+        }
+
+        // Selector thread only
+        void close(IOException cause) {
+            if (!connections.remove(this)) {
+                return;
+            }
+            origins.values().removeIf(origin -> origin == this);
+            if (cause != null) {
+                LOG.warn("NetworkBridge {} - connection failed: {}", bridgeId, cause.getMessage());
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("NetworkBridge {} - failed to close a connection: {}", bridgeId, e.getMessage());
+            }
+            queueLock.lock();
+            try {
+                queueClosed = true;
+                pending.clear();
+                pendingBytes = 0;
+                drained.signalAll();
+            } finally {
+                queueLock.unlock();
+            }
+            LOG.debug("NetworkBridge {} - connection closed", bridgeId);
+        }
+    }
+}
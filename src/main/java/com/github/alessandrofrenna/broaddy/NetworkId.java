@@ -47,4 +47,15 @@ public interface NetworkId<T> {
             return id;
         }
     }
+
+    /**
+     * Numeric id, stored without boxing by the registries and the peers.
+     * Like {@link Str}, it is not named after the JDK type so that it does not hide {@code Long} in the implementations.
+     */
+    record Num(long id) implements NetworkId<Long> {
+        @Override
+        public Long get() {
+            return id;
+        }
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent map keyed by network id. {@link NetworkId.Num} ids are stored by their primitive value in a
+ * {@link LongHashMap}, the other ids in a {@link ConcurrentHashMap}.
+ */
+final class NetworkIdMap<V> {
+    private final LongHashMap<V> longIds = new LongHashMap<>();
+    private final Map<NetworkId<?>, V> otherIds = new ConcurrentHashMap<>();
+
+    V get(NetworkId<?> networkId) {
+        if (networkId instanceof NetworkId.Num longId) {
+            return longIds.get(longId.id());
+        }
+        return otherIds.get(networkId);
+    }
+
+    boolean containsKey(NetworkId<?> networkId) {
+        return get(networkId) != null;
+    }
+
+    V put(NetworkId<?> networkId, V value) {
+        if (networkId instanceof NetworkId.Num longId) {
+            return longIds.put(longId.id(), value);
+        }
+        return otherIds.put(networkId, value);
+    }
+
+    V putIfAbsent(NetworkId<?> networkId, V value) {
+        if (networkId instanceof NetworkId.Num longId) {
+            return longIds.putIfAbsent(longId.id(), value);
+        }
+        return otherIds.putIfAbsent(networkId, value);
+    }
+
+    V replace(NetworkId<?> networkId, V value) {
+        if (networkId instanceof NetworkId.Num longId) {
+            return longIds.replace(longId.id(), value);
+        }
+        return otherIds.replace(networkId, value);
+    }
+
+    V remove(NetworkId<?> networkId) {
+        if (networkId instanceof NetworkId.Num longId) {
+            return longIds.remove(longId.id());
+        }
+        return otherIds.remove(networkId);
+    }
+
+    boolean remove(NetworkId<?> networkId, V value) {
+        if (networkId instanceof NetworkId.Num longId) {
+            return longIds.remove(longId.id(), value);
+        }
+        return otherIds.remove(networkId, value);
+    }
+
+    int size() {
+        return longIds.size() + otherIds.size();
+    }
+
+    boolean isEmpty() {
+        return longIds.isEmpty() && otherIds.isEmpty();
+    }
+}
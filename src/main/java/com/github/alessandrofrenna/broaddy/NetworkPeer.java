@@ -17,10 +17,53 @@
 
 package com.github.alessandrofrenna.broaddy;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 public interface NetworkPeer extends Routable {
     boolean join(BroadcastNetwork network, Consumer<Message<?>> messageConsumer);
+
+    /**
+     * Joins a network as configured by {@code options}, e.g. receiving only a payload type through a dedicated mailbox.
+     * The default implementation filters the payload type and joins with {@link #join(BroadcastNetwork, Consumer)}:
+     * the mailbox and the batch consumer are ignored and the messages are not replayed.
+     */
+    default <T> boolean join(BroadcastNetwork network, Consumer<? super Message<T>> messageConsumer, JoinOptions<T> options) {
+        if (Objects.isNull(messageConsumer)) {
+            throw new IllegalArgumentException("messageConsumer is required, null provided");
+        }
+        if (Objects.isNull(options)) {
+            throw new IllegalArgumentException("options is required, null provided");
+        }
+        @SuppressWarnings("unchecked")
+        Consumer<Message<?>> typedMessageConsumer = message -> {
+            if (options.payloadType().isInstance(message.payload())) {
+                messageConsumer.accept((Message<T>) message);
+            }
+        };
+        return join(network, typedMessageConsumer);
+    }
+
+    /**
+     * Joins every network with the same consumer and returns the result of each join, in iteration order.
+     */
+    default List<Boolean> joinAll(Collection<? extends BroadcastNetwork> networks, Consumer<Message<?>> messageConsumer) {
+        if (Objects.isNull(networks)) {
+            throw new IllegalArgumentException("networks is required, null provided");
+        }
+        if (Objects.isNull(messageConsumer)) {
+            throw new IllegalArgumentException("messageConsumer is required, null provided");
+        }
+        final List<Boolean> results = new ArrayList<>(networks.size());
+        for (BroadcastNetwork network : networks) {
+            results.add(join(network, messageConsumer));
+        }
+        return results;
+    }
+
     boolean leave(NetworkId<?> networkId);
     long countJoinedNetworks();
 }
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Off-heap memory for {@link BufferMessage} payloads, carved into fixed-size blocks of a single direct buffer.
+ * <p>
+ * A block is taken when a payload is copied in and given back as soon as the message is released by the publisher and
+ * by every delivery, so the memory is reused deterministically instead of waiting for the garbage collector.
+ * A payload larger than a block, or copied while every block is in use, gets its own direct buffer, freed by the
+ * garbage collector.
+ */
+public final class OffHeapBufferPool {
+    private final int blockSize;
+    private final BlockingQueue<ByteBuffer> freeBlocks;
+
+    public OffHeapBufferPool(int blockSize, int blockCount) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be greater than zero, " + blockSize + " provided");
+        }
+        if (blockCount <= 0) {
+            throw new IllegalArgumentException("blockCount must be greater than zero, " + blockCount + " provided");
+        }
+        if ((long) blockSize * blockCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("blockSize * blockCount must not exceed " + Integer.MAX_VALUE + " bytes");
+        }
+        this.blockSize = blockSize;
+        this.freeBlocks = new ArrayBlockingQueue<>(blockCount);
+        final ByteBuffer memory = ByteBuffer.allocateDirect(blockSize * blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            freeBlocks.add(memory.slice(i * blockSize, blockSize));
+        }
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Number of blocks not held by a message.
+     */
+    public int availableBlocks() {
+        return freeBlocks.size();
+    }
+
+    /**
+     * Copies the remaining bytes of {@code source} off-heap, without moving its position. This is the only copy: the
+     * peers of the message read the pooled bytes.
+     */
+    public BufferMessage copyOf(ByteBuffer source) {
+        if (Objects.isNull(source)) {
+            throw new IllegalArgumentException("source is required, null provided");
+        }
+        final int size = source.remaining();
+        final ByteBuffer block = size <= blockSize ? freeBlocks.poll() : null;
+        if (block == null) {
+            final ByteBuffer dedicated = ByteBuffer.allocateDirect(size);
+            dedicated.put(source.duplicate()).flip();
+            return BufferMessage.wrap(MessageIdGenerator.shared().get(), dedicated, null);
+        }
+        block.clear();
+        block.put(source.duplicate()).flip();
+        return BufferMessage.wrap(MessageIdGenerator.shared().get(), block, () -> freeBlocks.offer(block));
+    }
+
+    public BufferMessage copyOf(byte[] source) {
+        if (Objects.isNull(source)) {
+            throw new IllegalArgumentException("source is required, null provided");
+        }
+        return copyOf(ByteBuffer.wrap(source));
+    }
+}
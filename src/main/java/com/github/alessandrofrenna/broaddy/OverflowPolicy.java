@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+public enum OverflowPolicy {
+    BLOCK("The producer waits until the mailbox has room for the message"),
+    DROP_OLDEST("The oldest pending message is discarded to make room for the new one"),
+    DROP_NEWEST("The new message is discarded"),
+    FAIL("The new message is discarded and handed to the overflow handler");
+
+    final String description;
+
+    OverflowPolicy(String description) {
+        this.description = description;
+    }
+
+    public String description() {
+        return description;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Delivery of a broadcast in parallel chunks, for networks with a very large number of peers.
+ * When the peers subscribed to a message are at least {@code threshold}, they are split into chunks delivered on
+ * {@code pool} and the broadcast returns when every chunk is delivered. Smaller networks, or any network when the pool has a
+ * single worker, are visited sequentially.
+ */
+public record ParallelFanOut(int threshold, ForkJoinPool pool) {
+    public static final int DEFAULT_THRESHOLD = 8192;
+
+    public ParallelFanOut {
+        if (threshold < PeerStore.SEGMENT_SIZE) {
+            throw new IllegalArgumentException("threshold must be at least " + PeerStore.SEGMENT_SIZE + ", " + threshold + " provided");
+        }
+        if (Objects.isNull(pool)) {
+            throw new IllegalArgumentException("pool is required, null provided");
+        }
+    }
+
+    public ParallelFanOut(int threshold) {
+        this(threshold, ForkJoinPool.commonPool());
+    }
+
+    public ParallelFanOut() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    // A pool with a single worker would only add the cost of the tasks
+    boolean appliesTo(int peers) {
+        return peers >= threshold && pool.getParallelism() > 1;
+    }
+
+    // Chunks are whole segments of the snapshot, about four per worker so that a slow chunk can be balanced by stealing
+    int chunkSize(int peers) {
+        final int chunks = pool.getParallelism() * 4;
+        final int chunkSize = (peers + chunks - 1) / chunks;
+        return Math.max(PeerStore.SEGMENT_SIZE, (chunkSize + PeerStore.SEGMENT_SIZE - 1) & -PeerStore.SEGMENT_SIZE);
+    }
+}
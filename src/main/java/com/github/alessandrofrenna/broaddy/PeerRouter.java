@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Peers of a network indexed by the payload type they subscribed to.
+ * <p>
+ * Each subscribed type owns a {@link PeerStore}. The stores that accept a concrete payload class are resolved
+ * once per class and cached, so routing a message costs one map lookup. Peers that did not ask for a specific
+ * type are stored under {@code Object.class} and receive every message.
+ * <p>
+ * A peer subscribes to a single type: a peer held by several stores would receive twice the messages that match more
+ * than one of its types. A peer interested in unrelated types subscribes to a common supertype, {@code Object.class}
+ * at worst, and filters the messages itself.
+ * <p>
+ * Mutations must be serialized by the caller, reads never lock.
+ */
+final class PeerRouter {
+    private final Map<RoutableId<?>, Class<?>> subscriptions = new ConcurrentHashMap<>();
+    private volatile Routes routes = Routes.EMPTY;
+    private volatile int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(RoutableId<?> routableId) {
+        return subscriptions.containsKey(routableId);
+    }
+
+    Routable get(RoutableId<?> routableId) {
+        final Class<?> payloadType = subscriptions.get(routableId);
+        final PeerStore store = payloadType == null ? null : routes.stores().get(payloadType);
+        return store == null ? null : store.get(routableId);
+    }
+
+    boolean add(Routable peer, Class<?> payloadType) {
+        return addAll(List.of(peer), payloadType)[0];
+    }
+
+    boolean remove(RoutableId<?> routableId) {
+        return removeAll(List.of(routableId))[0];
+    }
+
+    boolean[] addAll(Collection<? extends Routable> peers, Class<?> payloadType) {
+        final boolean[] added = new boolean[peers.size()];
+        final List<Routable> accepted = new ArrayList<>(peers.size());
+        int i = 0;
+        for (Routable peer : peers) {
+            if (subscriptions.putIfAbsent(peer.id(), payloadType) == null) {
+                accepted.add(peer);
+                added[i] = true;
+            }
+            i++;
+        }
+        if (!accepted.isEmpty()) {
+            storeFor(payloadType).addAll(accepted);
+            size += accepted.size();
+        }
+        return added;
+    }
+
+    boolean[] removeAll(Collection<? extends RoutableId<?>> routableIds) {
+        final boolean[] removed = new boolean[routableIds.size()];
+        final Map<Class<?>, List<RoutableId<?>>> removedByType = new HashMap<>();
+        int i = 0;
+        for (RoutableId<?> routableId : routableIds) {
+            final Class<?> payloadType = subscriptions.remove(routableId);
+            if (payloadType != null) {
+                removedByType.computeIfAbsent(payloadType, type -> new ArrayList<>()).add(routableId);
+                removed[i] = true;
+            }
+            i++;
+        }
+        if (removedByType.isEmpty()) {
+            return removed;
+        }
+
+        final Map<Class<?>, PeerStore> stores = new HashMap<>(routes.stores());
+        boolean routesChanged = false;
+        for (var entry : removedByType.entrySet()) {
+            final PeerStore store = stores.get(entry.getKey());
+            store.removeAll(entry.getValue());
+            size -= entry.getValue().size();
+            if (store.isEmpty()) {
+                stores.remove(entry.getKey());
+                routesChanged = true;
+            }
+        }
+        if (routesChanged) {
+            routes = new Routes(stores);
+        }
+        return removed;
+    }
+
+    /**
+     * @return the stores holding the peers interested in the payload of the message
+     */
+    PeerStore[] route(Message<?> message) {
+        return routes.resolve(payloadClassOf(message));
+    }
+
+    /**
+     * Splits a batch of messages by destination store, keeping the order of the messages for each store.
+     */
+    Map<PeerStore, List<Message<?>>> routeAll(List<? extends Message<?>> messages) {
+        final Routes current = routes;
+        final Map<PeerStore, List<Message<?>>> routed = new IdentityHashMap<>();
+        for (Message<?> message : messages) {
+            for (PeerStore store : current.resolve(payloadClassOf(message))) {
+                routed.computeIfAbsent(store, s -> new ArrayList<>(messages.size())).add(message);
+            }
+        }
+        return routed;
+    }
+
+    /**
+     * Adds the peers of a store to the recipients of every message of the batch {@link #routeAll(List)} split for it.
+     * The batch keeps the order of the messages, so it is matched against them in a single pass.
+     */
+    static void countRecipients(List<? extends Message<?>> messages, List<Message<?>> batch, int peers, int[] recipients) {
+        int next = 0;
+        for (int i = 0; i < messages.size() && next < batch.size(); i++) {
+            if (messages.get(i) == batch.get(next)) {
+                recipients[i] += peers;
+                next++;
+            }
+        }
+    }
+
+    void forEach(Consumer<? super Routable> action) {
+        for (PeerStore store : routes.stores().values()) {
+            store.snapshot().forEach(action);
+        }
+    }
+
+    private PeerStore storeFor(Class<?> payloadType) {
+        final PeerStore existing = routes.stores().get(payloadType);
+        if (existing != null) {
+            return existing;
+        }
+        final PeerStore store = new PeerStore();
+        final Map<Class<?>, PeerStore> stores = new HashMap<>(routes.stores());
+        stores.put(payloadType, store);
+        // The new routes start with an empty cache: the resolution of every payload class may have changed
+        routes = new Routes(stores);
+        return store;
+    }
+
+    private static Class<?> payloadClassOf(Message<?> message) {
+        final Object payload = message.payload();
+        return payload == null ? Object.class : payload.getClass();
+    }
+
+    private record Routes(Map<Class<?>, PeerStore> stores, Map<Class<?>, PeerStore[]> resolved) {
+        static final Routes EMPTY = new Routes(Map.of());
+
+        Routes(Map<Class<?>, PeerStore> stores) {
+            this(Map.copyOf(stores), new ConcurrentHashMap<>());
+        }
+
+        PeerStore[] resolve(Class<?> payloadClass) {
+            final PeerStore[] cached = resolved.get(payloadClass);
+            if (cached != null) {
+                return cached;
+            }
+            final PeerStore[] matching = stores.entrySet().stream()
+                    .filter(entry -> entry.getKey().isAssignableFrom(payloadClass))
+                    .map(Map.Entry::getValue)
+                    .toArray(PeerStore[]::new);
+            resolved.putIfAbsent(payloadClass, matching);
+            return matching;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Set of peers keyed by {@link RoutableId}, tuned for large networks with frequent joins and leaves.
+ * <p>
+ * Peers are kept in fixed size segments. A mutation copies only the segments it touches plus the small array
+ * of segment references, and then publishes a new immutable {@link Snapshot}. Readers never lock and iterate
+ * a stable view. The index gives O(1) lookup and O(1) removal by moving the last peer into the freed slot.
+ * <p>
+ * Mutations must be serialized by the caller.
+ */
+final class PeerStore {
+    static final int SEGMENT_SHIFT = 8;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final Map<RoutableId<?>, Slot> index = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    int size() {
+        return snapshot.size();
+    }
+
+    boolean isEmpty() {
+        return snapshot.size() == 0;
+    }
+
+    boolean contains(RoutableId<?> routableId) {
+        return index.containsKey(routableId);
+    }
+
+    Routable get(RoutableId<?> routableId) {
+        Slot slot = index.get(routableId);
+        return slot == null ? null : slot.peer;
+    }
+
+    boolean add(Routable peer) {
+        return addAll(List.of(peer))[0];
+    }
+
+    boolean remove(RoutableId<?> routableId) {
+        return removeAll(List.of(routableId))[0];
+    }
+
+    /**
+     * Adds every peer whose id is not already stored and publishes a single new snapshot.
+     *
+     * @return for each peer, in iteration order, whether it was added
+     */
+    boolean[] addAll(Collection<? extends Routable> peers) {
+        final boolean[] added = new boolean[peers.size()];
+        final Snapshot current = snapshot;
+        final Routable[][] segments = Arrays.copyOf(current.segments(), segmentsFor(current.size() + peers.size()));
+        final int tailSegmentIndex = current.size() >>> SEGMENT_SHIFT;
+        if (tailSegmentIndex < current.segments().length) {
+            // The partially filled tail segment is shared with the current snapshot
+            segments[tailSegmentIndex] = segments[tailSegmentIndex].clone();
+        }
+        int size = current.size();
+        int i = 0;
+        for (Routable peer : peers) {
+            if (index.containsKey(peer.id())) {
+                i++;
+                continue;
+            }
+            final int segmentIndex = size >>> SEGMENT_SHIFT;
+            if (segments[segmentIndex] == null) {
+                segments[segmentIndex] = new Routable[SEGMENT_SIZE];
+            }
+            segments[segmentIndex][size & SEGMENT_MASK] = peer;
+            index.put(peer.id(), new Slot(peer, size));
+            added[i++] = true;
+            size++;
+        }
+        if (size != current.size()) {
+            snapshot = new Snapshot(Arrays.copyOf(segments, segmentsFor(size)), size);
+        }
+        return added;
+    }
+
+    /**
+     * Removes every stored peer with one of the given ids and publishes a single new snapshot.
+     * Each segment is copied at most once.
+     *
+     * @return for each id, in iteration order, whether a peer was removed
+     */
+    boolean[] removeAll(Collection<? extends RoutableId<?>> routableIds) {
+        final boolean[] removed = new boolean[routableIds.size()];
+        final Snapshot current = snapshot;
+        final Routable[][] segments = current.segments().clone();
+        final boolean[] copiedSegments = new boolean[segments.length];
+        int size = current.size();
+        int i = 0;
+        for (RoutableId<?> routableId : routableIds) {
+            final Slot slot = index.remove(routableId);
+            if (slot == null) {
+                i++;
+                continue;
+            }
+            final int lastPosition = size - 1;
+            final Routable lastPeer = segments[lastPosition >>> SEGMENT_SHIFT][lastPosition & SEGMENT_MASK];
+            // Release the reference held by the last slot
+            writableSegment(segments, copiedSegments, lastPosition >>> SEGMENT_SHIFT)[lastPosition & SEGMENT_MASK] = null;
+            if (slot.position != lastPosition) {
+                // Fill the hole with the last peer so that the segments stay dense
+                writableSegment(segments, copiedSegments, slot.position >>> SEGMENT_SHIFT)[slot.position & SEGMENT_MASK] = lastPeer;
+                index.get(lastPeer.id()).position = slot.position;
+            }
+            removed[i++] = true;
+            size--;
+        }
+        if (size != current.size()) {
+            snapshot = new Snapshot(Arrays.copyOf(segments, segmentsFor(size)), size);
+        }
+        return removed;
+    }
+
+    private static Routable[] writableSegment(Routable[][] segments, boolean[] copiedSegments, int segmentIndex) {
+        if (!copiedSegments[segmentIndex]) {
+            segments[segmentIndex] = segments[segmentIndex].clone();
+            copiedSegments[segmentIndex] = true;
+        }
+        return segments[segmentIndex];
+    }
+
+    private static int segmentsFor(int size) {
+        return (size + SEGMENT_MASK) >>> SEGMENT_SHIFT;
+    }
+
+    record Snapshot(Routable[][] segments, int size) {
+        static final Snapshot EMPTY = new Snapshot(new Routable[0][], 0);
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void forEach(Consumer<? super Routable> action) {
+            forEach(0, size, action);
+        }
+
+        /**
+         * Visits the peers between {@code from} (inclusive) and {@code to} (exclusive).
+         */
+        void forEach(int from, int to, Consumer<? super Routable> action) {
+            int position = from;
+            while (position < to) {
+                final Routable[] segment = segments[position >>> SEGMENT_SHIFT];
+                final int segmentEnd = Math.min(to, (position & ~SEGMENT_MASK) + SEGMENT_SIZE);
+                for (int i = position & SEGMENT_MASK, end = i + (segmentEnd - position); i < end; i++) {
+                    action.accept(segment[i]);
+                }
+                position = segmentEnd;
+            }
+        }
+    }
+
+    private static final class Slot {
+        private final Routable peer;
+        private int position;
+
+        private Slot(Routable peer, int position) {
+            this.peer = peer;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.UUID;
+
+/**
+ * Message acquired from a {@link MessagePool} and returned to it when the last reference is released.
+ * <p>
+ * Once recycled the instance carries another payload: it must not be used after releasing its reference.
+ *
+ * @see ReferenceCounted
+ */
+public final class PooledMessage<T> implements Message<T>, ReferenceCounted {
+    private final MessagePool<T> pool;
+    private final RefCount refCount = new RefCount();
+    private UUID id;
+    private T payload;
+    private Object conflationKey;
+    private Priority priority;
+
+    PooledMessage(MessagePool<T> pool) {
+        this.pool = pool;
+    }
+
+    // Invoked by the pool before handing the instance out, the publisher owns the first reference
+    void reset(UUID id, T payload, Object conflationKey, Priority priority) {
+        this.id = id;
+        this.payload = payload;
+        this.conflationKey = conflationKey;
+        this.priority = priority;
+        refCount.reset();
+    }
+
+    @Override
+    public UUID id() {
+        return id;
+    }
+
+    @Override
+    public T payload() {
+        return payload;
+    }
+
+    @Override
+    public Object conflationKey() {
+        return conflationKey;
+    }
+
+    @Override
+    public Priority priority() {
+        return priority;
+    }
+
+    @Override
+    public void retain() {
+        refCount.retain(id);
+    }
+
+    @Override
+    public boolean release() {
+        if (!refCount.release(id)) {
+            return false;
+        }
+        // The payload is not kept alive by the pool
+        payload = null;
+        conflationKey = null;
+        pool.recycle(this);
+        return true;
+    }
+
+    @Override
+    public int refCount() {
+        return refCount.get();
+    }
+
+    /**
+     * Copy of the message that is not pooled, with the same id.
+     */
+    public Message<T> detach() {
+        return new Detached<>(id, payload, conflationKey, priority);
+    }
+
+    @Override
+    public String toString() {
+        return "PooledMessage[id=" + id + ", refCount=" + refCount.get() + "]";
+    }
+
+    private record Detached<T>(UUID id, T payload, Object conflationKey, Priority priority) implements Message<T> {
+    }
+}
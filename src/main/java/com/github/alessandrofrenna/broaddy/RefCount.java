@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference count of a {@link ReferenceCounted} message: it cannot be retained nor released once it reached zero.
+ */
+final class RefCount {
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    void reset() {
+        count.set(1);
+    }
+
+    int get() {
+        return count.get();
+    }
+
+    void retain(UUID messageId) {
+        int current;
+        do {
+            current = count.get();
+            if (current == 0) {
+                throw released(messageId);
+            }
+        } while (!count.compareAndSet(current, current + 1));
+    }
+
+    // Returns true when the last reference has been released
+    boolean release(UUID messageId) {
+        int current;
+        do {
+            current = count.get();
+            if (current == 0) {
+                throw released(messageId);
+            }
+        } while (!count.compareAndSet(current, current - 1));
+        return current == 1;
+    }
+
+    private static IllegalStateException released(UUID messageId) {
+        return new IllegalStateException("Message " + messageId + " has already been released");
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+/**
+ * Message whose instance is reused once every holder released it.
+ * <p>
+ * The publisher owns one reference and releases it after the broadcast. The networks and the mailboxes retain the
+ * message while they hold it beyond the delivery call and release it once delivered or dropped. A consumer keeps the
+ * message only while it is being consumed: to use it afterwards it must {@link #retain()} it first and release it later.
+ */
+public interface ReferenceCounted {
+    /**
+     * Adds a reference.
+     *
+     * @throws IllegalStateException if the last reference has already been released
+     */
+    void retain();
+
+    /**
+     * Removes a reference, returns true when it was the last one and the instance has been recycled.
+     *
+     * @throws IllegalStateException if the last reference has already been released
+     */
+    boolean release();
+
+    int refCount();
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.List;
+
+/**
+ * Reference counting of the messages that implement {@link ReferenceCounted}, the other messages are left untouched.
+ */
+final class References {
+    private References() {
+    }
+
+    static void retain(Message<?> message) {
+        if (message instanceof ReferenceCounted counted) {
+            counted.retain();
+        }
+    }
+
+    static void release(Message<?> message) {
+        if (message instanceof ReferenceCounted counted) {
+            counted.release();
+        }
+    }
+
+    static void retainAll(List<? extends Message<?>> messages) {
+        for (Message<?> message : messages) {
+            retain(message);
+        }
+    }
+
+    static void releaseAll(List<? extends Message<?>> messages) {
+        for (Message<?> message : messages) {
+            release(message);
+        }
+    }
+
+    /**
+     * The message as it can be kept without references, e.g. by a {@link ReplayBuffer}: a reference counted message
+     * is copied, since its instance or its memory is reused once released.
+     */
+    static Message<?> detached(Message<?> message) {
+        if (message instanceof PooledMessage<?> pooled) {
+            return pooled.detach();
+        }
+        if (message instanceof BufferMessage buffer) {
+            return buffer.detach();
+        }
+        return message;
+    }
+}
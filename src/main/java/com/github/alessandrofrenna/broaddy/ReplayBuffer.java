@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring of the most recent broadcast messages.
+ * <p>
+ * Appending claims a sequence and overwrites the oldest slot, it never allocates. The slot is claimed with a CAS, so
+ * two producers a full ring apart write it one at a time, and the older message is dropped when the newer one already
+ * owns the slot. Readers validate every slot against its sequence before and after reading it, so a slot overwritten
+ * during the read is skipped.
+ */
+final class ReplayBuffer {
+    private static final long EMPTY = -1L;
+    // Sequence of a slot claimed by a producer that is still writing it
+    private static final long WRITING = -2L;
+
+    private final int capacity;
+    private final long maxAgeNanos;
+    private final Message<?>[] messages;
+    private final long[] timestamps;
+    private final AtomicLongArray sequences;
+    private final AtomicLong writeSequence = new AtomicLong(0);
+
+    ReplayBuffer(ReplayConfig config) {
+        this.capacity = config.capacity();
+        this.maxAgeNanos = config.maxAge() == null ? Long.MAX_VALUE : config.maxAge().toNanos();
+        this.messages = new Message<?>[capacity];
+        this.timestamps = new long[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, EMPTY);
+        }
+    }
+
+    void append(Message<?> message) {
+        final long sequence = writeSequence.getAndIncrement();
+        final int index = (int) (sequence % capacity);
+        // Invalidates the slot while it is rewritten, the CAS orders the invalidation before the slot's new content
+        while (true) {
+            final long current = sequences.get(index);
+            if (current > sequence) {
+                // A producer a ring ahead already owns the slot: this message is overwritten before it is published
+                return;
+            }
+            if (current == WRITING) {
+                // Another producer is writing the slot, it releases it in a few stores
+                Thread.onSpinWait();
+                continue;
+            }
+            if (sequences.compareAndSet(index, current, WRITING)) {
+                break;
+            }
+        }
+        messages[index] = message;
+        timestamps[index] = System.nanoTime();
+        sequences.set(index, sequence);
+    }
+
+    /**
+     * Retained messages accepted by {@code payloadType}, from the oldest to the newest.
+     * With {@code afterMessageId} only the messages that follow it are returned, or all of them when it is no longer retained.
+     */
+    List<Message<?>> retained(Class<?> payloadType, UUID afterMessageId) {
+        final long end = writeSequence.get();
+        final long now = System.nanoTime();
+        final List<Message<?>> retained = new ArrayList<>();
+        for (long sequence = Math.max(0, end - capacity); sequence < end; sequence++) {
+            final int index = (int) (sequence % capacity);
+            if (sequences.get(index) != sequence) {
+                continue;
+            }
+            final Message<?> message = messages[index];
+            final long timestamp = timestamps[index];
+            // Keeps the reads of the slot before the validation, as StampedLock.validate does
+            VarHandle.acquireFence();
+            if (sequences.get(index) != sequence || now - timestamp > maxAgeNanos) {
+                continue;
+            }
+            if (afterMessageId != null && afterMessageId.equals(message.id())) {
+                retained.clear();
+                continue;
+            }
+            if (payloadType == Object.class || payloadType.isInstance(message.payload())) {
+                retained.add(message);
+            }
+        }
+        return retained;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.time.Duration;
+
+/**
+ * Retention of the messages replayed to the peers that connect to a network.
+ *
+ * @param capacity number of most recent messages retained
+ * @param maxAge messages older than this are not replayed, {@code null} to retain them until overwritten
+ */
+public record ReplayConfig(int capacity, Duration maxAge) {
+    public ReplayConfig {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero, " + capacity + " provided");
+        }
+        if (maxAge != null && (maxAge.isZero() || maxAge.isNegative())) {
+            throw new IllegalArgumentException("maxAge must be positive, " + maxAge + " provided");
+        }
+    }
+
+    public ReplayConfig(int capacity) {
+        this(capacity, null);
+    }
+}
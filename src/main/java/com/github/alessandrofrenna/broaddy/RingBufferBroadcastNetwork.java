@@ -0,0 +1,539 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BroadcastNetwork backed by a preallocated ring of messages, in the style of the LMAX Disruptor.
+ * <p>
+ * A producer claims a sequence with a single atomic increment, stores the message in the slot of the sequence and
+ * marks it as published. Every connected peer reads the ring at its own cursor on the drain executor and receives the
+ * consecutive published sequences as one batch, so a slow peer only delays itself.
+ * A producer waits when the slowest peer is a whole ring behind.
+ * <p>
+ * A peer must not broadcast on the network from its delivery callback when the drain executor is
+ * {@link BroadcastExecutors#callerThread()}: with a full ring the producer would wait for itself.
+ */
+public class RingBufferBroadcastNetwork implements BroadcastNetwork {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Logger LOG = LoggerFactory.getLogger(RingBufferBroadcastNetwork.class);
+    private static final Cursor[] NO_CURSORS = new Cursor[0];
+    private static final long UNPUBLISHED = -1L;
+
+    private final NetworkId<?> networkId;
+    private final Message<?>[] entries;
+    private final AtomicLongArray publishedSequences;
+    private final int indexMask;
+    private final AtomicLong claimSequence = new AtomicLong(0);
+    private final Lock networkLock = new ReentrantLock(true);
+    private final Map<RoutableId<?>, Cursor> cursorsById = new ConcurrentHashMap<>();
+    private final Executor drainExecutor;
+    private final BroadcastMetrics metrics;
+    private final boolean metricsEnabled;
+
+    // Copy on write, replaced while holding networkLock
+    private volatile Cursor[] cursors = NO_CURSORS;
+    // Lowest cursor seen by a producer, it spares the scan of the cursors while the ring has room
+    private volatile long gatingSequenceCache = 0L;
+    private volatile Status networkStatus;
+    private CompletableFuture<Void> shutdownCompletionFuture;
+
+    public RingBufferBroadcastNetwork(NetworkId<?> networkId) {
+        this(networkId, DEFAULT_CAPACITY);
+    }
+
+    public RingBufferBroadcastNetwork(NetworkId<?> networkId, int capacity) {
+        this(networkId, capacity, BroadcastExecutors.defaultExecutor());
+    }
+
+    public RingBufferBroadcastNetwork(NetworkId<?> networkId, int capacity, Executor drainExecutor) {
+        this(networkId, capacity, drainExecutor, BroadcastMetrics.NOOP);
+    }
+
+    public RingBufferBroadcastNetwork(NetworkId<?> networkId, int capacity, Executor drainExecutor, BroadcastMetrics metrics) {
+        if (Objects.isNull(networkId)) {
+            throw new IllegalArgumentException("networkId is required, null provided");
+        }
+        requirePowerOfTwo(capacity);
+        if (Objects.isNull(drainExecutor)) {
+            throw new IllegalArgumentException("drainExecutor is required, null provided");
+        }
+        if (Objects.isNull(metrics)) {
+            throw new IllegalArgumentException("metrics is required, null provided");
+        }
+        this.networkId = networkId;
+        this.entries = new Message<?>[capacity];
+        this.publishedSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            publishedSequences.set(i, UNPUBLISHED);
+        }
+        this.indexMask = capacity - 1;
+        this.drainExecutor = drainExecutor;
+        this.metrics = metrics;
+        this.metricsEnabled = metrics != BroadcastMetrics.NOOP;
+        this.networkStatus = Status.ONLINE;
+        LOG.info("Created a ring buffer BroadcastNetwork with id {} and {} slots", networkId, capacity);
+        LOG.trace("BroadcastNetwork {} - Online - Ready to accept peers", networkId);
+    }
+
+    static void requirePowerOfTwo(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two, " + capacity + " provided");
+        }
+    }
+
+    @Override
+    public NetworkId<?> id() {
+        return networkId;
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    @Override
+    public Connect connectPeer(Routable peer) {
+        return connectPeer(peer, Object.class);
+    }
+
+    @Override
+    public Connect connectPeer(Routable peer, Class<?> payloadType) {
+        if (Objects.isNull(peer)) {
+            throw new IllegalArgumentException("peer is required, null provided");
+        }
+        if (Objects.isNull(payloadType)) {
+            throw new IllegalArgumentException("payloadType is required, null provided");
+        }
+
+        final FlightRecorderEvents.ConnectEvent event = new FlightRecorderEvents.ConnectEvent();
+        event.begin();
+        networkLock.lock();
+        try {
+            return FlightRecorderEvents.commitConnect(event, networkId, peer.id(), addCursor(peer, payloadType));
+        } finally {
+            networkLock.unlock();
+        }
+    }
+
+    @Override
+    public Disconnect disconnectPeer(RoutableId<?> routableId) {
+        if (Objects.isNull(routableId)) {
+            throw new IllegalArgumentException("routableId is required, null provided");
+        }
+
+        final FlightRecorderEvents.DisconnectEvent event = new FlightRecorderEvents.DisconnectEvent();
+        event.begin();
+        networkLock.lock();
+        try {
+            final Disconnect disconnect = removeCursor(routableId);
+            completeShutdownIfEmpty();
+            return FlightRecorderEvents.commitDisconnect(event, networkId, routableId, disconnect);
+        } finally {
+            networkLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Connect> connectPeers(Collection<? extends Routable> peers) {
+        if (Objects.isNull(peers)) {
+            throw new IllegalArgumentException("peers is required, null provided");
+        }
+        if (peers.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("peers must not contain null elements");
+        }
+
+        networkLock.lock();
+        try {
+            final List<Connect> results = new ArrayList<>(peers.size());
+            for (Routable peer : peers) {
+                results.add(FlightRecorderEvents.commitConnect(new FlightRecorderEvents.ConnectEvent(), networkId, peer.id(), addCursor(peer, Object.class)));
+            }
+            return results;
+        } finally {
+            networkLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Disconnect> disconnectPeers(Collection<? extends RoutableId<?>> routableIds) {
+        if (Objects.isNull(routableIds)) {
+            throw new IllegalArgumentException("routableIds is required, null provided");
+        }
+        if (routableIds.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("routableIds must not contain null elements");
+        }
+
+        networkLock.lock();
+        try {
+            final List<Disconnect> results = new ArrayList<>(routableIds.size());
+            for (RoutableId<?> routableId : routableIds) {
+                results.add(FlightRecorderEvents.commitDisconnect(new FlightRecorderEvents.DisconnectEvent(), networkId, routableId, removeCursor(routableId)));
+            }
+            completeShutdownIfEmpty();
+            return results;
+        } finally {
+            networkLock.unlock();
+        }
+    }
+
+    // Must be invoked while holding networkLock
+    private Connect addCursor(Routable peer, Class<?> payloadType) {
+        if (networkStatus != Status.ONLINE) {
+            return networkStatus == Status.SHUTTING_DOWN ? Connect.NETWORK_SHUTTING_DOWN : Connect.NETWORK_OFFLINE;
+        }
+        if (cursorsById.containsKey(peer.id())) {
+            return Connect.EXISTING_ID;
+        }
+        // The peer receives the messages claimed from now on
+        final Cursor cursor = new Cursor(peer, payloadType, claimSequence.get());
+        cursorsById.put(peer.id(), cursor);
+        final Cursor[] current = cursors;
+        final Cursor[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = cursor;
+        cursors = updated;
+        metrics.peerConnected(networkId, peer.id());
+        return Connect.OK;
+    }
+
+    // Must be invoked while holding networkLock
+    private Disconnect removeCursor(RoutableId<?> routableId) {
+        final Cursor cursor = cursorsById.remove(routableId);
+        if (cursor == null) {
+            return Disconnect.NOT_FOUND;
+        }
+        cursor.closed = true;
+        final Cursor[] current = cursors;
+        final Cursor[] updated = new Cursor[current.length - 1];
+        int i = 0;
+        for (Cursor c : current) {
+            if (c != cursor) {
+                updated[i++] = c;
+            }
+        }
+        cursors = updated;
+        metrics.peerDisconnected(networkId, routableId);
+        return Disconnect.OK;
+    }
+
+    @Override
+    public long size() {
+        return cursors.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return cursors.length == 0;
+    }
+
+    @Override
+    public void broadcast(Message<?> message) {
+        if (networkStatus == Status.OFFLINE || cursors.length == 0) {
+            return;
+        }
+        final FlightRecorderEvents.BroadcastEvent event = new FlightRecorderEvents.BroadcastEvent();
+        event.begin();
+        final long sequence = claim(1);
+        publish(sequence, message);
+        final Cursor[] readers = signalCursors();
+        if (metricsEnabled || event.isEnabled()) {
+            final int recipients = countRecipients(readers, message);
+            if (metricsEnabled) {
+                metrics.messageBroadcast(networkId, recipients);
+            }
+            FlightRecorderEvents.commitBroadcast(event, networkId, message, recipients);
+        }
+    }
+
+    @Override
+    public void broadcastAll(List<? extends Message<?>> messages) {
+        if (Objects.isNull(messages)) {
+            throw new IllegalArgumentException("messages is required, null provided");
+        }
+        if (networkStatus == Status.OFFLINE || cursors.length == 0 || messages.isEmpty()) {
+            return;
+        }
+        // Consecutive sequences are claimed at once, so every peer receives them as a single batch
+        for (int from = 0; from < messages.size(); from += entries.length) {
+            final int to = Math.min(messages.size(), from + entries.length);
+            final long first = claim(to - from);
+            for (int i = from; i < to; i++) {
+                publish(first + i - from, messages.get(i));
+            }
+            signalCursors();
+        }
+        if (metricsEnabled || FlightRecorderEvents.BROADCAST_EVENT_TYPE.isEnabled()) {
+            final Cursor[] readers = cursors;
+            for (Message<?> message : messages) {
+                final int recipients = countRecipients(readers, message);
+                if (metricsEnabled) {
+                    metrics.messageBroadcast(networkId, recipients);
+                }
+                FlightRecorderEvents.commitBroadcast(new FlightRecorderEvents.BroadcastEvent(), networkId, message, recipients);
+            }
+        }
+    }
+
+    private long claim(int count) {
+        final long first = claimSequence.getAndAdd(count);
+        final long wrapPoint = first + count - entries.length;
+        if (wrapPoint > gatingSequenceCache) {
+            long gatingSequence;
+            while (wrapPoint > (gatingSequence = minimumCursor(first))) {
+                // Nobody reads an offline network anymore, its slots are overwritten
+                if (networkStatus == Status.OFFLINE) {
+                    break;
+                }
+                // The slowest peer still has to read the slot, a drain task rejected by the executor is retried
+                signalCursorsBehind(wrapPoint);
+                LockSupport.parkNanos(1L);
+            }
+            gatingSequenceCache = gatingSequence;
+        }
+        return first;
+    }
+
+    // Closed cursors do not gate the producers, they are about to leave the cursors array
+    private long minimumCursor(long upperBound) {
+        long minimum = upperBound;
+        for (Cursor cursor : cursors) {
+            if (!cursor.closed) {
+                minimum = Math.min(minimum, cursor.sequence.get());
+            }
+        }
+        return minimum;
+    }
+
+    private void signalCursorsBehind(long wrapPoint) {
+        for (Cursor cursor : cursors) {
+            if (cursor.sequence.get() < wrapPoint) {
+                cursor.signal();
+            }
+        }
+    }
+
+    private void publish(long sequence, Message<?> message) {
+        final int index = (int) sequence & indexMask;
+        // The ring holds a reference to a pooled message until its slot is reused, every cursor has read it by then
+        final Message<?> overwritten = entries[index];
+        References.retain(message);
+        entries[index] = message;
+        publishedSequences.set(index, sequence); // releases the entry to the cursors
+        if (overwritten != null) {
+            References.release(overwritten);
+        }
+    }
+
+    private boolean isPublished(long sequence) {
+        return publishedSequences.get((int) sequence & indexMask) == sequence;
+    }
+
+    private Cursor[] signalCursors() {
+        // Every cursor is signalled, also the ones not interested in the payload: they still have to move past it
+        final Cursor[] readers = cursors;
+        for (Cursor cursor : readers) {
+            cursor.signal();
+        }
+        return readers;
+    }
+
+    private static int countRecipients(Cursor[] readers, Message<?> message) {
+        int recipients = 0;
+        for (Cursor cursor : readers) {
+            if (cursor.accepts(message)) {
+                recipients++;
+            }
+        }
+        return recipients;
+    }
+
+    // Must be invoked while holding networkLock
+    private void completeShutdownIfEmpty() {
+        if (networkStatus == Status.SHUTTING_DOWN && cursors.length == 0 && shutdownCompletionFuture != null && !shutdownCompletionFuture.isDone()) {
+            networkStatus = Status.OFFLINE;
+            shutdownCompletionFuture.complete(null);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> shutdown() {
+        final Cursor[] connected;
+        networkLock.lock();
+        try {
+            if (networkStatus == Status.SHUTTING_DOWN) {
+                LOG.trace("BroadcastNetwork {} - Shutting down - No more connectPeer requests will be accepted", networkId);
+                return shutdownCompletionFuture;
+            }
+            if (networkStatus == Status.OFFLINE) {
+                LOG.trace("BroadcastNetwork {} - Offline - Ready to be removed", networkId);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            shutdownCompletionFuture = new CompletableFuture<>();
+            FlightRecorderEvents.trackShutdown(shutdownCompletionFuture, networkId, cursors.length);
+            if (metricsEnabled) {
+                final long shutdownStart = System.nanoTime();
+                shutdownCompletionFuture.thenRun(() -> metrics.networkShutdown(networkId, System.nanoTime() - shutdownStart));
+            }
+            if (cursors.length == 0) {
+                networkStatus = Status.OFFLINE;
+                shutdownCompletionFuture.complete(null);
+                LOG.trace("BroadcastNetwork {} - Offline - Ready to be removed", networkId);
+                return shutdownCompletionFuture;
+            }
+            networkStatus = Status.SHUTTING_DOWN;
+            connected = cursors;
+            LOG.trace("BroadcastNetwork {} - Shutting down - No more connectPeer requests will be accepted", networkId);
+        } finally {
+            networkLock.unlock();
+        }
+
+        for (Cursor cursor : connected) {
+            cursor.peer.forceDisconnection(networkId);
+        }
+        return shutdownCompletionFuture;
+    }
+
+    /**
+     * Read position of a peer. At most one drain task per cursor is scheduled at any time.
+     */
+    private final class Cursor implements Runnable {
+        private final Routable peer;
+        private final Class<?> payloadType;
+        // Next sequence to read, every sequence below it can be overwritten by the producers
+        private final AtomicLong sequence;
+        private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+        private volatile boolean closed;
+
+        private Cursor(Routable peer, Class<?> payloadType, long initialSequence) {
+            this.peer = peer;
+            this.payloadType = payloadType;
+            this.sequence = new AtomicLong(initialSequence);
+        }
+
+        private boolean accepts(Message<?> message) {
+            return payloadType == Object.class || payloadType.isInstance(message.payload());
+        }
+
+        private void signal() {
+            if (closed || !drainScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                drainExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                drainScheduled.set(false);
+                LOG.error("BroadcastNetwork {} - Delivery to peer {} rejected: {}", networkId, peer.id(), e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!closed) {
+                    drain();
+                }
+            } finally {
+                drainScheduled.set(false);
+            }
+            // A producer may have published after the last read but before the flag was cleared
+            if (!closed && isPublished(sequence.get())) {
+                signal();
+            }
+        }
+
+        private void drain() {
+            final long first = sequence.get();
+            long end = first;
+            while (end - first < entries.length && isPublished(end)) {
+                end++;
+            }
+            if (end == first) {
+                return;
+            }
+            Message<?> single = null;
+            List<Message<?>> batch = null;
+            for (long next = first; next < end; next++) {
+                final Message<?> message = entries[(int) next & indexMask];
+                if (!accepts(message)) {
+                    continue;
+                }
+                if (single == null && batch == null) {
+                    single = message;
+                    continue;
+                }
+                if (batch == null) {
+                    batch = new ArrayList<>((int) (end - next) + 1);
+                    batch.add(single);
+                }
+                batch.add(message);
+            }
+            // The entries are copied and retained: the slots can be reused while the peer consumes them
+            if (batch != null) {
+                References.retainAll(batch);
+            } else if (single != null) {
+                References.retain(single);
+            }
+            sequence.set(end);
+            if (batch != null) {
+                try {
+                    peer.deliverMessages(networkId, Collections.unmodifiableList(batch));
+                } catch (RuntimeException e) {
+                    deliveryFailed(batch.size(), e);
+                } finally {
+                    References.releaseAll(batch);
+                }
+            } else if (single != null) {
+                try {
+                    peer.deliverMessage(networkId, single);
+                } catch (RuntimeException e) {
+                    deliveryFailed(1, e);
+                } finally {
+                    References.release(single);
+                }
+            }
+        }
+
+        // The cursor has already moved past the messages: a failing peer loses them but does not stall the ring
+        private void deliveryFailed(int messageCount, RuntimeException cause) {
+            LOG.error("BroadcastNetwork {} - Delivery of {} messages to peer {} failed: {}", networkId, messageCount, peer.id(), cause.getMessage(), cause);
+            metrics.consumerFailed(networkId, peer.id(), cause);
+        }
+    }
+}
@@ -17,8 +17,33 @@
 
 package com.github.alessandrofrenna.broaddy;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 public interface Routable {
     RoutableId<?> id();
     void deliverMessage(NetworkId<?> networkId, Message<?> message);
+
+    default void deliverMessages(NetworkId<?> networkId, List<? extends Message<?>> messages) {
+        for (Message<?> message : messages) {
+            deliverMessage(networkId, message);
+        }
+    }
+
+    /**
+     * Delivers a message and reports when it has been consumed: {@code completion} receives {@code null} on success,
+     * the cause of the failure otherwise. It must be invoked exactly once.
+     * The default implementation reports the exceptions thrown by {@link #deliverMessage(NetworkId, Message)}.
+     */
+    default void deliverMessage(NetworkId<?> networkId, Message<?> message, Consumer<Throwable> completion) {
+        try {
+            deliverMessage(networkId, message);
+        } catch (RuntimeException e) {
+            completion.accept(e);
+            return;
+        }
+        completion.accept(null);
+    }
+
     void forceDisconnection(NetworkId<?> networkId);
 }
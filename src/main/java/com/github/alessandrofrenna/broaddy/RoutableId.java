@@ -46,4 +46,11 @@ public interface RoutableId<T> {
             return id;
         }
     }
+
+    record Num(long id) implements RoutableId<Long> {
+        @Override
+        public Long get() {
+            return id;
+        }
+    }
 }
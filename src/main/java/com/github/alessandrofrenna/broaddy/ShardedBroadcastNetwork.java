@@ -0,0 +1,553 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BroadcastNetwork that spreads its peers over a power-of-two number of stripes, each with its own lock and peer set.
+ * <p>
+ * The stripe of a peer is chosen by the hash of its {@link RoutableId}: connecting and disconnecting a peer only lock
+ * its stripe, so membership changes of different peers do not contend. {@link #connectPeers(Collection)} and
+ * {@link #disconnectPeers(Collection)} lock every stripe, so that a batch is a single change, all before or all after
+ * a concurrent {@link #shutdown()}. A broadcast visits every stripe, in parallel
+ * on the {@link ParallelFanOut} pool when one is configured and the network is large enough.
+ */
+public class ShardedBroadcastNetwork implements BroadcastNetwork {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedBroadcastNetwork.class);
+
+    private final NetworkId<?> networkId;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final Executor dispatchExecutor;
+    private final boolean asyncDispatch;
+    private final BroadcastMetrics metrics;
+    private final boolean metricsEnabled;
+    private final ParallelFanOut parallelFanOut;
+
+    private volatile Status networkStatus;
+    // Assigned while holding every stripe lock
+    private volatile CompletableFuture<Void> shutdownCompletionFuture;
+
+    public ShardedBroadcastNetwork(NetworkId<?> networkId) {
+        this(networkId, defaultStripeCount());
+    }
+
+    public ShardedBroadcastNetwork(NetworkId<?> networkId, int stripeCount) {
+        this(networkId, stripeCount, BroadcastExecutors.callerThread(), BroadcastMetrics.NOOP, null);
+    }
+
+    /**
+     * @param parallelFanOut parallel delivery of the stripes of large networks, {@code null} to always deliver sequentially
+     */
+    public ShardedBroadcastNetwork(NetworkId<?> networkId, int stripeCount, Executor dispatchExecutor, BroadcastMetrics metrics, ParallelFanOut parallelFanOut) {
+        if (Objects.isNull(networkId)) {
+            throw new IllegalArgumentException("networkId is required, null provided");
+        }
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("stripeCount must be a power of two, " + stripeCount + " provided");
+        }
+        if (Objects.isNull(dispatchExecutor)) {
+            throw new IllegalArgumentException("dispatchExecutor is required, null provided");
+        }
+        if (Objects.isNull(metrics)) {
+            throw new IllegalArgumentException("metrics is required, null provided");
+        }
+        this.networkId = networkId;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeMask = stripeCount - 1;
+        this.dispatchExecutor = dispatchExecutor;
+        this.asyncDispatch = dispatchExecutor != BroadcastExecutors.callerThread();
+        this.metrics = metrics;
+        this.metricsEnabled = metrics != BroadcastMetrics.NOOP;
+        this.parallelFanOut = parallelFanOut;
+        this.networkStatus = Status.ONLINE;
+        LOG.info("Created a {} sharded BroadcastNetwork with id {} and {} stripes", asyncDispatch ? "asynchronous" : "synchronous", networkId, stripeCount);
+        LOG.trace("BroadcastNetwork {} - Online - Ready to accept peers", networkId);
+    }
+
+    // Four stripes per processor keep the chance of two writers hitting the same stripe low
+    static int defaultStripeCount() {
+        return Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+    }
+
+    @Override
+    public NetworkId<?> id() {
+        return networkId;
+    }
+
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    private Stripe stripeFor(RoutableId<?> routableId) {
+        final int hash = routableId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+    }
+
+    @Override
+    public Connect connectPeer(Routable peer) {
+        return connectPeer(peer, Object.class);
+    }
+
+    @Override
+    public Connect connectPeer(Routable peer, Class<?> payloadType) {
+        if (Objects.isNull(peer)) {
+            throw new IllegalArgumentException("peer is required, null provided");
+        }
+        if (Objects.isNull(payloadType)) {
+            throw new IllegalArgumentException("payloadType is required, null provided");
+        }
+
+        final FlightRecorderEvents.ConnectEvent event = new FlightRecorderEvents.ConnectEvent();
+        event.begin();
+        final Stripe stripe = stripeFor(peer.id());
+        stripe.lock.lock();
+        try {
+            return FlightRecorderEvents.commitConnect(event, networkId, peer.id(), connectInStripe(stripe, peer, payloadType));
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Must be invoked while holding the lock of the stripe
+    private Connect connectInStripe(Stripe stripe, Routable peer, Class<?> payloadType) {
+        if (networkStatus != Status.ONLINE) {
+            return networkStatus == Status.SHUTTING_DOWN ? Connect.NETWORK_SHUTTING_DOWN : Connect.NETWORK_OFFLINE;
+        }
+        if (!stripe.peerRouter.add(peer, payloadType)) {
+            return Connect.EXISTING_ID;
+        }
+        metrics.peerConnected(networkId, peer.id());
+        return Connect.OK;
+    }
+
+    @Override
+    public Disconnect disconnectPeer(RoutableId<?> routableId) {
+        if (Objects.isNull(routableId)) {
+            throw new IllegalArgumentException("routableId is required, null provided");
+        }
+
+        final FlightRecorderEvents.DisconnectEvent event = new FlightRecorderEvents.DisconnectEvent();
+        event.begin();
+        final Stripe stripe = stripeFor(routableId);
+        stripe.lock.lock();
+        try {
+            if (!stripe.peerRouter.remove(routableId)) {
+                return FlightRecorderEvents.commitDisconnect(event, networkId, routableId, Disconnect.NOT_FOUND);
+            }
+            metrics.peerDisconnected(networkId, routableId);
+        } finally {
+            stripe.lock.unlock();
+        }
+        completeShutdownIfEmpty();
+        return FlightRecorderEvents.commitDisconnect(event, networkId, routableId, Disconnect.OK);
+    }
+
+    @Override
+    public List<Connect> connectPeers(Collection<? extends Routable> peers) {
+        if (Objects.isNull(peers)) {
+            throw new IllegalArgumentException("peers is required, null provided");
+        }
+        if (peers.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("peers must not contain null elements");
+        }
+
+        final List<Routable> orderedPeers = List.copyOf(peers);
+        final FlightRecorderEvents.ConnectEvent[] events = FlightRecorderEvents.beginConnects(orderedPeers.size());
+        final List<Connect> results = lockedConnectAll(orderedPeers);
+        FlightRecorderEvents.commitConnects(events, networkId, orderedPeers.stream().map(Routable::id).toList(), results);
+        return results;
+    }
+
+    // Every stripe is locked: the batch is a single change, either before or after a concurrent shutdown
+    private List<Connect> lockedConnectAll(List<Routable> peers) {
+        lockAll();
+        try {
+            if (networkStatus != Status.ONLINE) {
+                return Collections.nCopies(peers.size(), networkStatus == Status.SHUTTING_DOWN ? Connect.NETWORK_SHUTTING_DOWN : Connect.NETWORK_OFFLINE);
+            }
+            final Connect[] results = new Connect[peers.size()];
+            for (int i = 0; i < results.length; i++) {
+                final Routable peer = peers.get(i);
+                results[i] = connectInStripe(stripeFor(peer.id()), peer, Object.class);
+            }
+            return List.of(results);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public List<Disconnect> disconnectPeers(Collection<? extends RoutableId<?>> routableIds) {
+        if (Objects.isNull(routableIds)) {
+            throw new IllegalArgumentException("routableIds is required, null provided");
+        }
+        if (routableIds.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("routableIds must not contain null elements");
+        }
+
+        final List<RoutableId<?>> orderedIds = List.copyOf(routableIds);
+        final FlightRecorderEvents.DisconnectEvent[] events = FlightRecorderEvents.beginDisconnects(orderedIds.size());
+        final List<List<Integer>> positionsByStripe = groupByStripe(orderedIds);
+        final Disconnect[] results = new Disconnect[orderedIds.size()];
+        // Every stripe is locked, so that the batch is a single change
+        lockAll();
+        try {
+            for (int i = 0; i < stripes.length; i++) {
+                final List<Integer> positions = positionsByStripe.get(i);
+                if (positions.isEmpty()) {
+                    continue;
+                }
+                final List<RoutableId<?>> stripeIds = new ArrayList<>(positions.size());
+                positions.forEach(position -> stripeIds.add(orderedIds.get(position)));
+                final boolean[] removed = stripes[i].peerRouter.removeAll(stripeIds);
+                for (int j = 0; j < removed.length; j++) {
+                    if (removed[j]) {
+                        metrics.peerDisconnected(networkId, stripeIds.get(j));
+                    }
+                    results[positions.get(j)] = removed[j] ? Disconnect.OK : Disconnect.NOT_FOUND;
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+        completeShutdownIfEmpty();
+        final List<Disconnect> resultList = List.of(results);
+        FlightRecorderEvents.commitDisconnects(events, networkId, orderedIds, resultList);
+        return resultList;
+    }
+
+    private List<List<Integer>> groupByStripe(List<? extends RoutableId<?>> routableIds) {
+        final List<List<Integer>> positionsByStripe = new ArrayList<>(stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            positionsByStripe.add(new ArrayList<>());
+        }
+        for (int position = 0; position < routableIds.size(); position++) {
+            final int hash = routableIds.get(position).hashCode();
+            positionsByStripe.get((hash ^ (hash >>> 16)) & stripeMask).add(position);
+        }
+        return positionsByStripe;
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.peerRouter.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Stripe stripe : stripes) {
+            if (!stripe.peerRouter.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void broadcast(Message<?> message) {
+        if (networkStatus == Status.OFFLINE) {
+            return;
+        }
+        final FlightRecorderEvents.BroadcastEvent event = new FlightRecorderEvents.BroadcastEvent();
+        event.begin();
+        final int recipients = fanOut(stripeIndex -> {
+            int stripeRecipients = 0;
+            for (PeerStore subscribers : stripes[stripeIndex].peerRouter.route(message)) {
+                final PeerStore.Snapshot peers = subscribers.snapshot();
+                stripeRecipients += peers.size();
+                peers.forEach(asyncDispatch
+                        ? networkPeer -> dispatch(networkPeer, message, () -> networkPeer.deliverMessage(networkId, message), null)
+                        : networkPeer -> networkPeer.deliverMessage(networkId, message));
+            }
+            return stripeRecipients;
+        });
+        if (metricsEnabled) {
+            metrics.messageBroadcast(networkId, recipients);
+        }
+        FlightRecorderEvents.commitBroadcast(event, networkId, message, recipients);
+    }
+
+    @Override
+    public void broadcastAll(List<? extends Message<?>> messages) {
+        if (Objects.isNull(messages)) {
+            throw new IllegalArgumentException("messages is required, null provided");
+        }
+        if (messages.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("messages must not contain null elements");
+        }
+        if (networkStatus == Status.OFFLINE || messages.isEmpty()) {
+            return;
+        }
+        // Stripes may be delivered in parallel, so each one counts its recipients apart
+        final int[][] recipientsByStripe = metricsEnabled || FlightRecorderEvents.BROADCAST_EVENT_TYPE.isEnabled()
+                ? new int[stripes.length][]
+                : null;
+        fanOut(stripeIndex -> {
+            final int[] stripeRecipients = recipientsByStripe != null ? new int[messages.size()] : null;
+            for (Map.Entry<PeerStore, List<Message<?>>> route : stripes[stripeIndex].peerRouter.routeAll(messages).entrySet()) {
+                final PeerStore.Snapshot peers = route.getKey().snapshot();
+                final List<Message<?>> batch = route.getValue();
+                if (stripeRecipients != null) {
+                    PeerRouter.countRecipients(messages, batch, peers.size(), stripeRecipients);
+                }
+                peers.forEach(asyncDispatch
+                        ? networkPeer -> dispatch(networkPeer, batch, () -> networkPeer.deliverMessages(networkId, batch))
+                        : networkPeer -> networkPeer.deliverMessages(networkId, batch));
+            }
+            if (recipientsByStripe != null) {
+                recipientsByStripe[stripeIndex] = stripeRecipients;
+            }
+            return 0;
+        });
+        if (recipientsByStripe != null) {
+            for (int i = 0; i < messages.size(); i++) {
+                int recipients = 0;
+                for (int[] stripeRecipients : recipientsByStripe) {
+                    recipients += stripeRecipients == null ? 0 : stripeRecipients[i];
+                }
+                if (metricsEnabled) {
+                    metrics.messageBroadcast(networkId, recipients);
+                }
+                FlightRecorderEvents.commitBroadcast(new FlightRecorderEvents.BroadcastEvent(), networkId, messages.get(i), recipients);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<DeliveryReport> broadcastAsync(Message<?> message) {
+        if (Objects.isNull(message)) {
+            throw new IllegalArgumentException("message is required, null provided");
+        }
+        final long start = System.nanoTime();
+        if (networkStatus == Status.OFFLINE) {
+            return DeliveryTracker.noRecipients(message);
+        }
+        final FlightRecorderEvents.BroadcastEvent event = new FlightRecorderEvents.BroadcastEvent();
+        event.begin();
+        // The recipients are known before the first delivery, so the report cannot complete early
+        final PeerStore.Snapshot[][] snapshotsByStripe = new PeerStore.Snapshot[stripes.length][];
+        int recipients = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            final PeerStore[] routes = stripes[i].peerRouter.route(message);
+            snapshotsByStripe[i] = new PeerStore.Snapshot[routes.length];
+            for (int j = 0; j < routes.length; j++) {
+                snapshotsByStripe[i][j] = routes[j].snapshot();
+                recipients += snapshotsByStripe[i][j].size();
+            }
+        }
+        final DeliveryTracker tracker = new DeliveryTracker(message, recipients, start);
+        fanOut(stripeIndex -> {
+            for (PeerStore.Snapshot peers : snapshotsByStripe[stripeIndex]) {
+                peers.forEach(networkPeer -> {
+                    final Consumer<Throwable> completion = tracker.completionFor(networkPeer.id());
+                    if (asyncDispatch) {
+                        dispatch(networkPeer, message, () -> networkPeer.deliverMessage(networkId, message, completion), completion);
+                    } else {
+                        networkPeer.deliverMessage(networkId, message, completion);
+                    }
+                });
+            }
+            return 0;
+        });
+        if (metricsEnabled) {
+            metrics.messageBroadcast(networkId, recipients);
+        }
+        FlightRecorderEvents.commitBroadcast(event, networkId, message, recipients);
+        return tracker.report();
+    }
+
+    /**
+     * Runs the delivery on every non-empty stripe and returns the sum of the recipients it reports.
+     */
+    private int fanOut(StripeDelivery delivery) {
+        if (parallelFanOut == null || !parallelFanOut.appliesTo((int) Math.min(Integer.MAX_VALUE, size()))) {
+            int recipients = 0;
+            for (int i = 0; i < stripes.length; i++) {
+                if (!stripes[i].peerRouter.isEmpty()) {
+                    recipients += delivery.deliver(i);
+                }
+            }
+            return recipients;
+        }
+        final int[] recipientsByStripe = new int[stripes.length];
+        parallelFanOut.pool().invoke(new StripeFanOutTask(0, stripes.length, delivery, recipientsByStripe));
+        int recipients = 0;
+        for (int stripeRecipients : recipientsByStripe) {
+            recipients += stripeRecipients;
+        }
+        return recipients;
+    }
+
+    // The dispatched task holds a reference to pooled messages: the publisher may release them before it runs
+    private void dispatch(Routable networkPeer, List<? extends Message<?>> batch, Runnable delivery) {
+        References.retainAll(batch);
+        try {
+            dispatchExecutor.execute(() -> {
+                try {
+                    delivery.run();
+                } finally {
+                    References.releaseAll(batch);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            References.releaseAll(batch);
+            LOG.error("BroadcastNetwork {} - Delivery to peer {} rejected: {}", networkId, networkPeer.id(), e.getMessage(), e);
+        }
+    }
+
+    private void dispatch(Routable networkPeer, Message<?> message, Runnable delivery, Consumer<Throwable> completion) {
+        References.retain(message);
+        try {
+            dispatchExecutor.execute(() -> {
+                try {
+                    delivery.run();
+                } finally {
+                    References.release(message);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            References.release(message);
+            LOG.error("BroadcastNetwork {} - Delivery to peer {} rejected: {}", networkId, networkPeer.id(), e.getMessage(), e);
+            if (completion != null) {
+                completion.accept(e);
+            }
+        }
+    }
+
+    private void completeShutdownIfEmpty() {
+        // Connections are refused once the network is shutting down, so an empty network stays empty
+        final CompletableFuture<Void> future = shutdownCompletionFuture;
+        if (networkStatus == Status.SHUTTING_DOWN && future != null && !future.isDone() && isEmpty()) {
+            networkStatus = Status.OFFLINE;
+            future.complete(null);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> shutdown() {
+        lockAll();
+        try {
+            if (networkStatus == Status.SHUTTING_DOWN) {
+                LOG.trace("BroadcastNetwork {} - Shutting down - No more connectPeer requests will be accepted", networkId);
+                return shutdownCompletionFuture;
+            }
+            if (networkStatus == Status.OFFLINE) {
+                LOG.trace("BroadcastNetwork {} - Offline - Ready to be removed", networkId);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            FlightRecorderEvents.trackShutdown(future, networkId, (int) size());
+            if (metricsEnabled) {
+                final long shutdownStart = System.nanoTime();
+                future.thenRun(() -> metrics.networkShutdown(networkId, System.nanoTime() - shutdownStart));
+            }
+            shutdownCompletionFuture = future;
+            if (isEmpty()) {
+                networkStatus = Status.OFFLINE;
+                future.complete(null);
+                LOG.trace("BroadcastNetwork {} - Offline - Ready to be removed", networkId);
+                return future;
+            }
+            networkStatus = Status.SHUTTING_DOWN;
+            LOG.trace("BroadcastNetwork {} - Shutting down - No more connectPeer requests will be accepted", networkId);
+        } finally {
+            unlockAll();
+        }
+
+        for (Stripe stripe : stripes) {
+            stripe.peerRouter.forEach(networkPeer -> networkPeer.forceDisconnection(networkId));
+        }
+        return shutdownCompletionFuture;
+    }
+
+    // Stripes are always locked in index order, so two callers of lockAll cannot deadlock
+    private void lockAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].lock.unlock();
+        }
+    }
+
+    private static final class Stripe {
+        private final PeerRouter peerRouter = new PeerRouter();
+        private final ReentrantLock lock = new ReentrantLock();
+    }
+
+    @FunctionalInterface
+    private interface StripeDelivery {
+        int deliver(int stripeIndex);
+    }
+
+    // Serializable only because ForkJoinTask is: the task never leaves the pool that runs it
+    @SuppressWarnings("serial")
+    private final class StripeFanOutTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final StripeDelivery delivery;
+        private final int[] recipientsByStripe;
+
+        private StripeFanOutTask(int from, int to, StripeDelivery delivery, int[] recipientsByStripe) {
+            this.from = from;
+            this.to = to;
+            this.delivery = delivery;
+            this.recipientsByStripe = recipientsByStripe;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                if (!stripes[from].peerRouter.isEmpty()) {
+                    recipientsByStripe[from] = delivery.deliver(from);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new StripeFanOutTask(from, middle, delivery, recipientsByStripe),
+                    new StripeFanOutTask(middle, to, delivery, recipientsByStripe));
+        }
+    }
+}
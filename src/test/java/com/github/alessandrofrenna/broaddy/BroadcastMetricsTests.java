@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BroadcastMetricsTests {
+    private LongAdderBroadcastMetrics metrics;
+    private BroadcastNetwork network;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new LongAdderBroadcastMetrics();
+        network = new DefaultBroadcastNetwork(new NetworkId.Str("metrics_network"), BroadcastExecutors.callerThread(), metrics);
+    }
+
+    @Test
+    void networkAndPeers_shouldRecordTheirActivity() throws ExecutionException, InterruptedException, TimeoutException {
+        var healthyPeer = new DefaultNetworkPeer(new RoutableId.String("healthy_peer"), metrics);
+        var failingPeer = new DefaultNetworkPeer(new RoutableId.String("failing_peer"), metrics);
+        healthyPeer.join(network, (msg) -> {});
+        failingPeer.join(network, (msg) -> {
+            throw new IllegalStateException("Simulated consumer failure");
+        });
+
+        network.broadcast(new StringMessage("m1"));
+        network.broadcast(new StringMessage("m2"));
+        healthyPeer.leave(network.id());
+        network.broadcast(new StringMessage("m3"));
+        network.shutdown().get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, metrics.messagesBroadcast());
+        assertEquals(5, metrics.dispatchedDeliveries());
+        assertEquals(2, metrics.deliveredMessages());
+        assertEquals(3, metrics.consumerFailures());
+        assertEquals(2, metrics.connects());
+        assertEquals(2, metrics.disconnects());
+        assertEquals(2, metrics.deliveryLatency().count());
+        assertEquals(1, metrics.shutdownDuration().count());
+    }
+
+    @Test
+    void deliveryLatency_shouldIncludeTheMailboxWaitOfEveryMessage() throws InterruptedException {
+        List<Runnable> pendingDrainTasks = new ArrayList<>();
+        var batchPeer = new DefaultNetworkPeer(new RoutableId.String("batch_peer"), metrics);
+        batchPeer.join(network, (msg) -> {}, JoinOptions.defaults()
+                .withMailbox(new MailboxConfig(8, OverflowPolicy.DROP_NEWEST, message -> { }, pendingDrainTasks::add))
+                .withBatchConsumer(messages -> {}));
+
+        network.broadcastAll(List.of(new StringMessage("m1"), new StringMessage("m2"), new StringMessage("m3")));
+        Thread.sleep(20);
+        pendingDrainTasks.forEach(Runnable::run);
+
+        assertEquals(3, metrics.deliveredMessages());
+        assertEquals(3, metrics.deliveryLatency().count());
+        assertTrue(metrics.deliveryLatency().valueAtPercentile(0) >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    void broadcastAll_shouldCountTheRecipientsOfEveryMessage() {
+        assertRecipientsCounted(network);
+    }
+
+    @Test
+    void shardedBroadcastAll_shouldCountTheRecipientsOfEveryMessage() {
+        assertRecipientsCounted(new ShardedBroadcastNetwork(new NetworkId.Str("sharded_metrics_network"), 4,
+                BroadcastExecutors.callerThread(), metrics, null));
+    }
+
+    private void assertRecipientsCounted(BroadcastNetwork countedNetwork) {
+        for (int i = 0; i < 3; i++) {
+            new DefaultNetworkPeer(new RoutableId.String("string_peer_" + i))
+                    .join(countedNetwork, (msg) -> {}, JoinOptions.of(String.class));
+        }
+        new DefaultNetworkPeer(new RoutableId.String("integer_peer"))
+                .join(countedNetwork, (msg) -> {}, JoinOptions.of(Integer.class));
+        var repeated = new StringMessage("repeated");
+
+        countedNetwork.broadcastAll(List.of(repeated, new NetworksAndPeersTests.IntegerMessage(1), repeated));
+
+        assertEquals(3, metrics.messagesBroadcast());
+        assertEquals(3 + 1 + 3, metrics.dispatchedDeliveries());
+    }
+
+    @Test
+    void serviceNetworks_shouldReportToTheServiceMetrics() {
+        var networkService = new DefaultBroadcastNetworkService(new InMemoryBroadcastNetworkRegistry(), metrics);
+        BroadcastNetwork serviceNetwork = networkService.create(new NetworkId.UUID());
+        new DefaultNetworkPeer(new RoutableId.UUID()).join(serviceNetwork, (msg) -> {});
+        serviceNetwork.broadcast(new StringMessage("m1"));
+        assertTrue(networkService.dispose(serviceNetwork.id()));
+
+        assertEquals(1, metrics.messagesBroadcast());
+        assertEquals(1, metrics.connects());
+        assertEquals(1, metrics.disconnects());
+        assertEquals(1, metrics.shutdownDuration().count());
+    }
+
+    @Test
+    void latencyHistogram_shouldReportPercentilesWithinTheBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.valueAtPercentile(50));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1000, histogram.max());
+        assertEquals(500.5, histogram.mean(), 0.001);
+        assertWithinPrecision(500, histogram.valueAtPercentile(50));
+        assertWithinPrecision(990, histogram.valueAtPercentile(99));
+        assertEquals(1000, histogram.valueAtPercentile(100));
+        assertThrows(IllegalArgumentException.class, () -> histogram.valueAtPercentile(101));
+    }
+
+    @Test
+    void latencyHistogramBuckets_shouldContainTheirValues() {
+        for (long value : new long[] {0, 1, 7, 8, 15, 16, 17, 1023, 1024, 123_456_789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.upperBoundOf(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.upperBoundOf(bucket - 1) < value);
+        }
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.125, "expected about " + expected + " but was " + actual);
+    }
+}
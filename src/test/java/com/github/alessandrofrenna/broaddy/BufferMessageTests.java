@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BufferMessageTests {
+    private final NetworkId<?> networkId = new NetworkId.Str("buffer_network");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void peers_shouldReadTheSameBytesThroughIndependentViews() {
+        var pool = new OffHeapBufferPool(64, 2);
+        var message = pool.copyOf(bytes("payload"));
+        assertTrue(message.isDirect());
+        assertEquals(7, message.size());
+
+        var first = message.payload();
+        var second = message.payload();
+        assertTrue(first.isReadOnly());
+        first.get(new byte[3]);
+        assertEquals(4, first.remaining());
+        assertEquals("payload", text(second));
+    }
+
+    @Test
+    void copyOf_shouldNotMoveTheSourcePosition() {
+        var source = ByteBuffer.wrap(bytes("payload"));
+        new OffHeapBufferPool(64, 1).copyOf(source);
+        assertEquals(0, source.position());
+    }
+
+    @Test
+    void releasedMessage_shouldGiveItsBlockBack() {
+        var pool = new OffHeapBufferPool(64, 2);
+        var message = pool.copyOf(bytes("payload"));
+        assertEquals(1, pool.availableBlocks());
+
+        message.retain();
+        assertFalse(message.release());
+        assertEquals(1, pool.availableBlocks());
+        assertTrue(message.release());
+        assertEquals(2, pool.availableBlocks());
+        assertThrows(IllegalStateException.class, message::release);
+    }
+
+    @Test
+    void oversizedOrExhausted_shouldUseADedicatedBuffer() {
+        var pool = new OffHeapBufferPool(4, 1);
+        var oversized = pool.copyOf(bytes("payload"));
+        assertEquals(1, pool.availableBlocks());
+        assertEquals("payload", text(oversized.payload()));
+
+        var pooled = pool.copyOf(bytes("one"));
+        var dedicated = pool.copyOf(bytes("two"));
+        assertEquals(0, pool.availableBlocks());
+        dedicated.release();
+        assertEquals(0, pool.availableBlocks());
+        pooled.release();
+        assertEquals(1, pool.availableBlocks());
+    }
+
+    @Test
+    void mailboxDeliveries_shouldFreeTheBlockWhenTheLastOneCompletes() {
+        var pool = new OffHeapBufferPool(64, 1);
+        var network = new DefaultBroadcastNetwork(networkId);
+        List<Runnable> pendingDrainTasks = new ArrayList<>();
+        Executor manualExecutor = pendingDrainTasks::add;
+        List<String> received = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            new DefaultNetworkPeer(new RoutableId.String("peer_" + i)).join(network, message -> received.add(text(message.payload())), JoinOptions.of(ByteBuffer.class));
+        }
+        new DefaultNetworkPeer(new RoutableId.String("mailbox_peer"))
+                .join(network, message -> received.add(text((ByteBuffer) message.payload())), JoinOptions.defaults().withMailbox(new MailboxConfig(4, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor)));
+
+        var message = pool.copyOf(bytes("payload"));
+        network.broadcast(message);
+        message.release();
+        assertEquals(3, received.size());
+        assertEquals(0, pool.availableBlocks());
+
+        pendingDrainTasks.forEach(Runnable::run);
+        assertEquals(List.of("payload", "payload", "payload", "payload"), received);
+        assertEquals(1, pool.availableBlocks());
+    }
+
+    @Test
+    void replayBuffer_shouldRetainAHeapCopy() {
+        var pool = new OffHeapBufferPool(64, 1);
+        var network = new DefaultBroadcastNetwork(networkId, BroadcastExecutors.callerThread(), BroadcastMetrics.NOOP, null, new ReplayConfig(4));
+        var message = pool.copyOf(bytes("retained"));
+        network.broadcast(message);
+        message.release();
+        pool.copyOf(bytes("overwrite"));
+
+        List<Message<?>> replayed = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("late_peer")).join(network, replayed::add);
+        assertEquals(1, replayed.size());
+        assertEquals(message.id(), replayed.get(0).id());
+        assertEquals("retained", text((ByteBuffer) replayed.get(0).payload()));
+    }
+
+    @Test
+    void journal_shouldStoreThePayloadBytes() throws IOException {
+        var message = BufferMessage.wrap(ByteBuffer.wrap(bytes("journaled")));
+        try (Journal journal = Journal.open(directory, new BufferMessageCodec(), new JournalConfig())) {
+            journal.append(message);
+            List<Message<?>> replayed = new ArrayList<>();
+            journal.replay(0, replayed::add);
+            assertEquals(1, replayed.size());
+            assertEquals(message.id(), replayed.get(0).id());
+            assertEquals("journaled", text((ByteBuffer) replayed.get(0).payload()));
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeliveryReportTests {
+    private final RoutableId<?> healthyPeerId = new RoutableId.String("healthy_peer");
+    private final RoutableId<?> failingPeerId = new RoutableId.String("failing_peer");
+
+    @Test
+    void synchronousBroadcastAsync_shouldReportDeliveriesAndFailures() throws Exception {
+        var network = new DefaultBroadcastNetwork(new NetworkId.Str("report_network"));
+        joinHealthyAndFailingPeers(network);
+
+        var message = new StringMessage("m1");
+        CompletableFuture<DeliveryReport> future = network.broadcastAsync(message);
+        assertTrue(future.isDone());
+        assertReport(message, future.get());
+    }
+
+    @Test
+    void asynchronousBroadcastAsync_shouldCompleteWhenEveryPeerConsumed() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            var network = new DefaultBroadcastNetwork(new NetworkId.Str("async_report_network"), executor);
+            joinHealthyAndFailingPeers(network);
+
+            var message = new StringMessage("m1");
+            assertReport(message, network.broadcastAsync(message).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shardedBroadcastAsync_shouldReportEveryStripe() throws Exception {
+        var network = new ShardedBroadcastNetwork(new NetworkId.Str("sharded_report_network"), 4);
+        joinHealthyAndFailingPeers(network);
+
+        var message = new StringMessage("m1");
+        assertReport(message, network.broadcastAsync(message).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void mailboxPeers_shouldReportWhenTheMessageIsConsumedOrDropped() throws Exception {
+        List<Runnable> pendingDrainTasks = new ArrayList<>();
+        var network = new DefaultBroadcastNetwork(new NetworkId.Str("mailbox_report_network"));
+        var peer = new DefaultNetworkPeer(healthyPeerId);
+        peer.join(network, (msg) -> {}, JoinOptions.defaults().withMailbox(new MailboxConfig(1, OverflowPolicy.DROP_NEWEST, message -> { }, pendingDrainTasks::add)));
+
+        CompletableFuture<DeliveryReport> consumed = network.broadcastAsync(new StringMessage("m1"));
+        CompletableFuture<DeliveryReport> dropped = network.broadcastAsync(new StringMessage("m2"));
+        assertTrue(dropped.isDone());
+        assertEquals(1, dropped.get().failed());
+        assertFalse(consumed.isDone());
+
+        pendingDrainTasks.remove(0).run();
+        assertTrue(consumed.get().isComplete());
+    }
+
+    @Test
+    void broadcastAsyncWithoutPeers_shouldReportNoRecipients() throws Exception {
+        var network = new DefaultBroadcastNetwork(new NetworkId.Str("empty_report_network"));
+        DeliveryReport report = network.broadcastAsync(new StringMessage("m1")).get();
+        assertEquals(0, report.recipients());
+        assertTrue(report.isComplete());
+        assertThrows(IllegalArgumentException.class, () -> network.broadcastAsync(null));
+    }
+
+    @Test
+    void networksWithoutDeliveryTracking_shouldFailTheFuture() {
+        var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_report_network"), 8, BroadcastExecutors.callerThread());
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> network.broadcastAsync(new StringMessage("m1")).get());
+        assertInstanceOf(UnsupportedOperationException.class, exception.getCause());
+    }
+
+    private void joinHealthyAndFailingPeers(BroadcastNetwork network) {
+        new DefaultNetworkPeer(healthyPeerId).join(network, (msg) -> {});
+        new DefaultNetworkPeer(failingPeerId).join(network, (msg) -> {
+            throw new IllegalStateException("Simulated consumer failure");
+        });
+    }
+
+    private void assertReport(Message<?> message, DeliveryReport report) {
+        assertEquals(message.id(), report.messageId());
+        assertEquals(2, report.recipients());
+        assertEquals(1, report.delivered());
+        assertEquals(1, report.failed());
+        assertInstanceOf(IllegalStateException.class, report.failures().get(failingPeerId));
+        assertFalse(report.isComplete());
+        assertFalse(report.elapsed().isNegative());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EvictingBroadcastNetworkRegistryTest {
+    private final Map<NetworkId<?>, EvictionListener.Cause> evictions = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        // The first join of a JVM loads the classes of peers and mailboxes, which can take longer than an idle timeout
+        new DefaultNetworkPeer(new RoutableId.String("warm_up_peer")).join(new DefaultBroadcastNetwork(new NetworkId.Str("warm_up_network")), message -> { });
+    }
+
+    @Test
+    void idleNetwork_shouldBeEvictedAndShutDown() throws InterruptedException {
+        var evicted = new CountDownLatch(1);
+        try (var registry = new EvictingBroadcastNetworkRegistry(new InMemoryBroadcastNetworkRegistry(),
+                EvictionPolicy.idleTimeout(Duration.ofMillis(200)),
+                (networkId, cause) -> {
+                    evictions.put(networkId, cause);
+                    evicted.countDown();
+                })) {
+            var service = new DefaultBroadcastNetworkService(registry);
+            var idleNetwork = service.create(new NetworkId.Str("idle_network"));
+            var activeNetwork = service.create(new NetworkId.Str("active_network"));
+            new DefaultNetworkPeer(new RoutableId.String("peer")).join(activeNetwork, message -> { });
+
+            // Broadcasts keep the active network alive past the idle timeout
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(400);
+            while (System.nanoTime() < deadline) {
+                activeNetwork.broadcast(new StringMessage("keep_alive"));
+                Thread.sleep(20);
+            }
+
+            assertTrue(evicted.await(5, TimeUnit.SECONDS));
+            assertEquals(Map.of(idleNetwork.id(), EvictionListener.Cause.IDLE), evictions);
+            assertFalse(registry.find(idleNetwork.id()).isPresent());
+            assertTrue(registry.find(activeNetwork.id()).isPresent());
+            assertEquals(BroadcastNetwork.Connect.NETWORK_OFFLINE, idleNetwork.connectPeer(new DefaultNetworkPeer(new RoutableId.String("late_peer"))));
+        }
+    }
+
+    @Test
+    void networksBeyondMaximumSize_shouldEvictTheLeastRecentlyActive() throws InterruptedException {
+        try (var registry = new EvictingBroadcastNetworkRegistry(new InMemoryBroadcastNetworkRegistry(),
+                EvictionPolicy.maximumSize(2), evictions::put)) {
+            var service = new DefaultBroadcastNetworkService(registry);
+            var first = service.create(new NetworkId.Str("first"));
+            Thread.sleep(5);
+            var second = service.create(new NetworkId.Str("second"));
+            Thread.sleep(5);
+            // Connecting a peer makes the first network the most recently active
+            new DefaultNetworkPeer(new RoutableId.String("peer")).join(first, message -> { });
+
+            var third = service.create(new NetworkId.Str("third"));
+            assertEquals(2, registry.size());
+            assertTrue(registry.find(first.id()).isPresent());
+            assertFalse(registry.find(second.id()).isPresent());
+            assertTrue(registry.find(third.id()).isPresent());
+            assertEquals(Map.of(second.id(), EvictionListener.Cause.SIZE), evictions);
+        }
+    }
+
+    @Test
+    void networksStoredDirectly_shouldBeTrackedThroughTheRegistry() throws InterruptedException {
+        var evicted = new CountDownLatch(1);
+        try (var registry = new EvictingBroadcastNetworkRegistry(new InMemoryBroadcastNetworkRegistry(),
+                EvictionPolicy.idleTimeout(Duration.ofMillis(200)),
+                (networkId, cause) -> {
+                    evictions.put(networkId, cause);
+                    evicted.countDown();
+                })) {
+            var idleId = new NetworkId.Str("idle_network");
+            var activeId = new NetworkId.Str("active_network");
+            registry.store(new DefaultBroadcastNetwork(idleId));
+            registry.store(new DefaultBroadcastNetwork(activeId));
+            var activeNetwork = registry.find(activeId).orElseThrow();
+            new DefaultNetworkPeer(new RoutableId.String("peer")).join(activeNetwork, message -> { });
+
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(400);
+            while (System.nanoTime() < deadline) {
+                activeNetwork.broadcast(new StringMessage("keep_alive"));
+                Thread.sleep(20);
+            }
+
+            assertTrue(evicted.await(5, TimeUnit.SECONDS));
+            assertEquals(Map.of(idleId, EvictionListener.Cause.IDLE), evictions);
+            assertTrue(registry.find(activeId).isPresent());
+        }
+    }
+
+    @Test
+    void networkStoredAgainWithTheSameId_shouldNotBeRemovedByTheEvictionOfTheOldOne() {
+        var networkId = new NetworkId.Str("recreated_network");
+        var inMemoryRegistry = new InMemoryBroadcastNetworkRegistry();
+        try (var registry = new EvictingBroadcastNetworkRegistry(inMemoryRegistry, EvictionPolicy.maximumSize(10))) {
+            var service = new DefaultBroadcastNetworkService(registry);
+            var oldNetwork = service.create(networkId);
+            assertTrue(service.dispose(networkId));
+            var newNetwork = service.create(networkId);
+
+            assertFalse(registry.remove(networkId, oldNetwork));
+            assertSame(newNetwork, registry.find(networkId).orElseThrow());
+            assertTrue(registry.remove(networkId, newNetwork));
+            assertTrue(registry.isEmpty());
+        }
+    }
+
+    @Test
+    void invalidPolicy_shouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new EvictionPolicy(null, EvictionPolicy.UNBOUNDED));
+        assertThrows(IllegalArgumentException.class, () -> EvictionPolicy.maximumSize(0));
+        assertThrows(IllegalArgumentException.class, () -> EvictionPolicy.idleTimeout(Duration.ZERO));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileBroadcastNetworkRegistryTest {
+    private final AtomicInteger createdNetworks = new AtomicInteger(0);
+    private final BroadcastNetworkFactory countingFactory = (networkId, metrics) -> {
+        createdNetworks.incrementAndGet();
+        return BroadcastNetworkFactory.DEFAULT.create(networkId, metrics);
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reopenedRegistry_shouldRestoreTheStoredIds() throws IOException {
+        var stringId = new NetworkId.Str("string_network");
+        var uuidId = new NetworkId.UUID();
+        var longId = new NetworkId.Num(7L);
+        var removedId = new NetworkId.Str("removed_network");
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            registry.store(new DefaultBroadcastNetwork(stringId));
+            registry.store(new DefaultBroadcastNetwork(uuidId));
+            registry.store(new DefaultBroadcastNetwork(longId));
+            registry.store(new DefaultBroadcastNetwork(removedId));
+            registry.remove(removedId);
+        }
+
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            assertEquals(3, registry.size());
+            // Networks are created only when they are found
+            assertEquals(0, createdNetworks.get());
+            var restored = registry.find(uuidId);
+            assertTrue(restored.isPresent());
+            assertEquals(uuidId, restored.get().id());
+            assertSame(restored.get(), registry.find(uuidId).orElseThrow());
+            assertEquals(1, createdNetworks.get());
+            assertFalse(registry.find(removedId).isPresent());
+            assertTrue(registry.find(longId).isPresent());
+        }
+    }
+
+    @Test
+    void changesNotCompacted_shouldBeRestoredFromTheLog() throws IOException {
+        var networkId = new NetworkId.Str("logged_network");
+        var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP);
+        registry.store(new DefaultBroadcastNetwork(networkId));
+        // Simulates a crash: the registry is not closed and the last change is incomplete
+        Files.write(directory.resolve("registry.log"), new byte[] { 1, 1, 0 }, StandardOpenOption.APPEND);
+
+        try (var restoredRegistry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            assertEquals(1, restoredRegistry.size());
+            assertTrue(restoredRegistry.find(networkId).isPresent());
+        }
+    }
+
+    @Test
+    void damagedLastChanges_shouldBeIgnored() throws IOException {
+        var networkId = new NetworkId.Str("logged_network");
+        var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP);
+        registry.store(new DefaultBroadcastNetwork(networkId));
+        // A string id longer than the rest of the log
+        Files.write(directory.resolve("registry.log"), new byte[] { 1, 1, 0x7f, -1, -1, -1, 'x' }, StandardOpenOption.APPEND);
+
+        try (var restoredRegistry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            assertEquals(1, restoredRegistry.size());
+            restoredRegistry.store(new DefaultBroadcastNetwork(new NetworkId.Num(7L)));
+        }
+        // A change that is neither stored nor removed
+        Files.write(directory.resolve("registry.log"), new byte[] { 9, 3, 0, 0, 0, 0, 0, 0, 0, 8 }, StandardOpenOption.APPEND);
+        try (var restoredRegistry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            assertEquals(2, restoredRegistry.size());
+            assertFalse(restoredRegistry.find(new NetworkId.Num(8L)).isPresent());
+        }
+    }
+
+    @Test
+    void damagedSnapshot_shouldFailToOpen() throws IOException {
+        FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP).close();
+        // One string id of 9 bytes, only the length is there
+        Files.write(directory.resolve("registry.snapshot"), new byte[] { 0x42, 0x52, 0x4e, 0x53, 0, 0, 0, 1, 1, 0, 0, 0, 9 }, StandardOpenOption.TRUNCATE_EXISTING);
+
+        assertThrows(IOException.class, () -> FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP));
+    }
+
+    @Test
+    void reopenedRegistry_shouldRestoreEveryNetworkWithItsFactory() throws IOException {
+        var shardedId = new NetworkId.Str("sharded_network");
+        var ringId = new NetworkId.Str("ring_network");
+        var defaultId = new NetworkId.Str("default_network");
+        Map<String, BroadcastNetworkFactory> factories = Map.of(
+                FileBroadcastNetworkRegistry.DEFAULT_FACTORY, countingFactory,
+                "sharded", BroadcastNetworkFactory.sharded(4),
+                "ring", BroadcastNetworkFactory.ringBuffer(64));
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, factories, BroadcastMetrics.NOOP)) {
+            new DefaultBroadcastNetworkService(registry, registry.factory("sharded")).create(shardedId);
+            registry.compact();
+            new DefaultBroadcastNetworkService(registry, registry.factory("ring")).create(ringId);
+            registry.store(new DefaultBroadcastNetwork(defaultId));
+        }
+
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, factories, BroadcastMetrics.NOOP)) {
+            assertInstanceOf(ShardedBroadcastNetwork.class, registry.find(shardedId).orElseThrow());
+            assertInstanceOf(RingBufferBroadcastNetwork.class, registry.find(ringId).orElseThrow());
+            assertInstanceOf(DefaultBroadcastNetwork.class, registry.find(defaultId).orElseThrow());
+            assertEquals(1, createdNetworks.get());
+        }
+        // The ring network cannot be restored without its factory
+        assertThrows(IOException.class, () -> FileBroadcastNetworkRegistry.open(directory, Map.of(
+                FileBroadcastNetworkRegistry.DEFAULT_FACTORY, countingFactory,
+                "sharded", BroadcastNetworkFactory.sharded(4)), BroadcastMetrics.NOOP));
+    }
+
+    @Test
+    void registryWithoutDefaultFactory_shouldRejectNetworksItCannotRestore() throws IOException {
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, Map.of("sharded", BroadcastNetworkFactory.sharded(4)), BroadcastMetrics.NOOP)) {
+            assertThrows(IllegalArgumentException.class, () -> registry.store(new DefaultBroadcastNetwork(new NetworkId.Str("unknown_network"))));
+            assertThrows(IllegalArgumentException.class, () -> registry.factory("ring"));
+            assertTrue(registry.store(registry.factory("sharded").create(new NetworkId.Str("sharded_network"), BroadcastMetrics.NOOP)));
+            assertEquals(1, registry.size());
+        }
+    }
+
+    @Test
+    void conditionalRemove_shouldRemoveOnlyTheStoredNetwork() throws IOException {
+        var networkId = new NetworkId.Str("conditional_network");
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            registry.store(new DefaultBroadcastNetwork(networkId));
+        }
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            // The restored network is not created to be compared
+            assertFalse(registry.remove(networkId, new DefaultBroadcastNetwork(networkId)));
+            assertEquals(0, createdNetworks.get());
+            assertTrue(registry.remove(networkId, registry.find(networkId).orElseThrow()));
+            assertTrue(registry.isEmpty());
+        }
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            assertTrue(registry.isEmpty());
+        }
+    }
+
+    @Test
+    void storeOperation_ofNetworksWithSameId_shouldFail() throws IOException {
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            registry.store(new DefaultBroadcastNetwork(new NetworkId.Str("test_net_id")));
+            assertThrows(DuplicateNetworkIdException.class, () -> registry.store(new DefaultBroadcastNetwork(new NetworkId.Str("test_net_id"))));
+        }
+    }
+
+    @Test
+    void service_shouldReturnTheRestoredNetwork() throws IOException {
+        var networkId = new NetworkId.Str("service_network");
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            new DefaultBroadcastNetworkService(registry, countingFactory).create(networkId);
+        }
+        try (var registry = FileBroadcastNetworkRegistry.open(directory, countingFactory, BroadcastMetrics.NOOP)) {
+            var service = new DefaultBroadcastNetworkService(registry, countingFactory);
+            assertSame(registry.find(networkId).orElseThrow(), service.create(networkId));
+            assertEquals(2, createdNetworks.get());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FlightRecorderEventsTests {
+    private static final String EVENT_PREFIX = "com.github.alessandrofrenna.broaddy.";
+
+    @TempDir
+    Path recordingDirectory;
+
+    @Test
+    void networkAndPeers_shouldEmitFlightRecorderEvents() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            var network = new DefaultBroadcastNetwork(new NetworkId.Str("jfr_network"));
+            var healthyPeer = new DefaultNetworkPeer(new RoutableId.String("healthy_peer"));
+            var failingPeer = new DefaultNetworkPeer(new RoutableId.String("failing_peer"));
+            healthyPeer.join(network, (msg) -> {});
+            failingPeer.join(network, (msg) -> {
+                throw new IllegalStateException("Simulated consumer failure");
+            });
+            network.broadcast(new StringMessage("m1"));
+            network.shutdown().get(5, TimeUnit.SECONDS);
+        });
+
+        Map<String, List<RecordedEvent>> eventsByName = events.stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName().substring(EVENT_PREFIX.length())));
+
+        assertEquals(2, eventsByName.get("Connect").size());
+        assertTrue(eventsByName.get("Connect").stream().allMatch(event -> "OK".equals(event.getString("result"))));
+        assertEquals(2, eventsByName.get("Disconnect").size());
+
+        RecordedEvent broadcast = eventsByName.get("Broadcast").get(0);
+        assertEquals(new NetworkId.Str("jfr_network").toString(), broadcast.getString("networkId"));
+        assertEquals(2, broadcast.getInt("recipients"));
+        assertEquals(String.class.getName(), broadcast.getClass("payloadType").getName());
+
+        Map<String, RecordedEvent> deliveries = eventsByName.get("Delivery").stream()
+                .collect(Collectors.toMap(event -> event.getString("peerId"), Function.identity()));
+        assertEquals(2, deliveries.size());
+        assertTrue(deliveries.get(new RoutableId.String("failing_peer").toString()).getBoolean("failed"));
+        assertEquals(1, deliveries.get(new RoutableId.String("healthy_peer").toString()).getInt("messageCount"));
+
+        RecordedEvent shutdown = eventsByName.get("Shutdown").get(0);
+        assertEquals(2, shutdown.getInt("peers"));
+    }
+
+    @Test
+    void bulkConnections_shouldEmitATimedEventPerPeer() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            var network = new DefaultBroadcastNetwork(new NetworkId.Str("jfr_network"));
+            var firstPeer = new DefaultNetworkPeer(new RoutableId.String("first_peer"));
+            var secondPeer = new DefaultNetworkPeer(new RoutableId.String("second_peer"));
+            network.connectPeers(List.of(firstPeer, secondPeer, firstPeer));
+            network.disconnectPeers(List.of(firstPeer.id(), secondPeer.id(), firstPeer.id()));
+        });
+
+        Map<String, List<RecordedEvent>> eventsByName = events.stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName().substring(EVENT_PREFIX.length())));
+
+        assertEquals(List.of("OK", "OK", "EXISTING_ID"), eventsByName.get("Connect").stream().map(event -> event.getString("result")).toList());
+        assertEquals(List.of("OK", "OK", "NOT_FOUND"), eventsByName.get("Disconnect").stream().map(event -> event.getString("result")).toList());
+        assertTrue(events.stream().allMatch(event -> event.getDuration().toNanos() > 0));
+    }
+
+    @Test
+    void deliveryEvents_shouldBeRecordedOnlyWhenEnabled() throws Exception {
+        List<RecordedEvent> events = record(List.of(), () -> {
+            var network = new DefaultBroadcastNetwork(new NetworkId.Str("jfr_network"));
+            new DefaultNetworkPeer(new RoutableId.String("peer")).join(network, (msg) -> {});
+            network.broadcast(new StringMessage("m1"));
+        });
+
+        List<String> names = events.stream().map(event -> event.getEventType().getName().substring(EVENT_PREFIX.length())).toList();
+        assertTrue(names.contains("Broadcast"));
+        assertFalse(names.contains("Delivery"));
+    }
+
+    private List<RecordedEvent> record(RecordedAction action) throws Exception {
+        return record(List.of("Broadcast", "Delivery", "Connect", "Disconnect", "Shutdown"), action);
+    }
+
+    private List<RecordedEvent> record(List<String> enabledEvents, RecordedAction action) throws Exception {
+        Path recordingFile = recordingDirectory.resolve("broaddy.jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : enabledEvents) {
+                recording.enable(EVENT_PREFIX + name).withoutThreshold();
+            }
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        assertTrue(Files.exists(recordingFile));
+        return RecordingFile.readAllEvents(recordingFile).stream()
+                .filter(event -> event.getEventType().getName().startsWith(EVENT_PREFIX))
+                .toList();
+    }
+
+    @FunctionalInterface
+    private interface RecordedAction {
+        void run() throws ExecutionException, InterruptedException, TimeoutException;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JournalTests {
+    private static final MessageCodec CODEC = new TextCodec();
+
+    @TempDir
+    Path directory;
+
+    record TextMessage(UUID id, String payload) implements Message<String> {
+        TextMessage(String payload) {
+            this(UUID.randomUUID(), payload);
+        }
+    }
+
+    static final class TextCodec implements MessageCodec {
+        @Override
+        public void encode(Message<?> message, ByteBuffer target) {
+            target.putLong(message.id().getMostSignificantBits());
+            target.putLong(message.id().getLeastSignificantBits());
+            target.put(String.valueOf(message.payload()).getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public Message<?> decode(ByteBuffer source) {
+            final UUID id = new UUID(source.getLong(), source.getLong());
+            final byte[] text = new byte[source.remaining()];
+            source.get(text);
+            return new TextMessage(id, new String(text, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void appendedMessages_shouldBeReplayedInSequenceOrder() throws IOException {
+        try (Journal journal = Journal.open(directory, CODEC, new JournalConfig())) {
+            var messages = messages(5);
+            assertEquals(0, journal.append(messages.get(0)));
+            journal.appendAll(messages.subList(1, 5));
+            assertEquals(5, journal.nextSequence());
+
+            assertEquals(messages, replay(journal, 0));
+            assertEquals(messages.subList(3, 5), replay(journal, 3));
+        }
+    }
+
+    @Test
+    void reopenedJournal_shouldContinueAfterTheLastRecord() throws IOException {
+        var messages = messages(4);
+        try (Journal journal = Journal.open(directory, CODEC, new JournalConfig())) {
+            journal.appendAll(messages.subList(0, 3));
+        }
+        try (Journal journal = Journal.open(directory, CODEC, new JournalConfig())) {
+            assertEquals(3, journal.nextSequence());
+            assertEquals(3, journal.append(messages.get(3)));
+            assertEquals(messages, replay(journal, 0));
+        }
+    }
+
+    @Test
+    void recordOutOfSequence_shouldEndTheSegment() throws IOException {
+        var messages = messages(3);
+        try (Journal journal = Journal.open(directory, CODEC, new JournalConfig())) {
+            journal.appendAll(messages);
+        }
+        // The checksum does not cover the header: a leftover record of an older file passes it
+        try (Stream<Path> files = Files.list(directory); FileChannel channel = FileChannel.open(files.findFirst().orElseThrow(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, 0);
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, 7), length.getInt(0) + Integer.BYTES * 2);
+        }
+        try (Journal journal = Journal.open(directory, CODEC, new JournalConfig())) {
+            assertEquals(1, journal.nextSequence());
+            assertEquals(messages.subList(0, 1), replay(journal, 0));
+        }
+    }
+
+    @Test
+    void fullSegments_shouldRollAndExpireTheOldestOnes() throws IOException {
+        // Every record takes 16 bytes of header, 16 of id and 10 of text: two records per segment
+        var config = new JournalConfig(100, 3, Duration.ofMillis(10));
+        var messages = IntStream.range(0, 10).mapToObj(i -> new TextMessage("message_" + i)).toList();
+        try (Journal journal = Journal.open(directory, CODEC, config)) {
+            journal.appendAll(messages);
+            assertEquals(messages.subList(6, 10), replay(journal, 6));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(3, files.count());
+        }
+        try (Journal journal = Journal.open(directory, CODEC, config)) {
+            // The expired sequences are replayed from the oldest retained record
+            assertEquals(messages.subList(4, 10), replay(journal, 0));
+            assertEquals(10, journal.nextSequence());
+        }
+    }
+
+    @Test
+    void oversizedMessage_shouldBeRejected() throws IOException {
+        try (Journal journal = Journal.open(directory, CODEC, new JournalConfig(64, 1, Duration.ofMillis(10)))) {
+            assertThrows(IllegalArgumentException.class, () -> journal.append(new TextMessage("x".repeat(64))));
+            assertEquals(0, journal.nextSequence());
+        }
+    }
+
+    @Test
+    void closedJournal_shouldRejectAppends() throws IOException {
+        Journal journal = Journal.open(directory, CODEC, new JournalConfig());
+        journal.close();
+        assertThrows(IllegalStateException.class, () -> journal.append(new TextMessage("late")));
+    }
+
+    @Test
+    void journaledNetwork_shouldJournalAndDeliverBroadcasts() throws Exception {
+        var factory = BroadcastNetworkFactory.journaled(BroadcastNetworkFactory.DEFAULT, directory, CODEC, new JournalConfig());
+        var network = (JournaledBroadcastNetwork) factory.create(new NetworkId.Str("journaled_network"), BroadcastMetrics.NOOP);
+        List<Message<?>> received = new ArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("peer")).join(network, received::add);
+
+        var messages = messages(3);
+        network.broadcast(messages.get(0));
+        network.broadcastAll(messages.subList(1, 3));
+        assertEquals(messages, received);
+        assertEquals(messages, replay(network.journal(), 0));
+        assertTrue(Files.isDirectory(directory.resolve(HexFormat.of().formatHex(FileBroadcastNetworkRegistry.encode(network.id())))));
+
+        network.shutdown().get();
+        network.broadcast(new TextMessage("after_shutdown"));
+        assertEquals(3, received.size());
+    }
+
+    @Test
+    void journaledNetworkIds_shouldNotEscapeTheDirectory() throws Exception {
+        var journals = directory.resolve("journals");
+        var factory = BroadcastNetworkFactory.journaled(BroadcastNetworkFactory.DEFAULT, journals, CODEC, new JournalConfig());
+        for (String id : List.of("../escaped", "/tmp/absolute", "..", "")) {
+            var network = factory.create(new NetworkId.Str(id), BroadcastMetrics.NOOP);
+            network.shutdown().get();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(journals), files.toList());
+        }
+        try (Stream<Path> files = Files.list(journals)) {
+            assertEquals(4, files.count());
+        }
+    }
+
+    private static List<Message<?>> messages(int count) {
+        return IntStream.range(0, count).<Message<?>>mapToObj(i -> new TextMessage("m" + i)).toList();
+    }
+
+    private static List<Message<?>> replay(Journal journal, long fromSequence) {
+        List<Message<?>> replayed = new ArrayList<>();
+        journal.replay(fromSequence, replayed::add);
+        return replayed;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LongHashMapTest {
+    @Test
+    void randomOperations_shouldMatchAHashMap() {
+        var map = new LongHashMap<String>();
+        Map<Long, String> expected = new HashMap<>();
+        var random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            // A small key range makes collisions, overwrites and removals of existing keys frequent
+            final long key = random.nextInt(4096) - 2048;
+            final String value = "v" + i;
+            switch (random.nextInt(5)) {
+                case 0 -> assertEquals(expected.put(key, value), map.put(key, value));
+                case 1 -> assertEquals(expected.putIfAbsent(key, value), map.putIfAbsent(key, value));
+                case 2 -> assertEquals(expected.remove(key), map.remove(key));
+                case 3 -> assertEquals(expected.replace(key, value), map.replace(key, value));
+                default -> assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        expected.forEach((key, value) -> assertEquals(value, map.get(key)));
+    }
+
+    @Test
+    void conditionalRemove_shouldRemoveOnlyTheExpectedValue() {
+        var map = new LongHashMap<String>();
+        map.put(0L, "zero");
+        assertFalse(map.remove(0L, "other"));
+        assertTrue(map.remove(0L, "zero"));
+        assertNull(map.get(0L));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void readers_shouldSeeStableEntriesWhileTheTablesGrow() throws InterruptedException {
+        var map = new LongHashMap<Long>();
+        for (long key = 0; key < 1024; key++) {
+            map.put(key, key);
+        }
+        var done = new AtomicBoolean(false);
+        var failure = new AtomicReference<String>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                for (long key = 0; key < 1024; key++) {
+                    if (!Long.valueOf(key).equals(map.get(key))) {
+                        failure.set("key " + key + " not found");
+                        return;
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (long key = 1024; key < 500_000; key++) {
+            map.put(key, key);
+            map.remove(key - 512);
+            map.put(key - 512, key - 512);
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(500_000, map.size());
+    }
+
+    @Test
+    void longNetworkIds_shouldBeStoredAndFound() {
+        var registry = new InMemoryBroadcastNetworkRegistry();
+        var longId = new NetworkId.Num(42L);
+        var stringId = new NetworkId.Str("42");
+        registry.store(new DefaultBroadcastNetwork(longId));
+        registry.store(new DefaultBroadcastNetwork(stringId));
+
+        assertEquals(2, registry.size());
+        assertEquals(longId, registry.find(new NetworkId.Num(42L)).orElseThrow().id());
+        assertEquals(stringId, registry.find(stringId).orElseThrow().id());
+        registry.remove(longId);
+        assertFalse(registry.find(longId).isPresent());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void peer_shouldJoinAndReceiveFromNetworksWithLongIds() {
+        var network = new DefaultBroadcastNetwork(new NetworkId.Num(7L));
+        var peer = new DefaultNetworkPeer(new RoutableId.Num(1L));
+        var received = new AtomicReference<Message<?>>();
+        assertTrue(peer.join(network, received::set));
+
+        var message = new StringMessage("hello");
+        network.broadcast(message);
+        assertEquals(message, received.get());
+        assertTrue(peer.leave(new NetworkId.Num(7L)));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MessagePoolTests {
+    private final NetworkId<?> networkId = new NetworkId.Str("pooled_network");
+
+    @Test
+    void releasedMessage_shouldBeReusedByTheNextAcquire() {
+        var pool = new MessagePool<String>(4);
+        var first = pool.acquire("first");
+        assertEquals(1, first.refCount());
+        var firstId = first.id();
+
+        assertTrue(first.release());
+        assertEquals(1, pool.available());
+
+        var second = pool.acquire("second");
+        assertSame(first, second);
+        assertEquals("second", second.payload());
+        assertFalse(firstId.equals(second.id()));
+        assertEquals(0, pool.available());
+    }
+
+    @Test
+    void releasedMessage_shouldRejectFurtherReferences() {
+        var message = new MessagePool<String>(4).acquire("payload");
+        message.retain();
+        assertFalse(message.release());
+        assertTrue(message.release());
+
+        assertThrows(IllegalStateException.class, message::release);
+        assertThrows(IllegalStateException.class, message::retain);
+    }
+
+    @Test
+    void fullPool_shouldDropTheReleasedMessages() {
+        var pool = new MessagePool<String>(1);
+        var first = pool.acquire("first");
+        var second = pool.acquire("second");
+        first.release();
+        second.release();
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    void idGenerator_shouldGenerateUniqueOrderedIds() {
+        var generator = new MessageIdGenerator();
+        Set<UUID> ids = new HashSet<>();
+        UUID previous = generator.get();
+        for (int i = 0; i < 1_000; i++) {
+            UUID next = generator.get();
+            assertEquals(previous.getMostSignificantBits(), next.getMostSignificantBits());
+            assertEquals(previous.getLeastSignificantBits() + 1, next.getLeastSignificantBits());
+            assertEquals(8, next.version());
+            assertEquals(2, next.variant());
+            assertTrue(previous.compareTo(next) < 0);
+            assertTrue(ids.add(next));
+            previous = next;
+        }
+    }
+
+    @Test
+    void synchronousBroadcast_shouldRecycleOnceThePublisherReleases() {
+        var pool = new MessagePool<String>(4);
+        var network = new DefaultBroadcastNetwork(networkId);
+        List<String> received = new ArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("peer_1")).join(network, message -> received.add((String) message.payload()));
+        new DefaultNetworkPeer(new RoutableId.String("peer_2")).join(network, message -> received.add((String) message.payload()));
+
+        var message = pool.acquire("payload");
+        network.broadcast(message);
+        assertEquals(1, message.refCount());
+        assertTrue(message.release());
+        assertEquals(List.of("payload", "payload"), received);
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    void mailbox_shouldRetainThePooledMessageUntilItIsConsumed() {
+        var pool = new MessagePool<String>(4);
+        var network = new DefaultBroadcastNetwork(networkId);
+        List<Runnable> pendingDrainTasks = new ArrayList<>();
+        Executor manualExecutor = pendingDrainTasks::add;
+        List<String> received = new ArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("mailbox_peer"))
+                .join(network, message -> received.add((String) message.payload()), JoinOptions.defaults().withMailbox(new MailboxConfig(4, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor)));
+
+        var message = pool.acquire("payload");
+        network.broadcast(message);
+        assertFalse(message.release());
+        assertEquals(1, message.refCount());
+
+        pendingDrainTasks.forEach(Runnable::run);
+        assertEquals(List.of("payload"), received);
+        assertEquals(0, message.refCount());
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    void conflatedMessage_shouldBeReleasedByTheMailbox() {
+        var pool = new MessagePool<String>(4);
+        var network = new DefaultBroadcastNetwork(networkId);
+        List<Runnable> pendingDrainTasks = new ArrayList<>();
+        Executor manualExecutor = pendingDrainTasks::add;
+        List<String> received = new ArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("conflating_peer"))
+                .join(network, message -> received.add((String) message.payload()),
+                        JoinOptions.defaults().withMailbox(new MailboxConfig(4, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor).withConflation()));
+
+        var older = pool.acquire("older", "key", Message.Priority.NORMAL);
+        network.broadcast(older);
+        older.release();
+        var newer = pool.acquire("newer", "key", Message.Priority.NORMAL);
+        network.broadcast(newer);
+        newer.release();
+        assertEquals(0, older.refCount());
+
+        pendingDrainTasks.forEach(Runnable::run);
+        assertEquals(List.of("newer"), received);
+        assertEquals(0, newer.refCount());
+    }
+
+    @Test
+    void asynchronousDispatch_shouldRetainThePooledMessageUntilDelivered() {
+        var pool = new MessagePool<String>(4);
+        List<Runnable> pendingTasks = new ArrayList<>();
+        var network = new DefaultBroadcastNetwork(networkId, pendingTasks::add);
+        List<String> received = new ArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("async_peer")).join(network, message -> received.add((String) message.payload()));
+
+        var message = pool.acquire("payload");
+        network.broadcast(message);
+        assertFalse(message.release());
+
+        pendingTasks.forEach(Runnable::run);
+        assertEquals(List.of("payload"), received);
+        assertEquals(0, message.refCount());
+    }
+
+    @Test
+    void replayBuffer_shouldRetainACopyOfThePooledMessage() {
+        var pool = new MessagePool<String>(4);
+        var network = new DefaultBroadcastNetwork(networkId, BroadcastExecutors.callerThread(), BroadcastMetrics.NOOP, null, new ReplayConfig(4));
+        var message = pool.acquire("retained");
+        var id = message.id();
+        network.broadcast(message);
+        message.release();
+        pool.acquire("recycled");
+
+        List<Message<?>> replayed = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("late_peer")).join(network, replayed::add);
+        assertEquals(1, replayed.size());
+        assertEquals(id, replayed.get(0).id());
+        assertEquals("retained", replayed.get(0).payload());
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NetworkBridgeTests {
+    private static final MessageCodec CODEC = new JournalTests.TextCodec();
+    private static final SocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    @TempDir
+    Path directory;
+
+    private BroadcastNetwork firstNetwork;
+    private BroadcastNetwork secondNetwork;
+    private final List<NetworkBridge> bridges = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        firstNetwork = new DefaultBroadcastNetwork(new NetworkId.Str("first_network"));
+        secondNetwork = new DefaultBroadcastNetwork(new NetworkId.Str("second_network"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        bridges.forEach(NetworkBridge::close);
+    }
+
+    @Test
+    void tcpBridge_shouldMirrorBroadcastsInBothDirections() throws Exception {
+        var server = open(firstNetwork, new BridgeConfig());
+        var client = open(secondNetwork, new BridgeConfig());
+        client.connect(server.bind(LOOPBACK));
+        awaitCondition(() -> server.connectionCount() == 1 && client.connectionCount() == 1);
+
+        List<Object> firstReceived = new CopyOnWriteArrayList<>();
+        List<Object> secondReceived = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("first_peer")).join(firstNetwork, message -> firstReceived.add(message.payload()));
+        new DefaultNetworkPeer(new RoutableId.String("second_peer")).join(secondNetwork, message -> secondReceived.add(message.payload()));
+
+        firstNetwork.broadcast(new StringMessage("m1"));
+        firstNetwork.broadcast(new StringMessage("m2"));
+        awaitCondition(() -> secondReceived.size() == 2);
+        assertEquals(List.of("m1", "m2"), secondReceived);
+
+        secondNetwork.broadcast(new StringMessage("reply"));
+        awaitCondition(() -> firstReceived.size() == 3);
+        assertEquals(List.of("m1", "m2", "reply"), firstReceived);
+
+        // A received message is not sent back to the bridge it came from: an echo would arrive before m3
+        firstNetwork.broadcast(new StringMessage("m3"));
+        awaitCondition(() -> secondReceived.size() >= 4);
+        assertEquals(List.of("m1", "m2", "reply", "m3"), secondReceived);
+    }
+
+    @Test
+    void receivedMessages_shouldBeTheDecodedMessages() throws Exception {
+        var server = open(firstNetwork, new BridgeConfig());
+        var client = open(secondNetwork, new BridgeConfig());
+        client.connect(server.bind(LOOPBACK));
+        awaitCondition(() -> server.connectionCount() == 1);
+
+        List<Message<?>> received = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("second_peer")).join(secondNetwork, received::add);
+        var message = new StringMessage("payload");
+        firstNetwork.broadcast(message);
+        awaitCondition(() -> received.size() == 1);
+        assertEquals(message.id(), received.get(0).id());
+        // Local peers get what the codec decoded, not a bridge wrapper
+        assertInstanceOf(JournalTests.TextMessage.class, received.get(0));
+    }
+
+    @Test
+    void unixDomainBridge_shouldMirrorBroadcasts() throws Exception {
+        var socket = UnixDomainSocketAddress.of(directory.resolve("bridge.sock"));
+        var server = open(firstNetwork, new BridgeConfig());
+        var client = open(secondNetwork, new BridgeConfig());
+        server.bind(socket);
+        client.connect(socket);
+        awaitCondition(() -> server.connectionCount() == 1);
+
+        List<Object> received = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("second_peer")).join(secondNetwork, message -> received.add(message.payload()));
+        firstNetwork.broadcast(new StringMessage("over_unix_socket"));
+        awaitCondition(() -> received.size() == 1);
+        assertEquals(List.of("over_unix_socket"), received);
+
+        server.close();
+        assertFalse(Files.exists(socket.getPath()));
+    }
+
+    @Test
+    void hub_shouldForwardBetweenItsConnections() throws Exception {
+        var thirdNetwork = new DefaultBroadcastNetwork(new NetworkId.Str("third_network"));
+        var hub = open(firstNetwork, new BridgeConfig());
+        var address = hub.bind(LOOPBACK);
+        open(secondNetwork, new BridgeConfig()).connect(address);
+        open(thirdNetwork, new BridgeConfig()).connect(address);
+        awaitCondition(() -> hub.connectionCount() == 2);
+
+        List<Object> received = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("third_peer")).join(thirdNetwork, message -> received.add(message.payload()));
+        secondNetwork.broadcast(new StringMessage("through_the_hub"));
+        awaitCondition(() -> received.size() == 1);
+        assertEquals(List.of("through_the_hub"), received);
+    }
+
+    @Test
+    void messagesDroppedByTheNetwork_shouldNotKeepTheirOrigin() throws Exception {
+        AtomicInteger rejected = new AtomicInteger();
+        Executor rejectingExecutor = task -> {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Simulated saturation");
+        };
+        var saturatedNetwork = new DefaultBroadcastNetwork(new NetworkId.Str("saturated_network"), rejectingExecutor, BroadcastMetrics.NOOP);
+        var server = open(saturatedNetwork, new BridgeConfig());
+        open(secondNetwork, new BridgeConfig()).connect(server.bind(LOOPBACK));
+        awaitCondition(() -> server.connectionCount() == 1);
+
+        secondNetwork.broadcast(new StringMessage("never_delivered"));
+        awaitCondition(() -> rejected.get() == 1);
+        awaitCondition(() -> server.pendingOrigins() == 0);
+    }
+
+    @Test
+    void slowConnection_shouldApplyTheOverflowPolicy() throws Exception {
+        AtomicInteger overflowed = new AtomicInteger();
+        var config = new BridgeConfig(128 * 1024, 256 * 1024, OverflowPolicy.FAIL, message -> overflowed.incrementAndGet());
+        var bridge = open(firstNetwork, config);
+        try (ServerSocketChannel neverReads = ServerSocketChannel.open()) {
+            neverReads.bind(LOOPBACK);
+            bridge.connect(neverReads.getLocalAddress());
+            var payload = "x".repeat(64 * 1024);
+            for (int i = 0; i < 2_000 && overflowed.get() == 0; i++) {
+                firstNetwork.broadcast(new StringMessage(payload));
+            }
+            assertTrue(overflowed.get() > 0);
+        }
+    }
+
+    @Test
+    void oversizedFrame_shouldCloseTheConnection() throws Exception {
+        var bridge = open(firstNetwork, new BridgeConfig(1024, 4096, OverflowPolicy.DROP_NEWEST));
+        var address = bridge.bind(LOOPBACK);
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            awaitCondition(() -> bridge.connectionCount() == 1);
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, 1024 * 1024));
+            awaitCondition(() -> bridge.connectionCount() == 0);
+        }
+    }
+
+    @Test
+    void closedBridge_shouldLeaveTheNetwork() throws Exception {
+        var bridge = open(firstNetwork, new BridgeConfig());
+        assertEquals(1, firstNetwork.size());
+        bridge.close();
+        assertEquals(0, firstNetwork.size());
+        assertThrows(IllegalStateException.class, () -> bridge.bind(LOOPBACK));
+    }
+
+    private NetworkBridge open(BroadcastNetwork network, BridgeConfig config) throws Exception {
+        var bridge = NetworkBridge.open(network, CODEC, config);
+        bridges.add(bridge);
+        return bridge;
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -17,10 +17,20 @@
 
 package com.github.alessandrofrenna.broaddy;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.function.Consumer;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -30,6 +40,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class NetworksAndPeersTests {
@@ -42,6 +53,12 @@ public class NetworksAndPeersTests {
         }
     }
 
+    record IntegerMessage(UUID id, Integer payload) implements Message<Integer> {
+        IntegerMessage(Integer payload) {
+            this(UUID.randomUUID(), payload);
+        }
+    }
+
     @BeforeEach
     void setUp() {
         network = new DefaultBroadcastNetwork(new NetworkId.Str("test_network"));
@@ -94,6 +111,112 @@ public class NetworksAndPeersTests {
         assertEquals(2, msgCount.get());
     }
 
+    @Test
+    void asyncBroadcast_shouldReturnBeforeSlowPeersConsumeTheMessage() throws InterruptedException {
+        Executor threadPerTask = task -> new Thread(task).start();
+        BroadcastNetwork asyncNetwork = new DefaultBroadcastNetwork(new NetworkId.UUID(), threadPerTask);
+        CountDownLatch releaseSlowPeer = new CountDownLatch(1);
+        CountDownLatch slowPeerDelivered = new CountDownLatch(1);
+        CountDownLatch fastPeerDelivered = new CountDownLatch(1);
+        var slowPeer = new DefaultNetworkPeer(new RoutableId.UUID());
+        var fastPeer = new DefaultNetworkPeer(new RoutableId.UUID());
+        slowPeer.join(asyncNetwork, (msg) -> {
+            try {
+                releaseSlowPeer.await();
+                slowPeerDelivered.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        fastPeer.join(asyncNetwork, (msg) -> fastPeerDelivered.countDown());
+
+        // A synchronous dispatch would block here until the slow peer is released
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> asyncNetwork.broadcast(new StringMessage("Hello world")));
+        assertTrue(fastPeerDelivered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, slowPeerDelivered.getCount());
+        releaseSlowPeer.countDown();
+        assertTrue(slowPeerDelivered.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void concurrentBroadcasts_shouldDeliverEveryMessageToEveryPeer() throws InterruptedException {
+        final int producers = 4;
+        final int messagesPerProducer = 500;
+        AtomicInteger msgCount = new AtomicInteger(0);
+        var peer1 = new DefaultNetworkPeer(new RoutableId.UUID());
+        var peer2 = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer1.join(network, (msg) -> msgCount.incrementAndGet());
+        peer2.join(network, (msg) -> msgCount.incrementAndGet());
+
+        Thread[] producerThreads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            producerThreads[i] = new Thread(() -> {
+                for (int j = 0; j < messagesPerProducer; j++) {
+                    network.broadcast(new StringMessage("Hello world"));
+                }
+            });
+            producerThreads[i].start();
+        }
+        for (Thread producerThread : producerThreads) {
+            producerThread.join();
+        }
+        assertEquals(2 * producers * messagesPerProducer, msgCount.get());
+    }
+
+    @Test
+    void broadcastAll_shouldDeliverTheBurstInOneInvocationToBatchConsumers() {
+        List<Integer> batchSizes = new ArrayList<>();
+        AtomicInteger singleMessages = new AtomicInteger(0);
+        var batchPeer = new DefaultNetworkPeer(new RoutableId.UUID());
+        var messagePeer = new DefaultNetworkPeer(new RoutableId.UUID());
+        batchPeer.join(network, (msg) -> singleMessages.incrementAndGet(), JoinOptions.defaults().withBatchConsumer((messages) -> batchSizes.add(messages.size())));
+        messagePeer.join(network, (msg) -> singleMessages.incrementAndGet());
+
+        network.broadcastAll(List.of(new StringMessage("m1"), new StringMessage("m2"), new StringMessage("m3")));
+        assertEquals(List.of(3), batchSizes);
+        assertEquals(3, singleMessages.get());
+
+        // a single broadcast still reaches the per message consumer
+        network.broadcast(new StringMessage("m4"));
+        assertEquals(List.of(3), batchSizes);
+        assertEquals(5, singleMessages.get());
+    }
+
+    @Test
+    void typedPeers_shouldOnlyReceiveTheSubscribedPayloadTypes() {
+        List<String> strings = new ArrayList<>();
+        List<CharSequence> charSequences = new ArrayList<>();
+        List<Integer> integers = new ArrayList<>();
+        AtomicInteger untyped = new AtomicInteger(0);
+        new DefaultNetworkPeer(new RoutableId.UUID()).join(network, message -> strings.add(message.payload()), JoinOptions.of(String.class));
+        new DefaultNetworkPeer(new RoutableId.UUID()).join(network, message -> charSequences.add(message.payload()), JoinOptions.of(CharSequence.class));
+        new DefaultNetworkPeer(new RoutableId.UUID()).join(network, message -> integers.add(message.payload()), JoinOptions.of(Integer.class));
+        new DefaultNetworkPeer(new RoutableId.UUID()).join(network, (msg) -> untyped.incrementAndGet());
+        assertEquals(4, network.size());
+
+        network.broadcast(new StringMessage("Hello world"));
+        network.broadcast(new IntegerMessage(42));
+        network.broadcastAll(List.of(new IntegerMessage(1), new StringMessage("burst"), new IntegerMessage(2)));
+
+        assertEquals(List.of("Hello world", "burst"), strings);
+        assertEquals(List.of("Hello world", "burst"), charSequences);
+        assertEquals(List.of(42, 1, 2), integers);
+        assertEquals(5, untyped.get());
+    }
+
+    @Test
+    void typedPeers_shouldBeRoutedAgainAfterLeavingAndJoining() {
+        List<Integer> integers = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer.join(network, message -> integers.add(message.payload()), JoinOptions.of(Integer.class));
+        network.broadcast(new IntegerMessage(1));
+        assertTrue(peer.leave(network.id()));
+        network.broadcast(new IntegerMessage(2));
+        peer.join(network, message -> integers.add(message.payload()), JoinOptions.of(Integer.class));
+        network.broadcast(new IntegerMessage(3));
+        assertEquals(List.of(1, 3), integers);
+    }
+
     @Test
     void disconnectPeer_shouldSucceed() {
         NetworkPeer peer1 = new DefaultNetworkPeer(new RoutableId.UUID());
@@ -116,6 +239,103 @@ public class NetworksAndPeersTests {
         assertEquals(BroadcastNetwork.Disconnect.NOT_FOUND, disconnectResult);
     }
 
+    @Test
+    void bulkConnectAndDisconnect_shouldReportTheResultOfEachPeer() {
+        List<Routable> peers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            peers.add(new DefaultNetworkPeer(new RoutableId.String("bulk_peer_" + i)));
+        }
+        peers.add(new DefaultNetworkPeer(new RoutableId.String("bulk_peer_0")));
+
+        List<BroadcastNetwork.Connect> connects = network.connectPeers(peers);
+        assertEquals(1001, connects.size());
+        assertEquals(1000, connects.stream().filter(connect -> connect == BroadcastNetwork.Connect.OK).count());
+        assertEquals(BroadcastNetwork.Connect.EXISTING_ID, connects.get(1000));
+        assertEquals(1000, network.size());
+
+        List<BroadcastNetwork.Disconnect> disconnects = network.disconnectPeers(List.of(
+                new RoutableId.String("bulk_peer_10"),
+                new RoutableId.String("missing_peer"),
+                new RoutableId.String("bulk_peer_999")
+        ));
+        assertEquals(List.of(BroadcastNetwork.Disconnect.OK, BroadcastNetwork.Disconnect.NOT_FOUND, BroadcastNetwork.Disconnect.OK), disconnects);
+        assertEquals(998, network.size());
+    }
+
+    @Test
+    void bulkConnect_onAnOfflineNetwork_shouldFailForEveryPeer() {
+        network.shutdown();
+        List<BroadcastNetwork.Connect> connects = network.connectPeers(List.of(
+                new DefaultNetworkPeer(new RoutableId.UUID()),
+                new DefaultNetworkPeer(new RoutableId.UUID())
+        ));
+        assertEquals(List.of(BroadcastNetwork.Connect.NETWORK_OFFLINE, BroadcastNetwork.Connect.NETWORK_OFFLINE), connects);
+    }
+
+    @Test
+    void joinAll_shouldJoinEveryNetwork() {
+        BroadcastNetwork network2 = new DefaultBroadcastNetwork(new NetworkId.UUID());
+        NetworkPeer peer1 = new DefaultNetworkPeer(new RoutableId.String("test_peer_id_1"));
+        peer1.join(network, (msg) -> {});
+
+        List<Boolean> results = peer1.joinAll(List.of(network, network2), (msg) -> {});
+        assertEquals(List.of(false, true), results);
+        assertEquals(2, peer1.countJoinedNetworks());
+    }
+
+    @Test
+    void networkWithOnlyTheSingleItemMethods_shouldSupportTheBulkOperations() {
+        // Implements what a BroadcastNetwork had to implement before the bulk operations existed
+        var delegate = new DefaultBroadcastNetwork(new NetworkId.Str("single_item_network"));
+        BroadcastNetwork singleItemNetwork = new BroadcastNetwork() {
+            @Override
+            public NetworkId<?> id() {
+                return delegate.id();
+            }
+
+            @Override
+            public Connect connectPeer(Routable peer) {
+                return delegate.connectPeer(peer);
+            }
+
+            @Override
+            public Disconnect disconnectPeer(RoutableId<?> routableId) {
+                return delegate.disconnectPeer(routableId);
+            }
+
+            @Override
+            public long size() {
+                return delegate.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return delegate.isEmpty();
+            }
+
+            @Override
+            public void broadcast(Message<?> message) {
+                delegate.broadcast(message);
+            }
+
+            @Override
+            public CompletableFuture<Void> shutdown() {
+                return delegate.shutdown();
+            }
+        };
+        List<Message<?>> received = new ArrayList<>();
+        var peer1 = new DefaultNetworkPeer(new RoutableId.String("test_peer_id_1"));
+        var peer2 = new DefaultNetworkPeer(new RoutableId.String("test_peer_id_2"));
+        assertTrue(peer1.join(singleItemNetwork, received::add));
+
+        assertEquals(List.of(BroadcastNetwork.Connect.EXISTING_ID, BroadcastNetwork.Connect.OK), singleItemNetwork.connectPeers(List.of(peer1, peer2)));
+        var messages = List.of(new StringMessage("first"), new StringMessage("second"));
+        singleItemNetwork.broadcastAll(messages);
+        assertEquals(messages, received);
+        assertEquals(List.of(BroadcastNetwork.Disconnect.OK, BroadcastNetwork.Disconnect.NOT_FOUND), singleItemNetwork.disconnectPeers(List.of(peer2.id(), peer2.id())));
+        assertEquals(1, singleItemNetwork.size());
+    }
+
     @Test
     void shutdown_shouldSucceed() throws ExecutionException, InterruptedException, TimeoutException {
         NetworkPeer peer1 = new DefaultNetworkPeer(new RoutableId.String("test_peer_id_1"));
@@ -152,6 +372,26 @@ public class NetworksAndPeersTests {
         assertEquals(3, network.size());
     }
 
+    @Test
+    void primitiveLongIds_shouldIdentifyPeersAndNetworks() {
+        BroadcastNetwork longNetwork = new DefaultBroadcastNetwork(new NetworkId.Num(350L));
+        NetworkPeer peer1 = new DefaultNetworkPeer(new RoutableId.Num(350L));
+        // A user defined id with the same value is a different id
+        NetworkPeer peer2 = new DefaultNetworkPeer(new LongId(350L));
+        assertTrue(peer1.join(longNetwork, (msg) -> {}));
+        assertFalse(peer1.join(longNetwork, (msg) -> {}));
+        assertTrue(peer2.join(longNetwork, (msg) -> {}));
+        assertTrue(peer1.join(network, (msg) -> {}));
+        assertEquals(2, longNetwork.size());
+        assertEquals(2, peer1.countJoinedNetworks());
+
+        assertTrue(peer1.leave(new NetworkId.Num(350L)));
+        assertEquals(BroadcastNetwork.Disconnect.OK, longNetwork.disconnectPeer(new LongId(350L)));
+        assertEquals(BroadcastNetwork.Disconnect.NOT_FOUND, longNetwork.disconnectPeer(new RoutableId.Num(350L)));
+        assertEquals(1, peer1.countJoinedNetworks());
+        assertTrue(longNetwork.isEmpty());
+    }
+
     @Test
     void peerConnectionToMultipleNetworks_shouldSucceed() {
         BroadcastNetwork network2 = new DefaultBroadcastNetwork(new NetworkId.UUID());
@@ -166,12 +406,45 @@ public class NetworksAndPeersTests {
         assertEquals(1, network2.size());
     }
 
+    @Test
+    void parallelFanOut_shouldDeliverToEveryPeerBeforeReturning() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            var parallelNetwork = new DefaultBroadcastNetwork(new NetworkId.Str("parallel_network"),
+                    BroadcastExecutors.callerThread(), BroadcastMetrics.NOOP, new ParallelFanOut(PeerStore.SEGMENT_SIZE, pool));
+            final int peers = 5000;
+            AtomicIntegerArray deliveries = new AtomicIntegerArray(peers);
+            for (int i = 0; i < peers; i++) {
+                final int peerIndex = i;
+                new DefaultNetworkPeer(new RoutableId.Num(i)).join(parallelNetwork, (msg) -> deliveries.incrementAndGet(peerIndex));
+            }
+
+            parallelNetwork.broadcast(new StringMessage("parallel_message"));
+            parallelNetwork.broadcastAll(List.of(new StringMessage("m1"), new StringMessage("m2")));
+            for (int i = 0; i < peers; i++) {
+                assertEquals(3, deliveries.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void parallelFanOut_shouldValidateItsConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new ParallelFanOut(PeerStore.SEGMENT_SIZE - 1));
+        assertThrows(IllegalArgumentException.class, () -> new ParallelFanOut(PeerStore.SEGMENT_SIZE, null));
+        assertEquals(PeerStore.SEGMENT_SIZE, new ParallelFanOut(PeerStore.SEGMENT_SIZE, new ForkJoinPool(2)).chunkSize(100));
+        assertEquals(PeerStore.SEGMENT_SIZE * 16, new ParallelFanOut(PeerStore.SEGMENT_SIZE, new ForkJoinPool(2)).chunkSize(PeerStore.SEGMENT_SIZE * 128));
+    }
+
     @Test
     void callingMethodsOfTheNetworkPeerWithNulls_shouldFail() {
         assertThrows(IllegalArgumentException.class, () -> new DefaultNetworkPeer(null));
         NetworkPeer networkPeer = new DefaultNetworkPeer(new RoutableId.String("test_peer"));
         assertThrows(IllegalArgumentException.class, () -> networkPeer.join(null, (msg) -> {}));
         assertThrows(IllegalArgumentException.class, () -> networkPeer.join(new DefaultBroadcastNetwork(new NetworkId.UUID()), null));
+        assertThrows(IllegalArgumentException.class, () -> networkPeer.join(network, (msg) -> {}, null));
+        assertThrows(IllegalArgumentException.class, () -> JoinOptions.of(null));
         assertThrows(IllegalArgumentException.class, () -> networkPeer.leave(null));
         assertThrows(IllegalArgumentException.class, () -> networkPeer.forceDisconnection(null));
         assertThrows(IllegalArgumentException.class, () -> networkPeer.deliverMessage(null, new StringMessage("")));
@@ -182,6 +455,59 @@ public class NetworksAndPeersTests {
         assertThrows(IllegalArgumentException.class, () -> new DefaultNetworkPeer(null));
         assertThrows(IllegalArgumentException.class, () -> network.connectPeer(null));
         assertThrows(IllegalArgumentException.class, () -> network.disconnectPeer(null));
+        assertThrows(IllegalArgumentException.class, () -> new DefaultBroadcastNetwork(new NetworkId.UUID(), null));
+        assertThrows(IllegalArgumentException.class, () -> network.broadcastAll(null));
+        assertThrows(IllegalArgumentException.class, () -> network.broadcastAll(Arrays.asList(new StringMessage("m1"), null)));
+        assertThrows(IllegalArgumentException.class, () -> network.connectPeers(null));
+        assertThrows(IllegalArgumentException.class, () -> network.disconnectPeers(null));
+        assertThrows(IllegalArgumentException.class, () -> network.connectPeers(Arrays.asList(new DefaultNetworkPeer(new RoutableId.UUID()), null)));
     }
 
+    @Test
+    void broadcastInFlight_shouldNotBeConsumedAfterThePeerLeft() {
+        List<Runnable> pendingDeliveries = new ArrayList<>();
+        var asyncNetwork = new DefaultBroadcastNetwork(new NetworkId.Str("in_flight_network"), pendingDeliveries::add);
+        List<Message<?>> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.String("leaving_peer"));
+        assertTrue(peer.join(asyncNetwork, received::add));
+
+        asyncNetwork.broadcast(new StringMessage("in_flight"));
+        assertEquals(1, pendingDeliveries.size());
+        assertTrue(peer.leave(asyncNetwork.id()));
+        // The stale delivery targets the first membership, not the one created by joining again
+        assertTrue(peer.join(asyncNetwork, received::add));
+        var afterRejoin = new StringMessage("after_rejoin");
+        asyncNetwork.broadcast(afterRejoin);
+        pendingDeliveries.forEach(Runnable::run);
+
+        assertEquals(List.of(afterRejoin), received);
+    }
+
+    @Test
+    void peerDisconnectedByTheNetwork_shouldJoinAgain() {
+        List<Message<?>> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.String("dropped_peer"));
+        assertTrue(peer.join(network, received::add));
+        assertFalse(peer.join(network, received::add));
+        assertEquals(BroadcastNetwork.Disconnect.OK, network.disconnectPeer(peer.id()));
+
+        assertTrue(peer.join(network, received::add));
+        assertEquals(1, peer.countJoinedNetworks());
+        var message = new StringMessage("after_rejoin");
+        network.broadcast(message);
+
+        assertEquals(List.of(message), received);
+    }
+
+    @Test
+    void leavingANetworkThatDroppedThePeer_shouldForgetTheMembership() {
+        var peer = new DefaultNetworkPeer(new RoutableId.String("dropped_peer"));
+        assertTrue(peer.join(network, message -> {}));
+        assertEquals(BroadcastNetwork.Disconnect.OK, network.disconnectPeer(peer.id()));
+
+        assertFalse(peer.leave(network.id()));
+        assertEquals(0, peer.countJoinedNetworks());
+        assertTrue(peer.join(network, message -> {}));
+        assertTrue(peer.leave(network.id()));
+    }
 }
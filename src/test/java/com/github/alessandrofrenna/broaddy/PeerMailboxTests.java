@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PeerMailboxTests {
+    private BroadcastNetwork network;
+    private List<Runnable> pendingDrainTasks;
+    private Executor manualExecutor;
+
+    @BeforeEach
+    void setUp() {
+        network = new DefaultBroadcastNetwork(new NetworkId.Str("mailbox_network"));
+        pendingDrainTasks = new ArrayList<>();
+        manualExecutor = pendingDrainTasks::add;
+    }
+
+    @Test
+    void dropNewest_shouldKeepTheFirstMessages() {
+        List<String> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer.join(network, consumerOf(received), JoinOptions.defaults().withMailbox(new MailboxConfig(2, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor)));
+
+        broadcast("m1", "m2", "m3", "m4");
+        runDrainTasks();
+        assertEquals(List.of("m1", "m2"), received);
+    }
+
+    @Test
+    void dropOldest_shouldKeepTheLastMessages() {
+        List<String> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer.join(network, consumerOf(received), JoinOptions.defaults().withMailbox(new MailboxConfig(2, OverflowPolicy.DROP_OLDEST, message -> { }, manualExecutor)));
+
+        broadcast("m1", "m2", "m3", "m4");
+        runDrainTasks();
+        assertEquals(List.of("m3", "m4"), received);
+    }
+
+    @Test
+    void fail_shouldHandOverflowingMessagesToTheHandler() {
+        List<String> received = new ArrayList<>();
+        List<String> overflowed = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer.join(network, consumerOf(received), JoinOptions.defaults().withMailbox(new MailboxConfig(1, OverflowPolicy.FAIL, consumerOf(overflowed), manualExecutor)));
+
+        broadcast("m1", "m2", "m3");
+        runDrainTasks();
+        assertEquals(List.of("m1"), received);
+        assertEquals(List.of("m2", "m3"), overflowed);
+    }
+
+    @Test
+    void block_shouldDeliverEveryMessageInOrder() throws InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(100);
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID(), new MailboxConfig(4, OverflowPolicy.BLOCK));
+        peer.join(network, message -> {
+            received.add((String) message.payload());
+            delivered.countDown();
+        });
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add("m" + i);
+            network.broadcast(new StringMessage("m" + i));
+        }
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, received);
+    }
+
+    @Test
+    void mailboxWithBatchConsumer_shouldDrainPendingMessagesInOneInvocation() {
+        List<List<Message<?>>> batches = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID(), new MailboxConfig(8, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor));
+        peer.join(network, (msg) -> { }, JoinOptions.defaults().withBatchConsumer(batches::add));
+
+        broadcast("m1", "m2");
+        network.broadcastAll(List.of(new StringMessage("m3"), new StringMessage("m4")));
+        runDrainTasks();
+        assertEquals(1, batches.size());
+        assertEquals(4, batches.get(0).size());
+    }
+
+    @Test
+    void consumerThrowingAnError_shouldNotStopTheMailbox() {
+        List<String> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID(), new MailboxConfig(8, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor));
+        peer.join(network, (msg) -> { }, JoinOptions.defaults().withBatchConsumer(messages -> {
+            if (received.isEmpty()) {
+                received.add("failed");
+                throw new StackOverflowError();
+            }
+            messages.forEach(message -> received.add((String) message.payload()));
+        }));
+
+        broadcast("m1");
+        assertThrows(StackOverflowError.class, () -> pendingDrainTasks.remove(0).run());
+        broadcast("m2");
+        runDrainTasks();
+        assertEquals(List.of("failed", "m2"), received);
+    }
+
+    @Test
+    void leave_shouldDiscardPendingMessages() {
+        List<String> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer.join(network, consumerOf(received), JoinOptions.defaults().withMailbox(new MailboxConfig(8, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor)));
+
+        broadcast("m1", "m2");
+        peer.leave(network.id());
+        runDrainTasks();
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void conflatingMailbox_shouldKeepOnlyTheLatestMessageOfEveryKey() throws Exception {
+        List<String> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer.join(network, consumerOf(received), JoinOptions.defaults().withMailbox(new MailboxConfig(2, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor).withConflation()));
+
+        var superseded = network.broadcastAsync(new KeyedMessage("EURUSD", "EURUSD 1.10"));
+        network.broadcast(new KeyedMessage("GBPUSD", "GBPUSD 1.25"));
+        for (int i = 1; i <= 1000; i++) {
+            network.broadcast(new KeyedMessage("EURUSD", "EURUSD 1.1" + i));
+            network.broadcast(new KeyedMessage("GBPUSD", "GBPUSD 1.2" + i));
+        }
+        assertEquals(1, superseded.get().failed());
+
+        runDrainTasks();
+        assertEquals(List.of("EURUSD 1.11000", "GBPUSD 1.21000"), received);
+    }
+
+    @Test
+    void conflatingMailbox_shouldQueueMessagesWithoutKey() {
+        List<String> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer.join(network, consumerOf(received), JoinOptions.defaults().withMailbox(new MailboxConfig(8, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor).withConflation()));
+
+        network.broadcast(new KeyedMessage("EURUSD", "EURUSD 1.10"));
+        broadcast("m1", "m2");
+        network.broadcast(new KeyedMessage("EURUSD", "EURUSD 1.11"));
+        runDrainTasks();
+        network.broadcast(new KeyedMessage("EURUSD", "EURUSD 1.12"));
+        runDrainTasks();
+        assertEquals(List.of("EURUSD 1.11", "m1", "m2", "EURUSD 1.12"), received);
+    }
+
+    @Test
+    void priorityLanes_shouldDeliverHighPriorityMessagesFirst() {
+        List<String> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer.join(network, consumerOf(received), JoinOptions.defaults().withMailbox(new MailboxConfig(8, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor)));
+
+        network.broadcast(new PriorityMessage(Message.Priority.BULK, "bulk"));
+        broadcast("normal");
+        network.broadcast(new PriorityMessage(Message.Priority.HIGH, "invalidation"));
+        runDrainTasks();
+        assertEquals(List.of("invalidation", "normal", "bulk"), received);
+    }
+
+    @Test
+    void priorityLanes_shouldNotStarveBulkMessages() {
+        List<List<Message<?>>> batches = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID(), new MailboxConfig(512, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor));
+        peer.join(network, (msg) -> { }, JoinOptions.defaults().withBatchConsumer(batches::add));
+
+        for (int i = 0; i < 300; i++) {
+            broadcast("normal_" + i);
+            network.broadcast(new PriorityMessage(Message.Priority.BULK, "bulk_" + i));
+        }
+        pendingDrainTasks.remove(0).run();
+        List<Message<?>> firstBatch = batches.get(0);
+        long bulkMessages = firstBatch.stream().filter(message -> message.priority() == Message.Priority.BULK).count();
+        assertEquals(256, firstBatch.size());
+        assertEquals(51, bulkMessages);
+    }
+
+    @Test
+    void priorityLanes_shouldNotStarveNormalMessages() {
+        List<List<Message<?>>> batches = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID(), new MailboxConfig(512, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor));
+        peer.join(network, (msg) -> { }, JoinOptions.defaults().withBatchConsumer(batches::add));
+
+        for (int i = 0; i < 300; i++) {
+            broadcast("normal_" + i);
+            network.broadcast(new PriorityMessage(Message.Priority.HIGH, "high_" + i));
+        }
+        pendingDrainTasks.remove(0).run();
+        List<Message<?>> firstBatch = batches.get(0);
+        long normalMessages = firstBatch.stream().filter(message -> message.priority() == Message.Priority.NORMAL).count();
+        assertEquals(256, firstBatch.size());
+        assertEquals(51, normalMessages);
+        assertEquals(Message.Priority.HIGH, firstBatch.get(0).priority());
+    }
+
+    @Test
+    void priorityLanes_shouldBoundEveryLaneByTheCapacity() {
+        List<String> received = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        peer.join(network, consumerOf(received), JoinOptions.defaults().withMailbox(new MailboxConfig(1, OverflowPolicy.DROP_NEWEST, message -> { }, manualExecutor)));
+
+        network.broadcast(new PriorityMessage(Message.Priority.HIGH, "high_1"));
+        network.broadcast(new PriorityMessage(Message.Priority.HIGH, "high_2"));
+        broadcast("normal_1", "normal_2");
+        network.broadcast(new PriorityMessage(Message.Priority.BULK, "bulk_1"));
+        network.broadcast(new PriorityMessage(Message.Priority.BULK, "bulk_2"));
+        runDrainTasks();
+        assertEquals(List.of("high_1", "normal_1", "bulk_1"), received);
+    }
+
+    @Test
+    void invalidMailboxConfig_shouldFail() {
+        assertThrows(IllegalArgumentException.class, () -> new MailboxConfig(0, OverflowPolicy.BLOCK));
+        assertThrows(IllegalArgumentException.class, () -> new MailboxConfig(1, null));
+        assertThrows(IllegalArgumentException.class, () -> new MailboxConfig(1, OverflowPolicy.FAIL, null));
+        assertThrows(IllegalArgumentException.class, () -> new DefaultNetworkPeer(new RoutableId.UUID(), (MailboxConfig) null));
+        var peer = new DefaultNetworkPeer(new RoutableId.UUID());
+        assertThrows(IllegalArgumentException.class, () -> JoinOptions.defaults().withMailbox(null));
+    }
+
+    private void broadcast(String... payloads) {
+        for (String payload : payloads) {
+            network.broadcast(new StringMessage(payload));
+        }
+    }
+
+    private void runDrainTasks() {
+        while (!pendingDrainTasks.isEmpty()) {
+            pendingDrainTasks.remove(0).run();
+        }
+    }
+
+    private static Consumer<Message<?>> consumerOf(List<String> payloads) {
+        return message -> payloads.add((String) message.payload());
+    }
+
+    record KeyedMessage(UUID id, String payload, String conflationKey) implements Message<String> {
+        KeyedMessage(String conflationKey, String payload) {
+            this(UUID.randomUUID(), payload, conflationKey);
+        }
+    }
+
+    record PriorityMessage(UUID id, Priority priority, String payload) implements Message<String> {
+        PriorityMessage(Priority priority, String payload) {
+            this(UUID.randomUUID(), priority, payload);
+        }
+    }
+}
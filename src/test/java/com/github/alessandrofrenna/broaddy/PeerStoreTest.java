@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PeerStoreTest {
+    private PeerStore peerStore;
+
+    @BeforeEach
+    void setUp() {
+        peerStore = new PeerStore();
+    }
+
+    @Test
+    void addOperation_shouldRejectExistingIds() {
+        assertTrue(peerStore.add(new DefaultNetworkPeer(new RoutableId.String("peer"))));
+        assertFalse(peerStore.add(new DefaultNetworkPeer(new RoutableId.String("peer"))));
+        assertEquals(1, peerStore.size());
+    }
+
+    @Test
+    void addAndRemove_acrossManySegments_shouldKeepEveryRemainingPeer() {
+        final int peers = PeerStore.SEGMENT_SIZE * 3 + 17;
+        Set<RoutableId<?>> expected = new HashSet<>();
+        for (int i = 0; i < peers; i++) {
+            var peer = new DefaultNetworkPeer(new RoutableId.String("peer_" + i));
+            peerStore.add(peer);
+            expected.add(peer.id());
+        }
+        // remove every third peer, including the ones at the segment boundaries
+        for (int i = 0; i < peers; i += 3) {
+            RoutableId<?> id = new RoutableId.String("peer_" + i);
+            assertTrue(peerStore.remove(id));
+            assertFalse(peerStore.remove(id));
+            expected.remove(id);
+        }
+
+        assertEquals(expected.size(), peerStore.size());
+        assertEquals(expected, idsOf(peerStore.snapshot()));
+        expected.forEach(id -> assertEquals(id, peerStore.get(id).id()));
+        assertNull(peerStore.get(new RoutableId.String("peer_0")));
+    }
+
+    @Test
+    void removingEveryPeer_shouldLeaveTheStoreEmpty() {
+        for (int i = 0; i < PeerStore.SEGMENT_SIZE + 1; i++) {
+            peerStore.add(new DefaultNetworkPeer(new RoutableId.String("peer_" + i)));
+        }
+        for (int i = 0; i < PeerStore.SEGMENT_SIZE + 1; i++) {
+            peerStore.remove(new RoutableId.String("peer_" + i));
+        }
+        assertTrue(peerStore.isEmpty());
+        assertEquals(0, peerStore.snapshot().segments().length);
+    }
+
+    @Test
+    void snapshot_shouldNotChangeAfterLaterMutations() {
+        var peer1 = new DefaultNetworkPeer(new RoutableId.String("peer_1"));
+        var peer2 = new DefaultNetworkPeer(new RoutableId.String("peer_2"));
+        peerStore.add(peer1);
+        peerStore.add(peer2);
+        PeerStore.Snapshot snapshot = peerStore.snapshot();
+
+        peerStore.remove(peer1.id());
+        peerStore.add(new DefaultNetworkPeer(new RoutableId.String("peer_3")));
+
+        List<Routable> visited = new ArrayList<>();
+        snapshot.forEach(visited::add);
+        assertEquals(2, visited.size());
+        assertSame(peer1, visited.get(0));
+        assertSame(peer2, visited.get(1));
+    }
+
+    @Test
+    void rangeIteration_shouldVisitOnlyTheRequestedPeers() {
+        for (int i = 0; i < PeerStore.SEGMENT_SIZE * 2; i++) {
+            peerStore.add(new DefaultNetworkPeer(new RoutableId.String("peer_" + i)));
+        }
+        List<Routable> visited = new ArrayList<>();
+        final int from = PeerStore.SEGMENT_SIZE - 5;
+        peerStore.snapshot().forEach(from, from + 10, visited::add);
+        assertEquals(10, visited.size());
+        assertEquals(new RoutableId.String("peer_" + from), visited.get(0).id());
+    }
+
+    private static Set<RoutableId<?>> idsOf(PeerStore.Snapshot snapshot) {
+        Set<RoutableId<?>> ids = new HashSet<>();
+        snapshot.forEach(peer -> ids.add(peer.id()));
+        return ids;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReplayBufferTests {
+    private final NetworkId<?> networkId = new NetworkId.Str("replay_network");
+
+    @Test
+    void lateJoiner_shouldReceiveTheLastRetainedMessages() {
+        var network = replayNetwork(new ReplayConfig(3));
+        var messages = broadcast(network, 5);
+
+        List<Message<?>> received = new CopyOnWriteArrayList<>();
+        assertTrue(new DefaultNetworkPeer(new RoutableId.String("late_peer")).join(network, received::add));
+        assertEquals(messages.subList(2, 5), received);
+
+        var live = new StringMessage("live");
+        network.broadcast(live);
+        assertEquals(live, received.get(received.size() - 1));
+        assertEquals(4, received.size());
+    }
+
+    @Test
+    void lateJoiner_shouldReceiveOnlyTheMessagesAfterTheGivenId() {
+        var network = replayNetwork(new ReplayConfig(8));
+        var messages = broadcast(network, 5);
+
+        List<Message<?>> received = new CopyOnWriteArrayList<>();
+        assertTrue(new DefaultNetworkPeer(new RoutableId.String("reconnecting_peer")).join(network, received::add, JoinOptions.defaults().withReplayAfter(messages.get(2).id())));
+        assertEquals(messages.subList(3, 5), received);
+    }
+
+    @Test
+    void unknownMessageId_shouldReplayEveryRetainedMessage() {
+        var network = replayNetwork(new ReplayConfig(2));
+        var messages = broadcast(network, 4);
+
+        List<Message<?>> received = new CopyOnWriteArrayList<>();
+        // The first message has been overwritten
+        new DefaultNetworkPeer(new RoutableId.String("stale_peer")).join(network, received::add, JoinOptions.defaults().withReplayAfter(messages.get(0).id()));
+        assertEquals(messages.subList(2, 4), received);
+    }
+
+    @Test
+    void typedPeer_shouldReceiveOnlyRetainedMessagesOfItsType() {
+        var network = replayNetwork(new ReplayConfig(8));
+        network.broadcast(new StringMessage("first"));
+        var integerMessage = new NetworksAndPeersTests.IntegerMessage(42);
+        network.broadcast(integerMessage);
+        network.broadcast(new StringMessage("second"));
+
+        List<Message<Integer>> received = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("typed_peer")).join(network, received::add, JoinOptions.of(Integer.class));
+        assertEquals(List.of(integerMessage), received);
+    }
+
+    @Test
+    void joinOptions_shouldCombineThePayloadTypeTheMailboxAndTheReplay() {
+        var network = replayNetwork(new ReplayConfig(8));
+        var firstInteger = new NetworksAndPeersTests.IntegerMessage(1);
+        network.broadcast(firstInteger);
+        network.broadcast(new StringMessage("first"));
+        var secondInteger = new NetworksAndPeersTests.IntegerMessage(2);
+        network.broadcast(secondInteger);
+
+        List<Runnable> pendingDrainTasks = new ArrayList<>();
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        var options = JoinOptions.of(Integer.class)
+                .withMailbox(new MailboxConfig(4, OverflowPolicy.DROP_NEWEST, message -> { }, pendingDrainTasks::add))
+                .withReplayAfter(firstInteger.id());
+        assertTrue(new DefaultNetworkPeer(new RoutableId.String("combined_peer")).join(network, message -> received.add(message.payload()), options));
+        network.broadcast(new StringMessage("second"));
+        assertEquals(List.of(), received);
+
+        pendingDrainTasks.forEach(Runnable::run);
+        assertEquals(List.of(2), received);
+    }
+
+    @Test
+    void expiredMessages_shouldNotBeReplayed() throws InterruptedException {
+        var network = replayNetwork(new ReplayConfig(8, Duration.ofMillis(50)));
+        broadcast(network, 2);
+        Thread.sleep(100);
+        var fresh = new StringMessage("fresh");
+        network.broadcast(fresh);
+
+        List<Message<?>> received = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("late_peer")).join(network, received::add);
+        assertEquals(List.of(fresh), received);
+    }
+
+    @Test
+    void concurrentProducers_shouldLeaveTheNewestMessageInEverySlot() throws InterruptedException {
+        var replayBuffer = new ReplayBuffer(new ReplayConfig(1));
+        Thread[] producers = new Thread[4];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    replayBuffer.append(new StringMessage("m" + j));
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        // A slot labelled with an older sequence than the last one would not be replayed
+        assertEquals(1, replayBuffer.retained(Object.class, null).size());
+    }
+
+    @Test
+    void networkWithoutReplay_shouldNotRetainMessages() {
+        var network = new DefaultBroadcastNetwork(networkId);
+        broadcast(network, 3);
+
+        List<Message<?>> received = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("late_peer")).join(network, received::add);
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void invalidConfig_shouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ReplayConfig(0));
+        assertThrows(IllegalArgumentException.class, () -> new ReplayConfig(4, Duration.ZERO));
+    }
+
+    private DefaultBroadcastNetwork replayNetwork(ReplayConfig config) {
+        return new DefaultBroadcastNetwork(networkId, BroadcastExecutors.callerThread(), BroadcastMetrics.NOOP, null, config);
+    }
+
+    private static List<Message<?>> broadcast(BroadcastNetwork network, int count) {
+        List<Message<?>> messages = IntStream.range(0, count)
+                .<Message<?>>mapToObj(i -> new StringMessage("message_" + i))
+                .toList();
+        messages.forEach(network::broadcast);
+        return messages;
+    }
+}
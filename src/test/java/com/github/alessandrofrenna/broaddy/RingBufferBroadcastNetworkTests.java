@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RingBufferBroadcastNetworkTests {
+    private List<Runnable> pendingDrainTasks;
+    private Executor manualExecutor;
+
+    @BeforeEach
+    void setUp() {
+        pendingDrainTasks = new CopyOnWriteArrayList<>();
+        manualExecutor = pendingDrainTasks::add;
+    }
+
+    @Test
+    void constructor_shouldRequireAPowerOfTwoCapacity() {
+        var networkId = new NetworkId.Str("ring_network");
+        assertThrows(IllegalArgumentException.class, () -> new RingBufferBroadcastNetwork(networkId, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RingBufferBroadcastNetwork(networkId, 12));
+        assertThrows(IllegalArgumentException.class, () -> BroadcastNetworkFactory.ringBuffer(-4));
+        assertEquals(16, new RingBufferBroadcastNetwork(networkId, 16).capacity());
+    }
+
+    @Test
+    void connectAndDisconnect_shouldFollowTheNetworkLifecycle() {
+        var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_network"), 8, manualExecutor);
+        var peer = new DefaultNetworkPeer(new RoutableId.String("peer"));
+
+        assertEquals(BroadcastNetwork.Connect.OK, network.connectPeer(peer));
+        assertEquals(BroadcastNetwork.Connect.EXISTING_ID, network.connectPeer(peer));
+        assertEquals(1, network.size());
+        assertEquals(BroadcastNetwork.Disconnect.OK, network.disconnectPeer(peer.id()));
+        assertEquals(BroadcastNetwork.Disconnect.NOT_FOUND, network.disconnectPeer(peer.id()));
+        assertTrue(network.isEmpty());
+
+        network.shutdown().join();
+        assertEquals(BroadcastNetwork.Connect.NETWORK_OFFLINE, network.connectPeer(peer));
+    }
+
+    @Test
+    void broadcast_shouldDeliverConsecutiveSequencesAsOneBatch() {
+        var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_network"), 8, manualExecutor);
+        List<List<String>> batches = new ArrayList<>();
+        var peer = new DefaultNetworkPeer(new RoutableId.String("batch_peer"));
+        peer.join(network, (msg) -> {}, JoinOptions.defaults().withBatchConsumer(batchConsumerOf(batches)));
+
+        network.broadcast(new StringMessage("m1"));
+        network.broadcast(new StringMessage("m2"));
+        network.broadcastAll(List.of(new StringMessage("m3"), new StringMessage("m4")));
+        assertEquals(1, pendingDrainTasks.size());
+
+        runDrainTasks();
+        assertEquals(List.of(List.of("m1", "m2", "m3", "m4")), batches);
+    }
+
+    @Test
+    void broadcast_shouldDeliverInOrderOnTheCallerThread() {
+        var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_network"), 4, BroadcastExecutors.callerThread());
+        List<String> firstReceived = new ArrayList<>();
+        List<String> secondReceived = new ArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("first_peer")).join(network, consumerOf(firstReceived));
+        new DefaultNetworkPeer(new RoutableId.String("second_peer")).join(network, consumerOf(secondReceived));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add("m" + i);
+            network.broadcast(new StringMessage("m" + i));
+        }
+        assertEquals(expected, firstReceived);
+        assertEquals(expected, secondReceived);
+    }
+
+    @Test
+    void broadcast_shouldOnlyDeliverTheSubscribedPayloadType() {
+        var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_network"), 8, manualExecutor);
+        List<Integer> received = new ArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("integer_peer"))
+                .join(network, message -> received.add(message.payload()), JoinOptions.of(Integer.class));
+
+        network.broadcast(new StringMessage("m1"));
+        network.broadcast(new NetworksAndPeersTests.IntegerMessage(42));
+        runDrainTasks();
+        assertEquals(List.of(42), received);
+    }
+
+    @Test
+    void broadcast_shouldWaitForTheSlowestPeerWhenTheRingIsFull() throws Exception {
+        var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_network"), 2, manualExecutor);
+        List<String> received = new CopyOnWriteArrayList<>();
+        new DefaultNetworkPeer(new RoutableId.String("slow_peer")).join(network, consumerOf(received));
+
+        network.broadcast(new StringMessage("m1"));
+        network.broadcast(new StringMessage("m2"));
+        CompletableFuture<Void> blockedBroadcast = CompletableFuture.runAsync(() -> network.broadcast(new StringMessage("m3")));
+        assertThrows(Exception.class, () -> blockedBroadcast.get(100, TimeUnit.MILLISECONDS));
+
+        runDrainTasks();
+        blockedBroadcast.get(5, TimeUnit.SECONDS);
+        runDrainTasks();
+        assertEquals(List.of("m1", "m2", "m3"), received);
+    }
+
+    @Test
+    void shutdown_shouldDisconnectEveryPeer() throws Exception {
+        var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_network"), 8, manualExecutor);
+        var firstPeer = new DefaultNetworkPeer(new RoutableId.String("first_peer"));
+        var secondPeer = new DefaultNetworkPeer(new RoutableId.String("second_peer"));
+        firstPeer.join(network, (msg) -> {});
+        secondPeer.join(network, (msg) -> {});
+
+        network.shutdown().get(5, TimeUnit.SECONDS);
+        assertTrue(network.isEmpty());
+        assertEquals(0, firstPeer.countJoinedNetworks());
+        assertEquals(0, secondPeer.countJoinedNetworks());
+        assertFalse(secondPeer.join(network, (msg) -> {}));
+    }
+
+    @Test
+    void networkService_shouldCreateNetworksWithTheFactory() {
+        var networkService = new DefaultBroadcastNetworkService(new InMemoryBroadcastNetworkRegistry(), BroadcastNetworkFactory.ringBuffer(64));
+        BroadcastNetwork network = networkService.create(new NetworkId.UUID());
+        assertInstanceOf(RingBufferBroadcastNetwork.class, network);
+        assertEquals(64, ((RingBufferBroadcastNetwork) network).capacity());
+        assertTrue(networkService.dispose(network.id()));
+    }
+
+    @Test
+    void throwingPeer_shouldNotStallTheProducers() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            List<Throwable> failures = new CopyOnWriteArrayList<>();
+            BroadcastMetrics metrics = new BroadcastMetrics() {
+                @Override
+                public void consumerFailed(NetworkId<?> networkId, RoutableId<?> peerId, Throwable cause) {
+                    failures.add(cause);
+                }
+            };
+            var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_network"), 4, executor, metrics);
+            var peer = new ThrowingOncePeer(new RoutableId.String("throwing_peer"));
+            network.connectPeer(peer);
+
+            var producer = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 20; i++) {
+                    network.broadcast(new StringMessage("m" + i));
+                }
+            });
+            producer.get(5, TimeUnit.SECONDS);
+            executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+            assertEquals(1, failures.size());
+            assertTrue(peer.received.contains("m19"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void throwingPeer_shouldNotEscapeIntoTheCallerThreadBroadcast() {
+        var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_network"), 4, BroadcastExecutors.callerThread());
+        var peer = new ThrowingOncePeer(new RoutableId.String("throwing_peer"));
+        network.connectPeer(peer);
+
+        for (int i = 0; i < 10; i++) {
+            network.broadcast(new StringMessage("m" + i));
+        }
+        assertEquals(9, peer.received.size());
+    }
+
+    @Test
+    void rejectedDrain_shouldBeRetriedByTheWaitingProducer() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            AtomicBoolean rejected = new AtomicBoolean(false);
+            Executor rejectingOnce = task -> {
+                if (rejected.compareAndSet(false, true)) {
+                    throw new RejectedExecutionException("rejected once");
+                }
+                executor.execute(task);
+            };
+            var network = new RingBufferBroadcastNetwork(new NetworkId.Str("ring_network"), 2, rejectingOnce);
+            List<String> received = new CopyOnWriteArrayList<>();
+            new DefaultNetworkPeer(new RoutableId.String("peer")).join(network, consumerOf(received));
+
+            // The drain of the full ring is rejected, the next producer waits for it
+            var producer = CompletableFuture.runAsync(() -> {
+                network.broadcastAll(List.of(new StringMessage("m0"), new StringMessage("m1")));
+                for (int i = 2; i < 10; i++) {
+                    network.broadcast(new StringMessage("m" + i));
+                }
+            });
+            producer.get(5, TimeUnit.SECONDS);
+            executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+            assertTrue(received.contains("m0"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class ThrowingOncePeer implements Routable {
+        private final RoutableId<?> id;
+        private final AtomicBoolean thrown = new AtomicBoolean(false);
+        private final List<String> received = new CopyOnWriteArrayList<>();
+
+        private ThrowingOncePeer(RoutableId<?> id) {
+            this.id = id;
+        }
+
+        @Override
+        public RoutableId<?> id() {
+            return id;
+        }
+
+        @Override
+        public void deliverMessage(NetworkId<?> networkId, Message<?> message) {
+            if (thrown.compareAndSet(false, true)) {
+                throw new IllegalStateException("consumer failure");
+            }
+            received.add((String) message.payload());
+        }
+
+        @Override
+        public void deliverMessages(NetworkId<?> networkId, List<? extends Message<?>> messages) {
+            if (thrown.compareAndSet(false, true)) {
+                throw new IllegalStateException("consumer failure");
+            }
+            messages.forEach(message -> received.add((String) message.payload()));
+        }
+
+        @Override
+        public void forceDisconnection(NetworkId<?> networkId) {
+        }
+    }
+
+    private void runDrainTasks() {
+        while (!pendingDrainTasks.isEmpty()) {
+            pendingDrainTasks.remove(0).run();
+        }
+    }
+
+    private static Consumer<Message<?>> consumerOf(List<String> received) {
+        return message -> received.add((String) message.payload());
+    }
+
+    private static Consumer<List<Message<?>>> batchConsumerOf(List<List<String>> batches) {
+        return messages -> batches.add(messages.stream().map(message -> (String) message.payload()).toList());
+    }
+}
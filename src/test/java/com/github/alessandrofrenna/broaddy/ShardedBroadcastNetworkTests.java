@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.alessandrofrenna.broaddy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardedBroadcastNetworkTests {
+    private ShardedBroadcastNetwork network;
+
+    @BeforeEach
+    void setUp() {
+        network = new ShardedBroadcastNetwork(new NetworkId.Str("sharded_network"), 8);
+    }
+
+    @Test
+    void constructor_shouldRequireAPowerOfTwoStripeCount() {
+        var networkId = new NetworkId.Str("sharded_network");
+        assertThrows(IllegalArgumentException.class, () -> new ShardedBroadcastNetwork(networkId, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ShardedBroadcastNetwork(networkId, 6));
+        assertEquals(1, Integer.bitCount(new ShardedBroadcastNetwork(networkId).stripeCount()));
+    }
+
+    @Test
+    void connectAndDisconnect_shouldFollowTheNetworkLifecycle() {
+        List<NetworkPeer> peers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            peers.add(new DefaultNetworkPeer(new RoutableId.String("peer_" + i)));
+        }
+        assertTrue(network.connectPeers(peers).stream().allMatch(connect -> connect == BroadcastNetwork.Connect.OK));
+        assertEquals(BroadcastNetwork.Connect.EXISTING_ID, network.connectPeer(peers.get(42)));
+        assertEquals(100, network.size());
+
+        List<RoutableId<?>> ids = List.of(peers.get(0).id(), new RoutableId.String("unknown_peer"), peers.get(1).id());
+        assertEquals(List.of(BroadcastNetwork.Disconnect.OK, BroadcastNetwork.Disconnect.NOT_FOUND, BroadcastNetwork.Disconnect.OK), network.disconnectPeers(ids));
+        assertEquals(BroadcastNetwork.Disconnect.OK, network.disconnectPeer(peers.get(2).id()));
+        assertEquals(97, network.size());
+    }
+
+    @Test
+    void bulkConnection_shouldNotBeSplitByAConcurrentShutdown() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int round = 0; round < 50; round++) {
+                var racedNetwork = new ShardedBroadcastNetwork(new NetworkId.Str("raced_network_" + round), 8);
+                List<NetworkPeer> peers = new ArrayList<>();
+                for (int i = 0; i < 64; i++) {
+                    peers.add(new DefaultNetworkPeer(new RoutableId.String("peer_" + i)));
+                }
+                CountDownLatch start = new CountDownLatch(1);
+                Future<List<BroadcastNetwork.Connect>> connected = executor.submit(() -> {
+                    start.await();
+                    return racedNetwork.connectPeers(peers);
+                });
+                start.countDown();
+                racedNetwork.shutdown();
+                // Every peer has the same result: the batch ran either before or after the shutdown
+                assertEquals(1, Set.copyOf(connected.get(5, TimeUnit.SECONDS)).size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void broadcast_shouldReachThePeersOfEveryStripe() {
+        AtomicInteger deliveries = new AtomicInteger();
+        List<Integer> integers = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            new DefaultNetworkPeer(new RoutableId.String("peer_" + i)).join(network, (msg) -> deliveries.incrementAndGet());
+        }
+        new DefaultNetworkPeer(new RoutableId.String("integer_peer"))
+                .join(network, message -> integers.add(message.payload()), JoinOptions.of(Integer.class));
+
+        network.broadcast(new StringMessage("m1"));
+        network.broadcastAll(List.of(new StringMessage("m2"), new NetworksAndPeersTests.IntegerMessage(7)));
+        assertEquals(64 * 3, deliveries.get());
+        assertEquals(List.of(7), integers);
+    }
+
+    @Test
+    void broadcastAll_shouldRejectNullMessagesBeforeDeliveringAny() {
+        AtomicInteger deliveries = new AtomicInteger();
+        new DefaultNetworkPeer(new RoutableId.String("peer")).join(network, (msg) -> deliveries.incrementAndGet());
+
+        assertThrows(IllegalArgumentException.class, () -> network.broadcastAll(Arrays.asList(new StringMessage("m1"), null)));
+        assertEquals(0, deliveries.get());
+    }
+
+    @Test
+    void broadcast_shouldDeliverInParallelAboveTheThreshold() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            var parallelNetwork = new ShardedBroadcastNetwork(new NetworkId.Str("parallel_sharded_network"), 16,
+                    BroadcastExecutors.callerThread(), BroadcastMetrics.NOOP, new ParallelFanOut(PeerStore.SEGMENT_SIZE, pool));
+            AtomicInteger deliveries = new AtomicInteger();
+            for (int i = 0; i < 1000; i++) {
+                new DefaultNetworkPeer(new RoutableId.String("peer_" + i)).join(parallelNetwork, (msg) -> deliveries.incrementAndGet());
+            }
+            parallelNetwork.broadcast(new StringMessage("m1"));
+            assertEquals(1000, deliveries.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentMembershipChanges_shouldKeepTheNetworkConsistent() throws Exception {
+        final int threads = 4;
+        final int peersPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < peersPerThread; i++) {
+                        var peer = new DefaultNetworkPeer(new RoutableId.String("peer_" + thread + "_" + i));
+                        peer.join(network, (msg) -> {});
+                        if (i % 2 == 0) {
+                            peer.leave(network.id());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 1000; i++) {
+                    network.broadcast(new StringMessage("m" + i));
+                }
+                return null;
+            }));
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * peersPerThread / 2, network.size());
+    }
+
+    @Test
+    void shutdown_shouldDisconnectThePeersOfEveryStripe() throws Exception {
+        List<NetworkPeer> peers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            var peer = new DefaultNetworkPeer(new RoutableId.String("peer_" + i));
+            peer.join(network, (msg) -> {});
+            peers.add(peer);
+        }
+        network.shutdown().get(5, TimeUnit.SECONDS);
+        assertTrue(network.isEmpty());
+        assertTrue(peers.stream().allMatch(peer -> peer.countJoinedNetworks() == 0));
+        assertEquals(BroadcastNetwork.Connect.NETWORK_OFFLINE, network.connectPeer(peers.get(0)));
+    }
+
+    @Test
+    void networkService_shouldCreateShardedNetworks() {
+        var networkService = new DefaultBroadcastNetworkService(new InMemoryBroadcastNetworkRegistry(), BroadcastNetworkFactory.sharded(32));
+        BroadcastNetwork created = networkService.create(new NetworkId.UUID());
+        assertInstanceOf(ShardedBroadcastNetwork.class, created);
+        assertEquals(32, ((ShardedBroadcastNetwork) created).stripeCount());
+    }
+}